@@ -0,0 +1,62 @@
+package com.getcapacitor.plugin;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Coalescing signal and distance updates in the EventBatcher, and flushing them.
+ */
+@State(Scope.Thread)
+public class BatchingBenchmark {
+    // The number of distinct messages updated between two flushes.
+    @Param({"1", "100", "1000"})
+    public int messages;
+
+    // The number of updates per message between two flushes.
+    @Param({"1", "10"})
+    public int updates;
+
+    private ScheduledExecutorService mScheduler;
+    private EventBatcher<Integer> mEventBatcher;
+    private Integer[] mKeys;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        // Flushed by the benchmark only.
+        mEventBatcher = new EventBatcher<>(mScheduler, Clock.SYSTEM, 60000, 0,
+                (List<EventBatcher.Entry<Integer>> entries) -> blackhole.consume(entries));
+
+        mKeys = new Integer[messages];
+        for (int i = 0; i < messages; i++) {
+            mKeys[i] = i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * One flush interval: every message is updated, and the batch is handed out.
+     */
+    @Benchmark
+    public void updateAndFlush() {
+        for (int update = 0; update < updates; update++) {
+            for (Integer key : mKeys) {
+                mEventBatcher.onBleSignal(key, -60 - update, -59);
+                mEventBatcher.onDistance(key, 1, update);
+            }
+        }
+        mEventBatcher.flush();
+    }
+}
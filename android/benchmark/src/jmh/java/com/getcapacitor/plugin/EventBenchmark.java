@@ -0,0 +1,56 @@
+package com.getcapacitor.plugin;
+
+import java.util.Random;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Construction of the event objects handed to notifyListeners, by the core as used by the
+ * plugin, and their serialization for the bridge.
+ * <p>
+ * The plugin builds into a JSObject, which is a JSONObject with the same storage.
+ */
+@State(Scope.Benchmark)
+public class EventBenchmark {
+    @Param({"16", "1024", "102400"})
+    public int size;
+
+    private final String mSubscriptionId = "0b5c7f52-1f4e-4d7a-9a55-6c1e0c2f8d11";
+
+    private final Base64Codec mBase64 = new JavaBase64Codec();
+
+    private SimulatedMessage mMessage;
+
+    @Setup
+    public void setUp() {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        mMessage = new SimulatedMessage("", "beacon", content);
+    }
+
+    @Benchmark
+    public JSONObject foundEvent() {
+        JSONObject messageObject = NearbyJson.toMessageObject(new JSONObject(),
+                mMessage.type, mMessage.content, mMessage.namespace, mBase64);
+        return NearbyJson.toEventObject(new JSONObject(), mSubscriptionId, 42, messageObject);
+    }
+
+    @Benchmark
+    public String foundEventSerialized() {
+        return foundEvent().toString();
+    }
+
+    /**
+     * A signal update referring to the message by its handle, as with messageHandles enabled.
+     */
+    @Benchmark
+    public String bleSignalEventByHandleSerialized() throws Exception {
+        JSONObject data = NearbyJson.toEventObject(new JSONObject(), mSubscriptionId, 42, null);
+        data.put("bleSignal", NearbyJson.toBleSignalObject(new JSONObject(), -67, -59, Double.NaN, null));
+        return data.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package com.getcapacitor.plugin;
+
+import java.util.Base64;
+
+/**
+ * java.util.Base64 standing in for android.util.Base64, which the plugin passes to the core.
+ * <p>
+ * The encoder produces the same output as android.util.Base64 with NO_WRAP.
+ */
+class JavaBase64Codec implements Base64Codec {
+    @Override
+    public String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    @Override
+    public byte[] decode(String string) {
+        // Like android.util.Base64.DEFAULT, which skips line breaks.
+        return Base64.getMimeDecoder().decode(string);
+    }
+}
@@ -0,0 +1,85 @@
+package com.getcapacitor.plugin;
+
+import java.util.Base64;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing the options of subscribe() as they arrive over the bridge, and evaluating the
+ * resulting content filter.
+ * <p>
+ * Runs the parsing of the core, as used by the plugin; building the Strategy and MessageFilter
+ * of Play services from the parsed clauses is not included.
+ */
+@State(Scope.Benchmark)
+public class OptionsBenchmark {
+    // The number of clauses of each kind in the filter and the content filter.
+    @Param({"1", "10", "100"})
+    public int clauses;
+
+    private final Base64Codec mBase64 = new JavaBase64Codec();
+
+    private String mOptions;
+    private ContentFilter mContentFilter;
+    private byte[] mAccepted;
+    private byte[] mRejected;
+
+    @Setup
+    public void setUp() throws Exception {
+        JSONArray namespacedTypes = new JSONArray();
+        JSONArray prefixes = new JSONArray();
+        JSONArray fields = new JSONArray();
+        JSONArray deny = new JSONArray();
+        for (int i = 0; i < clauses; i++) {
+            namespacedTypes.put(new JSONObject().put("namespace", "venue").put("type", "type-" + i));
+            prefixes.put(Base64.getEncoder().encodeToString(("prefix-" + i + ":").getBytes()));
+            deny.put(Base64.getEncoder().encodeToString(new byte[32]));
+        }
+        // Both kinds of fields, matched by the accepted content.
+        fields.put(new JSONObject().put("offset", 0).put("length", 1).put("min", 0x70).put("max", 0x70));
+        fields.put(new JSONObject().put("offset", 1).put("equals", Base64.getEncoder().encodeToString("refix".getBytes())));
+
+        JSONObject options = new JSONObject()
+                .put("filter", new JSONObject()
+                        .put("includeNamespacedType", namespacedTypes))
+                .put("contentFilter", new JSONObject()
+                        .put("prefixes", prefixes)
+                        .put("fields", fields)
+                        .put("deny", deny));
+
+        mOptions = new JSONObject().put("options", options).toString();
+
+        mContentFilter = NearbyJson.parseContentFilter(options.getJSONObject("contentFilter"), mBase64);
+        mAccepted = ("prefix-" + (clauses - 1) + ":content").getBytes();
+        mRejected = "unrelated content".getBytes();
+    }
+
+    @Benchmark
+    public ContentFilter parseSubscribeOptions() throws Exception {
+        JSONObject options = new JSONObject(mOptions).getJSONObject("options");
+
+        List<JSONObject> namespacedTypes = NearbyJson.parseFilterClauses(options.getJSONObject("filter"), "includeNamespacedType");
+        for (JSONObject namespacedType : namespacedTypes) {
+            namespacedType.getString("namespace");
+            namespacedType.getString("type");
+        }
+
+        return NearbyJson.parseContentFilter(options.getJSONObject("contentFilter"), mBase64);
+    }
+
+    @Benchmark
+    public boolean contentFilterAccepted() {
+        return mContentFilter.matches(mAccepted);
+    }
+
+    @Benchmark
+    public boolean contentFilterRejected() {
+        return mContentFilter.matches(mRejected);
+    }
+}
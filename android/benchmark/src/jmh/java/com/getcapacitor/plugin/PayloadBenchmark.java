@@ -0,0 +1,68 @@
+package com.getcapacitor.plugin;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding, compression and chunking of message contents, from 16 bytes up to MAX_CONTENT_SIZE_BYTES.
+ * <p>
+ * java.util.Base64 stands in for android.util.Base64 with NO_WRAP, which produces the same output.
+ */
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+    @Param({"16", "256", "4096", "32768", "102400"})
+    public int size;
+
+    private byte[] mContent;
+    private String mEncoded;
+    private byte[] mCompressed;
+    private PayloadCodec mPayloadCodec;
+
+    @Setup
+    public void setUp() {
+        // Compressible, like the JSON contents most apps publish.
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"device-").append(i % 97).append("\"},");
+        }
+        mContent = builder.substring(0, size).getBytes(Charset.forName("UTF-8"));
+
+        mEncoded = Base64.getEncoder().encodeToString(mContent);
+
+        mPayloadCodec = new PayloadCodec(null, 16 * 1024 * 1024);
+        mCompressed = mPayloadCodec.compress(mContent);
+    }
+
+    @Benchmark
+    public String encodeBase64() {
+        return Base64.getEncoder().encodeToString(mContent);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64() {
+        return Base64.getDecoder().decode(mEncoded);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return mPayloadCodec.compress(mContent);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws DataFormatException {
+        PayloadFrame frame = PayloadFrame.parse(mCompressed);
+        // Small contents are not worth compressing, and are passed through.
+        return frame != null ? mPayloadCodec.decompress(frame) : mCompressed;
+    }
+
+    @Benchmark
+    public byte[][] split() {
+        return PayloadFrame.split(mContent, 0, size, 4096);
+    }
+}
@@ -0,0 +1,115 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The listener callbacks of a subscription, from the radio callback up to the event sink,
+ * with a number of visible messages, smoothing and batching.
+ */
+@State(Scope.Thread)
+public class SubscriptionBenchmark {
+    @Param({"1", "100", "10000"})
+    public int visible;
+
+    @Param({"none", "ema", "kalman"})
+    public String smoothing;
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    private ScheduledExecutorService mScheduler;
+    private SubscriptionEngine<SimulatedMessage> mEngine;
+
+    private SimulatedMessage[] mMessages;
+    private SimulatedMessage mTransient;
+    private int mNext;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        SignalFilter<SimulatedMessage> signalFilter = null;
+        if (!"none".equals(smoothing)) {
+            List<SignalFilter.Band> bands = new ArrayList<>();
+            bands.add(new SignalFilter.Band("immediate", -55));
+            bands.add(new SignalFilter.Band("near", -75));
+            signalFilter = new SignalFilter<>(SignalFilter.Mode.fromString(smoothing), 0.3, 0.008, 4, 2, bands);
+        }
+
+        mEngine = new SubscriptionEngine<>(
+                new SimulatedMessage.Codec(null),
+                new SubscriptionEngine.Sink<SimulatedMessage>() {
+                    @Override
+                    public void onFound(SimulatedMessage message, int handle, long receivedAt) {
+                        blackhole.consume(handle);
+                    }
+
+                    @Override
+                    public void onLost(SimulatedMessage message, int handle, long receivedAt) {
+                        blackhole.consume(handle);
+                    }
+
+                    @Override
+                    public void onBleSignalChanged(SimulatedMessage message, int handle, int rssi, int txPower, double smoothedRssi, String band, long receivedAt) {
+                        blackhole.consume(handle);
+                    }
+
+                    @Override
+                    public void onDistanceChanged(SimulatedMessage message, int handle, int accuracy, double meters, long receivedAt) {
+                        blackhole.consume(handle);
+                    }
+                },
+                Clock.SYSTEM, new AtomicInteger(),
+                new ChunkAssembler<SimulatedMessage, SimulatedMessage>(
+                        (byte[] content, String type, String namespace) -> new SimulatedMessage(namespace, type, content),
+                        30000, 16, 4 * 1024 * 1024),
+                signalFilter, null, null, new MetricsRegistry());
+
+        if (batching) {
+            mEngine.setEventBatcher(new EventBatcher<SimulatedMessage>(mScheduler, Clock.SYSTEM, 250, 0,
+                    (List<EventBatcher.Entry<SimulatedMessage>> entries) -> blackhole.consume(entries)));
+        }
+
+        mMessages = new SimulatedMessage[visible];
+        for (int i = 0; i < visible; i++) {
+            mMessages[i] = new SimulatedMessage("", "beacon", ("beacon-" + i).getBytes());
+            mEngine.onFound(mMessages[i]);
+        }
+        mTransient = new SimulatedMessage("", "beacon", "transient".getBytes());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mEngine.setEventBatcher(null);
+        mScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void bleSignal() {
+        int i = mNext++;
+        mEngine.onBleSignalChanged(mMessages[(i & Integer.MAX_VALUE) % visible], -50 - (i & 31), -59);
+    }
+
+    @Benchmark
+    public void distance() {
+        int i = mNext++;
+        mEngine.onDistanceChanged(mMessages[(i & Integer.MAX_VALUE) % visible], 1, (i & 31) / 2.0);
+    }
+
+    @Benchmark
+    public void foundAndLost() {
+        mEngine.onFound(mTransient);
+        mEngine.onLost(mTransient);
+    }
+}
@@ -0,0 +1,104 @@
+package com.getcapacitor.plugin;
+
+/**
+ * Decides whether a subscription is active or quiet from the activity it observes, so that it
+ * can subscribe with a cheaper strategy while nothing happens.
+ * <p>
+ * A subscription becomes quiet once it has observed no activity for quietAfterMillis, and active
+ * again once it observes activeThreshold events within activeWindowMillis. Either switch waits
+ * until minDwellMillis have passed since the previous one, so that it does not thrash.
+ */
+class AdaptiveController {
+    static final int ACTIVE = 0;
+    static final int QUIET = 1;
+
+    private final long mQuietAfterMillis;
+    private final long mActiveWindowMillis;
+    private final long mMinDwellMillis;
+
+    // Volatile, so that recording activity while active takes no lock.
+    private volatile int mMode = ACTIVE;
+    private volatile long mLastActivityAt;
+
+    private long mLastSwitchAt;
+
+    // The times of the latest events while quiet, as a ring of activeThreshold entries.
+    private final long[] mRecent;
+    private int mRecentNext;
+    private int mRecentCount;
+
+    AdaptiveController(long quietAfterMillis, int activeThreshold, long activeWindowMillis, long minDwellMillis, long nowMillis) {
+        this.mQuietAfterMillis = quietAfterMillis;
+        this.mActiveWindowMillis = activeWindowMillis;
+        this.mMinDwellMillis = minDwellMillis;
+        this.mRecent = new long[Math.max(activeThreshold, 1)];
+        this.mLastActivityAt = nowMillis;
+        this.mLastSwitchAt = nowMillis;
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Records an event, e.g. a message found or lost, and returns true if the subscription is to become active.
+     */
+    boolean onActivity(long nowMillis) {
+        mLastActivityAt = nowMillis;
+
+        if (mMode != QUIET) {
+            // While active, evaluate() only needs the time of the latest activity.
+            return false;
+        }
+
+        synchronized (this) {
+            return onQuietActivity(nowMillis);
+        }
+    }
+
+    private boolean onQuietActivity(long nowMillis) {
+        if (mMode != QUIET) {
+            return false;
+        }
+
+        mRecent[mRecentNext] = nowMillis;
+        mRecentNext = (mRecentNext + 1) % mRecent.length;
+        mRecentCount = Math.min(mRecentCount + 1, mRecent.length);
+
+        if (mRecentCount < mRecent.length) {
+            return false;
+        }
+
+        // The oldest of the latest activeThreshold events.
+        long oldest = mRecent[mRecentNext];
+        if (nowMillis - oldest > mActiveWindowMillis || nowMillis - mLastSwitchAt < mMinDwellMillis) {
+            return false;
+        }
+
+        switchTo(ACTIVE, nowMillis);
+        return true;
+    }
+
+    /**
+     * Returns true if the subscription is to become quiet, to be called periodically.
+     */
+    synchronized boolean evaluate(long nowMillis) {
+        if (mMode != ACTIVE) {
+            return false;
+        }
+
+        if (nowMillis - mLastActivityAt < mQuietAfterMillis || nowMillis - mLastSwitchAt < mMinDwellMillis) {
+            return false;
+        }
+
+        switchTo(QUIET, nowMillis);
+        return true;
+    }
+
+    private void switchTo(int mode, long nowMillis) {
+        mMode = mode;
+        mLastSwitchAt = nowMillis;
+        mRecentNext = 0;
+        mRecentCount = 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.getcapacitor.plugin;
+
+/**
+ * The Base64 encoding of contents exchanged with the bridge, so that the core does not depend
+ * on android.util.Base64 (java.util.Base64 requires API level 26).
+ */
+interface Base64Codec {
+    // Encodes without line breaks.
+    String encode(byte[] bytes);
+
+    /**
+     * @throws IllegalArgumentException if the given string is not valid Base64
+     */
+    byte[] decode(String string);
+}
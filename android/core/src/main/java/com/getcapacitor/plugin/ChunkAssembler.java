@@ -0,0 +1,201 @@
+package com.getcapacitor.plugin;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reassembles contents which have been split into chunk messages sharing a transfer ID.
+ * <p>
+ * Incomplete transfers are buffered within the given bounds and evicted once they
+ * exceed the timeout. A completed transfer stays known while any of its chunks is
+ * visible, so that it is reported lost only once all of them have been lost.
+ */
+class ChunkAssembler<K, V> {
+    interface Factory<V> {
+        V create(byte[] content, String type, String namespace);
+    }
+
+    private static class Transfer<K, V> {
+        final String type;
+        final String namespace;
+        final long startedAt;
+
+        byte[][] chunks;
+        int received;
+        int bytes;
+
+        V assembled;
+
+        // The chunk messages which are currently visible.
+        final Set<K> visible = new HashSet<>();
+
+        Transfer(int count, String type, String namespace, long startedAt) {
+            this.chunks = new byte[count][];
+            this.type = type;
+            this.namespace = namespace;
+            this.startedAt = startedAt;
+        }
+    }
+
+    private final Factory<V> mFactory;
+    private final long mTimeoutMillis;
+    private final int mMaxTransfers;
+    private final int mMaxBytes;
+
+    // Insertion ordered, so that the oldest transfers are evicted first.
+    private final LinkedHashMap<Long, Transfer<K, V>> mTransfers = new LinkedHashMap<>();
+    private final HashMap<K, Long> mTransferIds = new HashMap<>();
+    private int mBufferedBytes;
+
+    ChunkAssembler(Factory<V> factory, long timeoutMillis, int maxTransfers, int maxBytes) {
+        this.mFactory = factory;
+        this.mTimeoutMillis = timeoutMillis;
+        this.mMaxTransfers = maxTransfers;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a found chunk.
+     *
+     * @return the reassembled value if this chunk completed its transfer, otherwise null
+     */
+    synchronized V onFound(K key, PayloadFrame frame, String type, String namespace, long now) {
+        evictExpired(now);
+
+        Long transferId = frame.transferId;
+
+        Transfer<K, V> transfer = mTransfers.get(transferId);
+        if (transfer == null) {
+            transfer = new Transfer<>(frame.count, type, namespace, now);
+            mTransfers.put(transferId, transfer);
+        } else if (transfer.chunks != null && transfer.chunks.length != frame.count) {
+            // Inconsistent chunk count, ignore.
+            return null;
+        }
+
+        mTransferIds.put(key, transferId);
+        transfer.visible.add(key);
+
+        if (transfer.assembled != null || transfer.chunks[frame.index] != null) {
+            return null;
+        }
+
+        transfer.chunks[frame.index] = frame.payload();
+        transfer.received++;
+        transfer.bytes += frame.length;
+        mBufferedBytes += frame.length;
+
+        if (transfer.received < transfer.chunks.length) {
+            evictOverflow(transferId);
+
+            if (mBufferedBytes > mMaxBytes) {
+                // The transfer alone exceeds the buffer.
+                evict(transfer);
+                mTransfers.remove(transferId);
+            }
+            return null;
+        }
+
+        byte[] content = new byte[transfer.bytes];
+        int offset = 0;
+        for (byte[] chunk : transfer.chunks) {
+            System.arraycopy(chunk, 0, content, offset, chunk.length);
+            offset += chunk.length;
+        }
+
+        mBufferedBytes -= transfer.bytes;
+        transfer.chunks = null;
+        transfer.assembled = mFactory.create(content, transfer.type, transfer.namespace);
+
+        return transfer.assembled;
+    }
+
+    /**
+     * Returns the reassembled value of the transfer the given chunk belongs to,
+     * or null if it is unknown or not complete yet.
+     */
+    synchronized V resolve(K key) {
+        Long transferId = mTransferIds.get(key);
+        if (transferId == null) {
+            return null;
+        }
+
+        Transfer<K, V> transfer = mTransfers.get(transferId);
+        return transfer != null ? transfer.assembled : null;
+    }
+
+    /**
+     * Removes a lost chunk.
+     *
+     * @return the reassembled value if all chunks of its completed transfer have been lost, otherwise null
+     */
+    synchronized V onLost(K key) {
+        Long transferId = mTransferIds.remove(key);
+        if (transferId == null) {
+            return null;
+        }
+
+        Transfer<K, V> transfer = mTransfers.get(transferId);
+        if (transfer == null) {
+            return null;
+        }
+
+        transfer.visible.remove(key);
+
+        if (transfer.assembled != null && transfer.visible.isEmpty()) {
+            mTransfers.remove(transferId);
+            return transfer.assembled;
+        }
+        return null;
+    }
+
+    synchronized void clear() {
+        mTransfers.clear();
+        mTransferIds.clear();
+        mBufferedBytes = 0;
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<Long, Transfer<K, V>>> iterator = mTransfers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Transfer<K, V> transfer = iterator.next().getValue();
+            if (transfer.assembled == null && now - transfer.startedAt > mTimeoutMillis) {
+                evict(transfer);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evictOverflow(Long keep) {
+        Iterator<Map.Entry<Long, Transfer<K, V>>> iterator = mTransfers.entrySet().iterator();
+        while (iterator.hasNext() && (mBufferedBytes > mMaxBytes || incompleteTransfers() > mMaxTransfers)) {
+            Map.Entry<Long, Transfer<K, V>> entry = iterator.next();
+            Transfer<K, V> transfer = entry.getValue();
+            if (transfer.assembled == null && !entry.getKey().equals(keep)) {
+                evict(transfer);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evict(Transfer<K, V> transfer) {
+        mBufferedBytes -= transfer.bytes;
+        for (K key : transfer.visible) {
+            mTransferIds.remove(key);
+        }
+    }
+
+    private int incompleteTransfers() {
+        int count = 0;
+        for (Transfer<K, V> transfer : mTransfers.values()) {
+            if (transfer.assembled == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
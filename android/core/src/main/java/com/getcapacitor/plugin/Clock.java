@@ -0,0 +1,24 @@
+package com.getcapacitor.plugin;
+
+/**
+ * The source of time of the core, so that simulations can run on a virtual clock.
+ */
+interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    // The wall clock time, in milliseconds since the epoch.
+    long currentTimeMillis();
+
+    // A monotonic time, in nanoseconds, to measure durations with.
+    long nanoTime();
+}
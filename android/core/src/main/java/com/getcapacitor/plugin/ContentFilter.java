@@ -0,0 +1,165 @@
+package com.getcapacitor.plugin;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides by their content which messages are passed on, before any event is built.
+ * <p>
+ * A content is accepted if it starts with any of the prefixes (if any), all fields
+ * match, its SHA-256 hash is not denied and, if an allow list is given, is allowed.
+ * The cheap checks are evaluated first, so the content is only hashed if needed.
+ */
+class ContentFilter {
+    static class Field {
+        final int offset;
+
+        // The bytes the field must equal, or null to compare it as a number.
+        final byte[] equals;
+
+        // The length in bytes (1 to 8) of the unsigned big-endian number, and its inclusive bounds.
+        final int length;
+        final long min;
+        final long max;
+
+        private Field(int offset, byte[] equals, int length, long min, long max) {
+            this.offset = offset;
+            this.equals = equals;
+            this.length = length;
+            this.min = min;
+            this.max = max;
+        }
+
+        static Field equalTo(int offset, byte[] equals) {
+            return new Field(offset, equals, equals.length, 0, 0);
+        }
+
+        static Field range(int offset, int length, long min, long max) {
+            if (length < 1 || length > 8) {
+                throw new IllegalArgumentException("Field length must be within 1 and 8");
+            }
+            return new Field(offset, null, length, min, max);
+        }
+
+        boolean matches(byte[] content) {
+            if (offset < 0 || content.length - offset < length) {
+                return false;
+            }
+
+            if (equals != null) {
+                for (int i = 0; i < equals.length; i++) {
+                    if (content[offset + i] != equals[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                value = (value << 8) | (content[offset + i] & 0xFF);
+            }
+            // Compared as unsigned numbers.
+            return (value ^ Long.MIN_VALUE) >= (min ^ Long.MIN_VALUE)
+                    && (value ^ Long.MIN_VALUE) <= (max ^ Long.MIN_VALUE);
+        }
+    }
+
+    private static class Node {
+        final HashMap<Byte, Node> children = new HashMap<>();
+        // Whether a prefix ends at this node.
+        boolean terminal;
+    }
+
+    // The trie of all prefixes, or null if the content may start with anything.
+    private final Node mPrefixes;
+    private final Field[] mFields;
+    private final Set<ByteBuffer> mAllowed;
+    private final Set<ByteBuffer> mDenied;
+
+    ContentFilter(List<byte[]> prefixes, List<Field> fields, List<byte[]> allowedHashes, List<byte[]> deniedHashes) {
+        if (prefixes.isEmpty()) {
+            this.mPrefixes = null;
+        } else {
+            this.mPrefixes = new Node();
+            for (byte[] prefix : prefixes) {
+                Node node = this.mPrefixes;
+                for (byte b : prefix) {
+                    Node child = node.children.get(b);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(b, child);
+                    }
+                    node = child;
+                }
+                node.terminal = true;
+            }
+        }
+
+        this.mFields = fields.toArray(new Field[0]);
+        this.mAllowed = toHashSet(allowedHashes);
+        this.mDenied = toHashSet(deniedHashes);
+    }
+
+    boolean matches(byte[] content) {
+        if (mPrefixes != null && !matchesPrefix(content)) {
+            return false;
+        }
+
+        for (Field field : mFields) {
+            if (!field.matches(content)) {
+                return false;
+            }
+        }
+
+        if (mAllowed.isEmpty() && mDenied.isEmpty()) {
+            return true;
+        }
+
+        ByteBuffer hash = ByteBuffer.wrap(sha256(content));
+        if (mDenied.contains(hash)) {
+            return false;
+        }
+        return mAllowed.isEmpty() || mAllowed.contains(hash);
+    }
+
+    private boolean matchesPrefix(byte[] content) {
+        Node node = mPrefixes;
+        if (node.terminal) {
+            return true;
+        }
+
+        for (byte b : content) {
+            node = node.children.get(b);
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<ByteBuffer> toHashSet(List<byte[]> hashes) {
+        Set<ByteBuffer> set = new HashSet<>();
+        for (byte[] hash : hashes) {
+            set.add(ByteBuffer.wrap(hash));
+        }
+        return set;
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.getcapacitor.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded queue of events in a file, which outlives the process.
+ * <p>
+ * The file starts with the number of records dropped so far (8 bytes), followed by the
+ * records, each prefixed with its length (4 bytes). Records are appended; once the file
+ * would exceed the maximum size, the oldest records are dropped by rewriting it to 3/4 of
+ * the maximum size. A record torn by the process dying while writing it is ignored.
+ */
+class DurableEventQueue {
+    static final int FOUND = 1;
+    static final int LOST = 2;
+    static final int BLE_SIGNAL = 3;
+    static final int DISTANCE = 4;
+
+    private static final int HEADER_SIZE = 8;
+
+    static class Record {
+        final int event;
+        // When the event has been received, in milliseconds since the epoch.
+        final long timeMillis;
+        final String namespace;
+        final String type;
+        final byte[] content;
+
+        // If BLE_SIGNAL.
+        final int rssi;
+        final int txPower;
+
+        // If DISTANCE.
+        final int accuracy;
+        final double meters;
+
+        private Record(int event, long timeMillis, String namespace, String type, byte[] content,
+                       int rssi, int txPower, int accuracy, double meters) {
+            this.event = event;
+            this.timeMillis = timeMillis;
+            this.namespace = namespace;
+            this.type = type;
+            this.content = content;
+            this.rssi = rssi;
+            this.txPower = txPower;
+            this.accuracy = accuracy;
+            this.meters = meters;
+        }
+
+        static Record found(long timeMillis, String namespace, String type, byte[] content) {
+            return new Record(FOUND, timeMillis, namespace, type, content, 0, 0, 0, 0);
+        }
+
+        static Record lost(long timeMillis, String namespace, String type, byte[] content) {
+            return new Record(LOST, timeMillis, namespace, type, content, 0, 0, 0, 0);
+        }
+
+        static Record bleSignal(long timeMillis, String namespace, String type, byte[] content, int rssi, int txPower) {
+            return new Record(BLE_SIGNAL, timeMillis, namespace, type, content, rssi, txPower, 0, 0);
+        }
+
+        static Record distance(long timeMillis, String namespace, String type, byte[] content, int accuracy, double meters) {
+            return new Record(DISTANCE, timeMillis, namespace, type, content, 0, 0, accuracy, meters);
+        }
+    }
+
+    static class Drained {
+        // Oldest first.
+        final List<Record> records;
+        // The number of records dropped because the queue was full, since the last drain.
+        final long dropped;
+        // The number of records left in the queue.
+        final int remaining;
+
+        Drained(List<Record> records, long dropped, int remaining) {
+            this.records = records;
+            this.dropped = dropped;
+            this.remaining = remaining;
+        }
+    }
+
+    private static class Contents {
+        long dropped;
+        final List<byte[]> records = new ArrayList<>();
+        long size = HEADER_SIZE;
+    }
+
+    private final File mFile;
+    private final long mMaxBytes;
+
+    // Whether the file has been checked for a torn record since the queue has been created.
+    private boolean mVerified;
+
+    DurableEventQueue(File file, long maxBytes) {
+        this.mFile = file;
+        this.mMaxBytes = maxBytes;
+    }
+
+    synchronized void append(List<Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        for (Record record : records) {
+            byte[] encoded = encode(record);
+            output.writeInt(encoded.length);
+            output.write(encoded);
+        }
+        byte[] appended = buffer.toByteArray();
+
+        long length = mFile.length();
+        if (!mVerified || length + appended.length > mMaxBytes) {
+            Contents contents = read();
+
+            int dropped = 0;
+            if (contents.size + appended.length > mMaxBytes) {
+                // Make room by dropping the oldest records.
+                dropped = drop(contents, mMaxBytes * 3 / 4 - appended.length);
+            }
+
+            // Also cuts off a record torn before, so that the appended ones are not lost behind it.
+            if (dropped > 0 || contents.size != length) {
+                write(contents);
+            }
+
+            mVerified = true;
+        }
+
+        FileOutputStream stream = new FileOutputStream(mFile, true);
+        try {
+            stream.write(appended);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Removes and returns up to max records (all if max is not positive), oldest first.
+     */
+    synchronized Drained drain(int max) throws IOException {
+        if (!mFile.exists()) {
+            return new Drained(new ArrayList<Record>(), 0, 0);
+        }
+
+        Contents contents = read();
+
+        int count = max > 0 ? Math.min(max, contents.records.size()) : contents.records.size();
+
+        List<Record> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Record record = decode(contents.records.get(i));
+            if (record != null) {
+                records.add(record);
+            }
+        }
+
+        long dropped = contents.dropped;
+
+        if (count == contents.records.size()) {
+            if (!mFile.delete() && mFile.exists()) {
+                throw new IOException("Unable to delete " + mFile);
+            }
+
+            // The next append writes the header again.
+            mVerified = false;
+            return new Drained(records, dropped, 0);
+        } else {
+            Contents remaining = new Contents();
+            for (int i = count; i < contents.records.size(); i++) {
+                byte[] record = contents.records.get(i);
+                remaining.records.add(record);
+                remaining.size += 4 + record.length;
+            }
+            write(remaining);
+        }
+
+        mVerified = true;
+
+        return new Drained(records, dropped, contents.records.size() - count);
+    }
+
+    private static int drop(Contents contents, long maxSize) {
+        int dropped = 0;
+        while (dropped < contents.records.size() && contents.size > maxSize) {
+            contents.size -= 4 + contents.records.get(dropped).length;
+            dropped++;
+        }
+        contents.records.subList(0, dropped).clear();
+        contents.dropped += dropped;
+        return dropped;
+    }
+
+    private Contents read() throws IOException {
+        Contents contents = new Contents();
+
+        if (!mFile.exists()) {
+            return contents;
+        }
+
+        byte[] bytes = new byte[(int) mFile.length()];
+        FileInputStream stream = new FileInputStream(mFile);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = stream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+        } finally {
+            stream.close();
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            contents.dropped = input.readLong();
+
+            while (true) {
+                int length = input.readInt();
+                if (length < 0 || length > input.available()) {
+                    // Torn by the process dying while writing it.
+                    break;
+                }
+
+                byte[] record = new byte[length];
+                input.readFully(record);
+
+                contents.records.add(record);
+                contents.size += 4 + length;
+            }
+        } catch (EOFException e) {
+            // The end of the queue.
+        }
+
+        return contents;
+    }
+
+    private void write(Contents contents) throws IOException {
+        File temporary = new File(mFile.getPath() + ".tmp");
+
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary));
+        try {
+            output.writeLong(contents.dropped);
+            for (byte[] record : contents.records) {
+                output.writeInt(record.length);
+                output.write(record);
+            }
+        } finally {
+            output.close();
+        }
+
+        // Replaces the queue at once, so it is never seen partially written.
+        if (!temporary.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32 + record.content.length);
+        DataOutputStream output = new DataOutputStream(buffer);
+
+        output.writeByte(record.event);
+        output.writeLong(record.timeMillis);
+        output.writeUTF(record.namespace);
+        output.writeUTF(record.type);
+        output.writeInt(record.content.length);
+        output.write(record.content);
+
+        if (record.event == BLE_SIGNAL) {
+            output.writeShort(record.rssi);
+            output.writeShort(record.txPower);
+        } else if (record.event == DISTANCE) {
+            output.writeByte(record.accuracy);
+            output.writeDouble(record.meters);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Returns the decoded record, or null if it is corrupt.
+     */
+    private static Record decode(byte[] bytes) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int event = input.readByte();
+            long timeMillis = input.readLong();
+            String namespace = input.readUTF();
+            String type = input.readUTF();
+
+            int length = input.readInt();
+            if (length < 0 || length > input.available()) {
+                return null;
+            }
+            byte[] content = new byte[length];
+            input.readFully(content);
+
+            switch (event) {
+                case FOUND:
+                    return Record.found(timeMillis, namespace, type, content);
+                case LOST:
+                    return Record.lost(timeMillis, namespace, type, content);
+                case BLE_SIGNAL:
+                    return Record.bleSignal(timeMillis, namespace, type, content, input.readShort(), input.readShort());
+                case DISTANCE:
+                    return Record.distance(timeMillis, namespace, type, content, input.readByte(), input.readDouble());
+                default:
+                    return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
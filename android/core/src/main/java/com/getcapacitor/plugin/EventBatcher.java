@@ -0,0 +1,180 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces BLE signal and distance updates per message and hands them out in batches.
+ * <p>
+ * Only the latest value of each kind is kept for a message, so the number of flushed
+ * entries is bounded by the number of distinct messages seen within one flush interval,
+ * not by the number of radio callbacks.
+ */
+class EventBatcher<K> {
+    interface Sink<K> {
+        void onFlush(List<Entry<K>> entries);
+    }
+
+    static class Entry<K> {
+        final K key;
+
+        boolean hasBleSignal;
+        int rssi;
+        int txPower;
+        // The smoothed RSSI and proximity band, if a signal filter is applied.
+        double smoothedRssi = Double.NaN;
+        String band;
+
+        boolean hasDistance;
+        int accuracy;
+        double meters;
+
+        // When the latest update has been received, in Clock.nanoTime().
+        long receivedAt;
+
+        Entry(K key) {
+            this.key = key;
+        }
+    }
+
+    private final ScheduledExecutorService mScheduler;
+    private final Clock mClock;
+    private final long mFlushIntervalMillis;
+    private final int mMaxBatchSize;
+    private final Sink<K> mSink;
+
+    private final Object mLock = new Object();
+    private LinkedHashMap<K, Entry<K>> mPending = new LinkedHashMap<>();
+    private ScheduledFuture<?> mScheduledFlush;
+    private boolean mFlushImmediately;
+    // Whether close() has been called, after which updates are ignored.
+    private boolean mClosed;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    EventBatcher(ScheduledExecutorService scheduler, Clock clock, long flushIntervalMillis, int maxBatchSize, Sink<K> sink) {
+        this.mScheduler = scheduler;
+        this.mClock = clock;
+        this.mFlushIntervalMillis = flushIntervalMillis;
+        this.mMaxBatchSize = maxBatchSize;
+        this.mSink = sink;
+    }
+
+    void onBleSignal(K key, int rssi, int txPower) {
+        onBleSignal(key, rssi, txPower, Double.NaN, null);
+    }
+
+    void onBleSignal(K key, int rssi, int txPower, double smoothedRssi, String band) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+
+            Entry<K> entry = obtain(key);
+            entry.hasBleSignal = true;
+            entry.rssi = rssi;
+            entry.txPower = txPower;
+            entry.smoothedRssi = smoothedRssi;
+            entry.band = band;
+            entry.receivedAt = mClock.nanoTime();
+
+            scheduleLocked();
+        }
+    }
+
+    void onDistance(K key, int accuracy, double meters) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+
+            Entry<K> entry = obtain(key);
+            entry.hasDistance = true;
+            entry.accuracy = accuracy;
+            entry.meters = meters;
+            entry.receivedAt = mClock.nanoTime();
+
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * Drops any pending update for the given key, e.g. once the message has been lost.
+     */
+    void remove(K key) {
+        synchronized (mLock) {
+            mPending.remove(key);
+        }
+    }
+
+    void flush() {
+        LinkedHashMap<K, Entry<K>> pending;
+
+        synchronized (mLock) {
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel(false);
+                mScheduledFlush = null;
+            }
+            mFlushImmediately = false;
+
+            if (mPending.isEmpty()) {
+                return;
+            }
+
+            pending = mPending;
+            mPending = new LinkedHashMap<>();
+        }
+
+        List<Entry<K>> entries = new ArrayList<>(pending.size());
+        for (Map.Entry<K, Entry<K>> entry : pending.entrySet()) {
+            entries.add(entry.getValue());
+        }
+
+        mSink.onFlush(entries);
+    }
+
+    /**
+     * Flushes whatever is pending and stops scheduling further flushes.
+     */
+    void close() {
+        synchronized (mLock) {
+            mClosed = true;
+        }
+
+        flush();
+    }
+
+    private Entry<K> obtain(K key) {
+        Entry<K> entry = mPending.get(key);
+        if (entry == null) {
+            entry = new Entry<>(key);
+            mPending.put(key, entry);
+        }
+        return entry;
+    }
+
+    private void scheduleLocked() {
+        if (mMaxBatchSize > 0 && mPending.size() >= mMaxBatchSize) {
+            // Flush as soon as possible, but never on the calling (radio callback) thread.
+            if (!mFlushImmediately) {
+                if (mScheduledFlush != null) {
+                    mScheduledFlush.cancel(false);
+                }
+                mScheduledFlush = mScheduler.schedule(mFlushRunnable, 0, TimeUnit.MILLISECONDS);
+                mFlushImmediately = true;
+            }
+        } else if (mScheduledFlush == null) {
+            mScheduledFlush = mScheduler.schedule(mFlushRunnable, mFlushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Runs event materialization and delivery on a dedicated thread, so that the
+ * (Play services) threads reporting events never block on it.
+ * <p>
+ * Events are delivered through two lanes: lifecycle events (e.g. found, lost or
+ * expired) are never dropped and always delivered before any pending telemetry
+ * event (e.g. signal and distance updates), which are coalesced per key and
+ * bounded by the queue capacity. Within a lane, events are delivered in the
+ * order they have been dispatched.
+ */
+class EventDispatcher {
+    enum Overflow {
+        // Drop the oldest pending telemetry event to make room for the new one.
+        DROP_OLDEST,
+        // Drop the new telemetry event.
+        DROP_NEWEST;
+
+        static Overflow fromString(String overflow) {
+            if ("dropNewest".equals(overflow)) {
+                return DROP_NEWEST;
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    private static final class Key {
+        final String eventName;
+        final Object key;
+
+        Key(String eventName, Object key) {
+            this.eventName = eventName;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return eventName.equals(other.eventName) && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * eventName.hashCode() + key.hashCode();
+        }
+    }
+
+    private static final class Slot {
+        final Key key;
+        final long enqueuedAt;
+        Runnable event;
+
+        Slot(Key key, Runnable event) {
+            this.key = key;
+            this.enqueuedAt = System.nanoTime();
+            this.event = event;
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    private final ArrayDeque<Slot> mLifecycle = new ArrayDeque<>();
+    // The pending telemetry events, oldest first, and by key.
+    private final ArrayDeque<Slot> mTelemetry = new ArrayDeque<>();
+    private final HashMap<Key, Slot> mTelemetryByKey = new HashMap<>();
+
+    // The time lifecycle events spent waiting to be delivered.
+    private final LatencyHistogram mLifecycleLatency;
+
+    private int mCapacity;
+    private Overflow mOverflow;
+
+    private final MetricsRegistry.Counter mDropped;
+    private final MetricsRegistry.Counter mSuperseded;
+    // The events which failed with an exception while being delivered.
+    private final MetricsRegistry.Counter mErrors;
+
+    private Thread mThread;
+    private boolean mClosed;
+
+    EventDispatcher(int capacity, Overflow overflow) {
+        this(capacity, overflow, new MetricsRegistry.Counter(1), new MetricsRegistry.Counter(1), new MetricsRegistry.Counter(1),
+                new LatencyHistogram());
+    }
+
+    /**
+     * Creates a dispatcher which counts dropped, superseded and failed events and records lifecycle latencies
+     * into the given metrics.
+     */
+    EventDispatcher(int capacity, Overflow overflow, MetricsRegistry.Counter dropped, MetricsRegistry.Counter superseded,
+                    MetricsRegistry.Counter errors, LatencyHistogram lifecycleLatency) {
+        this.mCapacity = capacity;
+        this.mOverflow = overflow;
+        this.mDropped = dropped;
+        this.mSuperseded = superseded;
+        this.mErrors = errors;
+        this.mLifecycleLatency = lifecycleLatency;
+    }
+
+    void configure(int capacity, Overflow overflow) {
+        synchronized (mLock) {
+            this.mCapacity = capacity;
+            this.mOverflow = overflow;
+        }
+    }
+
+    /**
+     * Dispatches a lifecycle event, which is never dropped.
+     */
+    void dispatch(Runnable event) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+
+            mLifecycle.addLast(new Slot(null, event));
+
+            startLocked();
+            mLock.notify();
+        }
+    }
+
+    /**
+     * Dispatches a telemetry event, which supersedes a pending event with the same name and key
+     * (unless the key is null), and may be dropped if the queue is full.
+     */
+    void dispatch(String eventName, Object key, Runnable event) {
+        Key slotKey = key != null ? new Key(eventName, key) : null;
+
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+
+            Slot slot = slotKey != null ? mTelemetryByKey.get(slotKey) : null;
+            if (slot != null) {
+                // Only the latest update per message is of interest.
+                slot.event = event;
+                mSuperseded.increment();
+                return;
+            }
+
+            if (mTelemetry.size() >= mCapacity) {
+                if (mOverflow == Overflow.DROP_NEWEST) {
+                    mDropped.increment();
+                    return;
+                }
+
+                Slot oldest = mTelemetry.pollFirst();
+                if (oldest != null) {
+                    if (oldest.key != null) {
+                        mTelemetryByKey.remove(oldest.key);
+                    }
+                    mDropped.increment();
+                }
+            }
+
+            slot = new Slot(slotKey, event);
+            mTelemetry.addLast(slot);
+            if (slotKey != null) {
+                mTelemetryByKey.put(slotKey, slot);
+            }
+
+            startLocked();
+            mLock.notify();
+        }
+    }
+
+    /**
+     * Discards the pending telemetry events of the given key, e.g. once the message has been lost.
+     */
+    void discard(Object key) {
+        synchronized (mLock) {
+            Iterator<Slot> iterator = mTelemetry.iterator();
+            while (iterator.hasNext()) {
+                Slot slot = iterator.next();
+                if (slot.key != null && slot.key.key.equals(key)) {
+                    iterator.remove();
+                    mTelemetryByKey.remove(slot.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of telemetry events which have been dropped because the queue was full.
+     */
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Returns the number of telemetry events which have been superseded by a newer event of the same key.
+     */
+    long getSupersededCount() {
+        return mSuperseded.get();
+    }
+
+    /**
+     * Returns the number of events which failed with an exception while being delivered.
+     */
+    long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * Returns the time lifecycle events spent waiting to be delivered.
+     */
+    LatencyHistogram getLifecycleLatency() {
+        return mLifecycleLatency;
+    }
+
+    int size() {
+        synchronized (mLock) {
+            return mLifecycle.size() + mTelemetry.size();
+        }
+    }
+
+    /**
+     * Stops delivering events; pending events are discarded.
+     */
+    void close() {
+        synchronized (mLock) {
+            mClosed = true;
+
+            mLifecycle.clear();
+            mTelemetry.clear();
+            mTelemetryByKey.clear();
+
+            mLock.notify();
+        }
+    }
+
+    private void startLocked() {
+        if (mThread == null) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "NearbyMessagesDispatcher");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            Runnable event;
+
+            synchronized (mLock) {
+                while (mLifecycle.isEmpty() && mTelemetry.isEmpty() && !mClosed) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (mClosed) {
+                    return;
+                }
+
+                // Lifecycle events always jump ahead of telemetry events.
+                Slot slot = mLifecycle.pollFirst();
+                if (slot != null) {
+                    mLifecycleLatency.record(System.nanoTime() - slot.enqueuedAt);
+                } else {
+                    slot = mTelemetry.pollFirst();
+                    if (slot.key != null) {
+                        mTelemetryByKey.remove(slot.key);
+                    }
+                }
+                event = slot.event;
+            }
+
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                // A failing event must not stop the delivery of subsequent events.
+                mErrors.increment();
+            }
+        }
+    }
+}
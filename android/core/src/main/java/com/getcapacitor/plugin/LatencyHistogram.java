@@ -0,0 +1,92 @@
+package com.getcapacitor.plugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with fixed, exponentially growing buckets.
+ * <p>
+ * Bucket i counts latencies of less than 2^i microseconds, so percentiles are
+ * reported as the upper bound of the bucket they fall into (or the maximum, for the last one).
+ */
+class LatencyHistogram {
+    static final int BUCKETS = 32;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSumNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        if (bucket >= BUCKETS) {
+            bucket = BUCKETS - 1;
+        }
+
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSumNanos.addAndGet(nanos);
+
+        long max;
+        do {
+            max = mMaxNanos.get();
+        } while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    long getMeanNanos() {
+        long count = mCount.get();
+        return count > 0 ? mSumNanos.get() / count : 0;
+    }
+
+    /**
+     * Returns the upper bound, in nanoseconds, of the bucket holding the given percentile (0-100).
+     */
+    long getPercentileNanos(double percentile) {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                if (i == BUCKETS - 1) {
+                    // The last bucket also holds all longer latencies.
+                    return mMaxNanos.get();
+                }
+                return Math.min((1L << i) * 1000, mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSumNanos.set(0);
+        mMaxNanos.set(0);
+    }
+}
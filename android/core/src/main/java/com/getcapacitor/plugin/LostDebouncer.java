@@ -0,0 +1,71 @@
+package com.getcapacitor.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays lost messages by a grace period, so that messages flapping at the edge of
+ * range are not reported lost and found again.
+ */
+class LostDebouncer<K> {
+    private final ScheduledExecutorService mScheduler;
+    private final long mGraceMillis;
+
+    private final ConcurrentHashMap<K, ScheduledFuture<?>> mPending = new ConcurrentHashMap<>();
+
+    LostDebouncer(ScheduledExecutorService scheduler, long graceMillis) {
+        this.mScheduler = scheduler;
+        this.mGraceMillis = graceMillis;
+    }
+
+    /**
+     * Reports the given message lost once the grace period elapsed without it being found again.
+     */
+    void onLost(final K key, final Runnable report) {
+        final ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+
+        synchronized (future) {
+            future[0] = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (future) {
+                        // Only report if the message has not been found again in the meantime.
+                        if (mPending.remove(key, future[0])) {
+                            report.run();
+                        }
+                    }
+                }
+            }, mGraceMillis, TimeUnit.MILLISECONDS);
+
+            ScheduledFuture<?> previous = mPending.put(key, future[0]);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns false if the given message is pending to be reported lost, in which case the
+     * lost message is silently absorbed and must not be reported found again.
+     */
+    boolean onFound(K key) {
+        ScheduledFuture<?> pending = mPending.remove(key);
+        if (pending != null) {
+            pending.cancel(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Discards all pending lost messages without reporting them.
+     */
+    void clear() {
+        for (ScheduledFuture<?> pending : mPending.values()) {
+            pending.cancel(false);
+        }
+        mPending.clear();
+    }
+}
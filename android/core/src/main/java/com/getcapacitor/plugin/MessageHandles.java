@@ -0,0 +1,76 @@
+package com.getcapacitor.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns compact numeric handles to distinct messages.
+ * <p>
+ * A handle stays valid from the moment a message is first seen until it is released
+ * (i.e. the message was lost), so events in between can refer to the handle instead
+ * of carrying the full message content.
+ */
+class MessageHandles<K> {
+    static final int NO_HANDLE = 0;
+
+    private final ConcurrentHashMap<K, Integer> mHandles = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextHandle;
+
+    MessageHandles() {
+        this(new AtomicInteger());
+    }
+
+    /**
+     * Creates handles drawn from the given sequence, so that they are unique across all instances sharing it.
+     */
+    MessageHandles(AtomicInteger nextHandle) {
+        this.mNextHandle = nextHandle;
+    }
+
+    /**
+     * Returns the handle of the given message, assigning a new one if it has none yet.
+     */
+    int acquire(K key) {
+        Integer handle = mHandles.get(key);
+        if (handle != null) {
+            return handle;
+        }
+
+        Integer newHandle = next();
+        handle = mHandles.putIfAbsent(key, newHandle);
+        return handle != null ? handle : newHandle;
+    }
+
+    /**
+     * Returns the handle of the given message, or NO_HANDLE if it has none.
+     */
+    int get(K key) {
+        Integer handle = mHandles.get(key);
+        return handle != null ? handle : NO_HANDLE;
+    }
+
+    /**
+     * Frees the handle of the given message and returns it, or NO_HANDLE if it had none.
+     */
+    int release(K key) {
+        Integer handle = mHandles.remove(key);
+        return handle != null ? handle : NO_HANDLE;
+    }
+
+    void clear() {
+        mHandles.clear();
+    }
+
+    int size() {
+        return mHandles.size();
+    }
+
+    private int next() {
+        // Handles are positive and wrap around after Integer.MAX_VALUE.
+        int handle = mNextHandle.incrementAndGet() & Integer.MAX_VALUE;
+        if (handle == NO_HANDLE) {
+            handle = mNextHandle.incrementAndGet() & Integer.MAX_VALUE;
+        }
+        return handle;
+    }
+}
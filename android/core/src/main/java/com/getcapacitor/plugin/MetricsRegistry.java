@@ -0,0 +1,123 @@
+package com.getcapacitor.plugin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters and latency histograms, which can be updated from any thread without locking.
+ * <p>
+ * Metrics are meant to be looked up once and kept in a field, as the lookup by name is
+ * not free; updating them is.
+ */
+class MetricsRegistry {
+    /**
+     * A counter striped across multiple cells, so that threads updating it concurrently
+     * do not contend on the same cache line.
+     */
+    static class Counter {
+        // The number of longs between two cells, so that each cell has a cache line (64 bytes) to itself.
+        private static final int PADDING = 8;
+
+        private final AtomicLongArray mCells;
+        private final int mMask;
+
+        Counter(int stripes) {
+            int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+            this.mCells = new AtomicLongArray(size * PADDING);
+            this.mMask = size - 1;
+        }
+
+        void increment() {
+            add(1);
+        }
+
+        void add(long delta) {
+            mCells.getAndAdd(cell(), delta);
+        }
+
+        long get() {
+            long sum = 0;
+            for (int i = 0; i <= mMask; i++) {
+                sum += mCells.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the current value and resets it; concurrent updates are either included or kept.
+         */
+        long getAndReset() {
+            long sum = 0;
+            for (int i = 0; i <= mMask; i++) {
+                sum += mCells.getAndSet(i * PADDING, 0);
+            }
+            return sum;
+        }
+
+        private int cell() {
+            long id = Thread.currentThread().getId();
+            // Spread the (mostly sequential) thread IDs.
+            int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return ((hash >>> 16) & mMask) * PADDING;
+        }
+    }
+
+    private final int mStripes;
+
+    private final ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+
+    MetricsRegistry() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    MetricsRegistry(int stripes) {
+        this.mStripes = stripes;
+    }
+
+    /**
+     * Returns the counter of the given name, creating it if it does not exist yet.
+     */
+    Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter(mStripes);
+            counter = mCounters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram of the given name, creating it if it does not exist yet.
+     */
+    LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counters, sorted by name.
+     */
+    Map<String, Counter> getCounters() {
+        return new TreeMap<>(mCounters);
+    }
+
+    /**
+     * Returns the histograms, sorted by name.
+     */
+    Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(mHistograms);
+    }
+}
@@ -0,0 +1,152 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parses the options received over the bridge and builds the event objects sent back over it.
+ * <p>
+ * Event objects are built into the given object, so the plugin can pass a JSObject. Like
+ * JSObject.put, numbers JSON cannot represent (i.e. NaN and infinity) are left out rather
+ * than failing the event.
+ */
+final class NearbyJson {
+    private NearbyJson() {
+    }
+
+    static ContentFilter parseContentFilter(JSONObject contentFilterObject, Base64Codec base64) throws JSONException {
+        // The content must start with any of these prefixes.
+        List<byte[]> prefixes = parseBytesArray(contentFilterObject.optJSONArray("prefixes"), base64);
+        // The SHA-256 hashes of the contents to accept exclusively, or to reject.
+        List<byte[]> allowedHashes = parseBytesArray(contentFilterObject.optJSONArray("allow"), base64);
+        List<byte[]> deniedHashes = parseBytesArray(contentFilterObject.optJSONArray("deny"), base64);
+
+        List<ContentFilter.Field> fields = new ArrayList<>();
+
+        JSONArray fieldsArray = contentFilterObject.optJSONArray("fields");
+        if (fieldsArray != null) {
+            for (int i = 0; i < fieldsArray.length(); i++) {
+                JSONObject fieldObject = fieldsArray.getJSONObject(i);
+
+                // The position of the field within the content.
+                int offset = fieldObject.getInt("offset");
+
+                String equals = fieldObject.optString("equals", null);
+                if (equals != null) {
+                    // The bytes the field must equal.
+                    fields.add(ContentFilter.Field.equalTo(offset, base64.decode(equals)));
+                } else {
+                    // The field is an unsigned big-endian number of this many bytes, within min and max (inclusive).
+                    fields.add(ContentFilter.Field.range(
+                            offset,
+                            fieldObject.optInt("length", 1),
+                            fieldObject.optLong("min", 0),
+                            fieldObject.optLong("max", Long.MAX_VALUE)
+                    ));
+                }
+            }
+        }
+
+        return new ContentFilter(prefixes, fields, allowedHashes, deniedHashes);
+    }
+
+    private static List<byte[]> parseBytesArray(JSONArray bytesArray, Base64Codec base64) throws JSONException {
+        List<byte[]> bytes = new ArrayList<>();
+        if (bytesArray != null) {
+            for (int i = 0; i < bytesArray.length(); i++) {
+                bytes.add(base64.decode(bytesArray.getString(i)));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the clauses of the given name, which is either a single object or an array of objects.
+     */
+    static List<JSONObject> parseFilterClauses(JSONObject filterObject, String name) throws JSONException {
+        List<JSONObject> clauses = new ArrayList<>();
+
+        JSONArray clausesArray = filterObject.optJSONArray(name);
+        if (clausesArray != null) {
+            for (int i = 0; i < clausesArray.length(); i++) {
+                clauses.add(clausesArray.getJSONObject(i));
+            }
+        } else {
+            JSONObject clauseObject = filterObject.optJSONObject(name);
+            if (clauseObject != null) {
+                clauses.add(clauseObject);
+            }
+        }
+
+        return clauses;
+    }
+
+    /**
+     * Builds the event of a subscription into the given object.
+     *
+     * @param subscriptionId the subscription, or null if the event is part of a batch
+     * @param messageObject the message, or null to refer to it by its handle only
+     */
+    static <T extends JSONObject> T toEventObject(T data, String subscriptionId, int handle, JSONObject messageObject) {
+        if (subscriptionId != null) {
+            put(data, "subscriptionId", subscriptionId);
+        }
+        if (handle != MessageHandles.NO_HANDLE) {
+            put(data, "handle", handle);
+        }
+        if (messageObject != null) {
+            put(data, "message", messageObject);
+        }
+        return data;
+    }
+
+    static <T extends JSONObject> T toMessageObject(T messageObject, String type, byte[] content, String namespace, Base64Codec base64) {
+        // Returns the type that describes the content of the message.
+        put(messageObject, "type", type);
+        // Returns the raw bytes content of the message.
+        put(messageObject, "content", base64.encode(content));
+        // Returns the non-empty string for a public namespace or empty for the private one.
+        put(messageObject, "namespace", namespace);
+        return messageObject;
+    }
+
+    /**
+     * Builds a BLE signal update into the given object.
+     *
+     * @param smoothedRssi the smoothed RSSI, or NaN if the signal is not filtered
+     */
+    static <T extends JSONObject> T toBleSignalObject(T bleSignalObject, int rssi, int txPower, double smoothedRssi, String band) {
+        // Returns the received signal strength indicator (RSSI) in dBm.
+        put(bleSignalObject, "rssi", rssi);
+        // Returns the transmission power level at 1 meter, in dBm.
+        put(bleSignalObject, "txPower", txPower);
+        if (!Double.isNaN(smoothedRssi)) {
+            // The smoothed received signal strength indicator (RSSI) in dBm.
+            put(bleSignalObject, "smoothedRssi", smoothedRssi);
+            // The proximity band of the smoothed RSSI, if any.
+            if (band != null) {
+                put(bleSignalObject, "band", band);
+            }
+        }
+        return bleSignalObject;
+    }
+
+    static <T extends JSONObject> T toDistanceObject(T distanceObject, int accuracy, double meters) {
+        // The accuracy of the distance estimate.
+        put(distanceObject, "accuracy", accuracy);
+        // The distance estimate, in meters.
+        put(distanceObject, "meters", meters);
+        return distanceObject;
+    }
+
+    private static void put(JSONObject object, String name, Object value) {
+        try {
+            object.put(name, value);
+        } catch (JSONException e) {
+            // Not representable in JSON, see above.
+        }
+    }
+}
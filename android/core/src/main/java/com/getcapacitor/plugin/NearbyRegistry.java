@@ -0,0 +1,224 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the messages which are currently visible, with their latest signal and distance.
+ */
+class NearbyRegistry<K> {
+    enum SortBy {
+        LAST_SEEN,
+        FIRST_SEEN,
+        DISTANCE,
+        RSSI;
+
+        static SortBy fromString(String sortBy) {
+            if (sortBy != null) {
+                switch (sortBy) {
+                    case "firstSeen":
+                        return FIRST_SEEN;
+                    case "distance":
+                        return DISTANCE;
+                    case "rssi":
+                        return RSSI;
+                }
+            }
+            return LAST_SEEN;
+        }
+    }
+
+    static class Entry<K> {
+        final K key;
+        final String type;
+        final String namespace;
+
+        long firstSeen;
+        long lastSeen;
+
+        boolean hasBleSignal;
+        int rssi;
+        int txPower;
+
+        boolean hasDistance;
+        int accuracy;
+        double meters;
+
+        Entry(K key, String type, String namespace, long now) {
+            this.key = key;
+            this.type = type;
+            this.namespace = namespace;
+            this.firstSeen = now;
+            this.lastSeen = now;
+        }
+
+        Entry<K> copy() {
+            Entry<K> entry = new Entry<>(key, type, namespace, firstSeen);
+            entry.lastSeen = lastSeen;
+            entry.hasBleSignal = hasBleSignal;
+            entry.rssi = rssi;
+            entry.txPower = txPower;
+            entry.hasDistance = hasDistance;
+            entry.accuracy = accuracy;
+            entry.meters = meters;
+            return entry;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Entry<K>> mEntries = new ConcurrentHashMap<>();
+
+    void onFound(K key, String type, String namespace, long now) {
+        Entry<K> entry = obtain(key, type, namespace, now);
+        synchronized (entry) {
+            entry.lastSeen = now;
+        }
+    }
+
+    /**
+     * Updates the signal of a message which has been found, returning false if it has not (or has been lost since).
+     */
+    boolean onBleSignal(K key, int rssi, int txPower, long now) {
+        Entry<K> entry = mEntries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            entry.lastSeen = now;
+            entry.hasBleSignal = true;
+            entry.rssi = rssi;
+            entry.txPower = txPower;
+        }
+        return true;
+    }
+
+    /**
+     * Updates the distance of a message which has been found, returning false if it has not (or has been lost since).
+     */
+    boolean onDistance(K key, int accuracy, double meters, long now) {
+        Entry<K> entry = mEntries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            entry.lastSeen = now;
+            entry.hasDistance = true;
+            entry.accuracy = accuracy;
+            entry.meters = meters;
+        }
+        return true;
+    }
+
+    void onLost(K key) {
+        mEntries.remove(key);
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns a consistent copy of the matching entries.
+     *
+     * @param type      only include messages of this type, if not null
+     * @param namespace only include messages of this namespace, if not null
+     * @param maxMeters only include messages with a distance estimate of at most this many meters, if not null
+     * @param sortBy    the order of the returned entries
+     * @param limit     the maximum number of entries to return, or 0 for all
+     */
+    List<Entry<K>> query(String type, String namespace, Double maxMeters, SortBy sortBy, int limit) {
+        List<Entry<K>> entries = new ArrayList<>();
+
+        for (Entry<K> entry : mEntries.values()) {
+            if (type != null && !type.equals(entry.type)) {
+                continue;
+            }
+            if (namespace != null && !namespace.equals(entry.namespace)) {
+                continue;
+            }
+
+            Entry<K> copy;
+            synchronized (entry) {
+                copy = entry.copy();
+            }
+
+            if (maxMeters != null && (!copy.hasDistance || copy.meters > maxMeters)) {
+                continue;
+            }
+
+            entries.add(copy);
+        }
+
+        Collections.sort(entries, comparator(sortBy));
+
+        if (limit > 0 && entries.size() > limit) {
+            return new ArrayList<>(entries.subList(0, limit));
+        }
+        return entries;
+    }
+
+    private Entry<K> obtain(K key, String type, String namespace, long now) {
+        Entry<K> entry = mEntries.get(key);
+        if (entry == null) {
+            Entry<K> newEntry = new Entry<>(key, type, namespace, now);
+            entry = mEntries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the order of entries used by query(), e.g. to merge the results of multiple registries.
+     */
+    static <K> Comparator<Entry<K>> comparator(SortBy sortBy) {
+        switch (sortBy) {
+            case FIRST_SEEN:
+                // Most recently found first.
+                return new Comparator<Entry<K>>() {
+                    @Override
+                    public int compare(Entry<K> a, Entry<K> b) {
+                        return Long.compare(b.firstSeen, a.firstSeen);
+                    }
+                };
+            case DISTANCE:
+                // Closest first, messages without distance estimate last.
+                return new Comparator<Entry<K>>() {
+                    @Override
+                    public int compare(Entry<K> a, Entry<K> b) {
+                        if (a.hasDistance != b.hasDistance) {
+                            return a.hasDistance ? -1 : 1;
+                        }
+                        return Double.compare(a.meters, b.meters);
+                    }
+                };
+            case RSSI:
+                // Strongest signal first, messages without signal last.
+                return new Comparator<Entry<K>>() {
+                    @Override
+                    public int compare(Entry<K> a, Entry<K> b) {
+                        if (a.hasBleSignal != b.hasBleSignal) {
+                            return a.hasBleSignal ? -1 : 1;
+                        }
+                        return Integer.compare(b.rssi, a.rssi);
+                    }
+                };
+            case LAST_SEEN:
+            default:
+                // Most recently seen first.
+                return new Comparator<Entry<K>>() {
+                    @Override
+                    public int compare(Entry<K> a, Entry<K> b) {
+                        return Long.compare(b.lastSeen, a.lastSeen);
+                    }
+                };
+        }
+    }
+}
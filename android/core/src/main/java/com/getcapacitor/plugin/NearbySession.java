@@ -0,0 +1,731 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The publications and subscriptions of the plugin, which are published and subscribed through
+ * the transport.
+ * <p>
+ * Operations failing with a retryable status code are retried according to the retry policy.
+ * A publication which has been split into chunks completes once all chunks have been published,
+ * and a subscription whose filter has been split into shards once all shards have been subscribed;
+ * it fails if any of them failed. pause() unpublishes and unsubscribes everything while keeping
+ * it registered, optionally after a linger period within which resuming is a no-op.
+ * <p>
+ * An operation is abandoned with CANCELED once its publication or subscription has been removed,
+ * or once pause() tore everything down: its pending retry is cancelled, and what it published or
+ * subscribed in the meantime is undone.
+ * <p>
+ * PUB and SUB are the publications and subscriptions of the caller, which extend those of the
+ * session with their own state, e.g. the event stream of a subscription.
+ */
+class NearbySession<M, P, S, PUB extends NearbySession.Publication<M, P>, SUB extends NearbySession.Subscription<M, S>> {
+    interface Scheduler {
+        /**
+         * Runs the given task after the given delay.
+         *
+         * @throws RejectedExecutionException if the scheduler has been shut down
+         */
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    interface Attempt {
+        void start(NearbyTransport.Callback callback);
+    }
+
+    /**
+     * One of the underlying subscriptions of a subscription, which is subscribed with the options
+     * for the current mode of the subscription.
+     */
+    interface Shard<M, S> extends NearbyTransport.Listener<M> {
+        S getOptions();
+    }
+
+    static class Publication<M, P> {
+        final UUID uuid;
+        // A single message, or its chunks if the content has been split.
+        final M[] messages;
+        final P options;
+
+        // Whether the messages are currently published, i.e. not torn down by pause().
+        volatile boolean active;
+
+        Publication(UUID uuid, M[] messages, P options) {
+            this.uuid = uuid;
+            this.messages = messages;
+            this.options = options;
+        }
+    }
+
+    static class Subscription<M, S> {
+        final String id;
+
+        // The underlying subscriptions, more than one if the filter has been split.
+        final List<Shard<M, S>> shards = new ArrayList<>();
+
+        // Whether the subscription is currently subscribed, i.e. not torn down by pause().
+        volatile boolean active;
+
+        Subscription(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Called once the subscription has been unsubscribed, so that messages will not be reported lost anymore.
+         */
+        void onCancelled() {
+        }
+
+        /**
+         * Called once the subscription has been removed from the session.
+         */
+        void onRemoved() {
+        }
+    }
+
+    /**
+     * Completes the given callback once the given number of operations completed, with the first failure if any.
+     */
+    private static class Join implements NearbyTransport.Callback {
+        private final NearbyTransport.Callback mCallback;
+        private int mRemaining;
+        private boolean mFailed;
+        private int mStatusCode;
+
+        Join(int count, NearbyTransport.Callback callback) {
+            this.mRemaining = count;
+            this.mCallback = callback;
+        }
+
+        @Override
+        public void onSuccess() {
+            complete(false, 0);
+        }
+
+        @Override
+        public void onFailure(int statusCode) {
+            complete(true, statusCode);
+        }
+
+        private void complete(boolean failed, int statusCode) {
+            synchronized (this) {
+                if (failed && !mFailed) {
+                    mFailed = true;
+                    mStatusCode = statusCode;
+                }
+                if (--mRemaining > 0) {
+                    return;
+                }
+            }
+
+            if (mFailed) {
+                mCallback.onFailure(mStatusCode);
+            } else {
+                mCallback.onSuccess();
+            }
+        }
+    }
+
+    /**
+     * Whether an operation is still wanted, which is checked before each attempt and once it succeeded.
+     */
+    private interface Guard {
+        boolean isValid();
+    }
+
+    private static final Guard ALWAYS = new Guard() {
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+    };
+
+    /**
+     * The next attempt of an operation which is backing off, which runs at most once, unless it is cancelled before.
+     */
+    private final class Retry implements Runnable {
+        final Attempt attempt;
+        final Guard guard;
+        final RetryPolicy retryPolicy;
+        final int attempts;
+        final NearbyTransport.Callback callback;
+
+        private boolean mDone;
+
+        Retry(Attempt attempt, Guard guard, RetryPolicy retryPolicy, int attempts, NearbyTransport.Callback callback) {
+            this.attempt = attempt;
+            this.guard = guard;
+            this.retryPolicy = retryPolicy;
+            this.attempts = attempts;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (claim()) {
+                runAttempt(attempt, guard, retryPolicy, attempts, callback);
+            }
+        }
+
+        void cancel() {
+            if (claim()) {
+                callback.onFailure(NearbyTransport.CANCELED);
+            }
+        }
+
+        private boolean claim() {
+            synchronized (this) {
+                if (mDone) {
+                    return false;
+                }
+                mDone = true;
+            }
+
+            mPendingRetries.remove(this);
+            return true;
+        }
+    }
+
+    private static final NearbyTransport.Callback IGNORED = new NearbyTransport.Callback() {
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onFailure(int statusCode) {
+        }
+    };
+
+    private final NearbyTransport<M, P, S> mTransport;
+    private final Scheduler mScheduler;
+    private final Clock mClock;
+    private final Random mRandom;
+
+    // Retries publishes and subscribes which failed with a transient status code, if configured.
+    private volatile RetryPolicy mRetryPolicy = RetryPolicy.NONE;
+
+    // The publications by their UUID, once they have been published.
+    private final Map<UUID, PUB> mPublications = new ConcurrentHashMap<>();
+    // The subscriptions by their ID.
+    private final Map<String, SUB> mSubscriptions = new ConcurrentHashMap<>();
+
+    // Guards the teardown of a soft pause against a resume within its linger window.
+    private final Object mPauseLock = new Object();
+    // The pending teardown of a soft pause, if any.
+    private Runnable mPendingTeardown;
+    // The number of times everything has been torn down, which abandons the operations started before.
+    private volatile int mTeardowns;
+
+    // The operations which are backing off, until their next attempt.
+    private final Set<Retry> mPendingRetries = Collections.newSetFromMap(new ConcurrentHashMap<Retry, Boolean>());
+
+    // The number of retries, and of operations which failed after running out of attempts.
+    private final MetricsRegistry.Counter mRetries;
+    private final MetricsRegistry.Counter mRetryGiveUps;
+    // The time publish, subscribe and unpublish operations took to complete, including retries.
+    private final LatencyHistogram mPublishLatency;
+    private final LatencyHistogram mSubscribeLatency;
+    private final LatencyHistogram mUnpublishLatency;
+
+    NearbySession(NearbyTransport<M, P, S> transport, Scheduler scheduler, Clock clock, Random random, MetricsRegistry metrics) {
+        this.mTransport = transport;
+        this.mScheduler = scheduler;
+        this.mClock = clock;
+        this.mRandom = random;
+        this.mRetries = metrics.counter("retry.retries");
+        this.mRetryGiveUps = metrics.counter("retry.giveUps");
+        this.mPublishLatency = metrics.histogram("task.publish");
+        this.mSubscribeLatency = metrics.histogram("task.subscribe");
+        this.mUnpublishLatency = metrics.histogram("task.unpublish");
+    }
+
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns the clock the operations are timed with.
+     */
+    Clock getClock() {
+        return mClock;
+    }
+
+    PUB getPublication(UUID uuid) {
+        return mPublications.get(uuid);
+    }
+
+    Collection<PUB> getPublications() {
+        return mPublications.values();
+    }
+
+    SUB getSubscription(String id) {
+        return mSubscriptions.get(id);
+    }
+
+    Collection<SUB> getSubscriptions() {
+        return mSubscriptions.values();
+    }
+
+    /**
+     * Publishes the given publication, and registers it once it succeeded.
+     */
+    void publish(final PUB publication, final NearbyTransport.Callback callback) {
+        publishAll(publication, guard(publication, false), new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                publication.active = true;
+
+                mPublications.put(publication.uuid, publication);
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    /**
+     * Unpublishes the publication with the given UUID, and returns it, or null if there is none.
+     */
+    PUB unpublish(UUID uuid) {
+        PUB publication = mPublications.remove(uuid);
+        if (publication != null) {
+            publication.active = false;
+
+            unpublishAll(publication);
+
+            cancelRetries();
+        }
+        return publication;
+    }
+
+    /**
+     * Registers the given subscription, and subscribes its shards. If it fails, the subscription
+     * is to be expired.
+     */
+    void subscribe(final SUB subscription, final NearbyTransport.Callback callback) {
+        mSubscriptions.put(subscription.id, subscription);
+
+        subscribeAll(subscription, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                subscription.active = true;
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    /**
+     * Unsubscribes the given subscription and removes it, returning false if it has been removed already.
+     */
+    boolean unsubscribe(SUB subscription) {
+        cancel(subscription, false);
+
+        return remove(subscription);
+    }
+
+    /**
+     * Removes the given subscription once it expired or failed, returning false if it has been removed already.
+     * <p>
+     * The remaining shards of a split subscription are unsubscribed, even if one of them has expired.
+     */
+    boolean expire(SUB subscription) {
+        cancel(subscription, true);
+
+        return remove(subscription);
+    }
+
+    /**
+     * Subscribes the shards of an active subscription again, with the options for its current mode.
+     * A paused subscription is subscribed with them once it is resumed.
+     */
+    void refresh(SUB subscription, NearbyTransport.Callback callback) {
+        if (!subscription.active) {
+            callback.onSuccess();
+            return;
+        }
+
+        Guard guard = guard(subscription);
+
+        NearbyTransport.Callback join = new Join(subscription.shards.size(), callback);
+        for (Shard<M, S> shard : subscription.shards) {
+            subscribe(shard, guard, join);
+        }
+    }
+
+    /**
+     * Unpublishes and unsubscribes everything, after the given linger period if any.
+     */
+    void pause(long lingerMillis) {
+        synchronized (mPauseLock) {
+            cancelTeardown();
+
+            if (lingerMillis <= 0) {
+                tearDown();
+                return;
+            }
+
+            final Runnable teardown = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mPauseLock) {
+                        if (mPendingTeardown != this) {
+                            // Resumed or paused again in the meantime.
+                            return;
+                        }
+
+                        mPendingTeardown = null;
+
+                        tearDown();
+                    }
+                }
+            };
+
+            mScheduler.schedule(teardown, lingerMillis);
+            mPendingTeardown = teardown;
+        }
+    }
+
+    /**
+     * Returns true if a pending teardown has been cancelled, i.e. nothing has been torn down yet.
+     */
+    boolean cancelTeardown() {
+        synchronized (mPauseLock) {
+            if (mPendingTeardown == null) {
+                return false;
+            }
+
+            mPendingTeardown = null;
+            return true;
+        }
+    }
+
+    /**
+     * Publishes a publication torn down by pause() again. If it fails, the publication is to be unpublished.
+     */
+    void resume(final PUB publication, final NearbyTransport.Callback callback) {
+        publishAll(publication, guard(publication, true), new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                if (mPublications.get(publication.uuid) != publication) {
+                    // Unpublished in the meantime.
+                    unpublishAll(publication);
+
+                    callback.onFailure(NearbyTransport.CANCELED);
+                    return;
+                }
+
+                publication.active = true;
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    /**
+     * Subscribes a subscription torn down by pause() again. If it fails, the subscription is to be expired.
+     */
+    void resume(final SUB subscription, final NearbyTransport.Callback callback) {
+        subscribeAll(subscription, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                if (mSubscriptions.get(subscription.id) != subscription) {
+                    // Unsubscribed or expired in the meantime.
+                    cancel(subscription, false);
+
+                    callback.onFailure(NearbyTransport.CANCELED);
+                    return;
+                }
+
+                subscription.active = true;
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    /**
+     * Runs the given operation, and retries it according to the retry policy if it fails with a retryable status code.
+     */
+    void withRetry(Attempt attempt, NearbyTransport.Callback callback) {
+        runAttempt(attempt, ALWAYS, this.mRetryPolicy, 1, callback);
+    }
+
+    /**
+     * Runs the given operation with retries as long as the guard is valid, and runs the given undo
+     * if the guard is not valid anymore once it succeeded.
+     */
+    private void withRetry(Attempt attempt, final Guard guard, final Runnable undo, final NearbyTransport.Callback callback) {
+        runAttempt(attempt, guard, this.mRetryPolicy, 1, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                if (!guard.isValid()) {
+                    // Removed or torn down while the operation was in flight.
+                    undo.run();
+
+                    callback.onFailure(NearbyTransport.CANCELED);
+                    return;
+                }
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    private void runAttempt(final Attempt attempt, final Guard guard, final RetryPolicy retryPolicy, final int attempts, final NearbyTransport.Callback callback) {
+        if (!guard.isValid()) {
+            // Removed or torn down while backing off.
+            callback.onFailure(NearbyTransport.CANCELED);
+            return;
+        }
+
+        NearbyTransport.Callback retry = new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                if (!retryPolicy.shouldRetry(attempts, statusCode)) {
+                    if (retryPolicy.maxAttempts > 1 && retryPolicy.isRetryable(statusCode)) {
+                        // Out of attempts.
+                        mRetryGiveUps.increment();
+                    }
+
+                    callback.onFailure(statusCode);
+                    return;
+                }
+
+                mRetries.increment();
+
+                long delayMillis = retryPolicy.delayMillis(attempts, mRandom.nextDouble());
+
+                Retry next = new Retry(attempt, guard, retryPolicy, attempts + 1, callback);
+                mPendingRetries.add(next);
+
+                try {
+                    mScheduler.schedule(next, delayMillis);
+                } catch (RejectedExecutionException e) {
+                    // Destroyed in the meantime.
+                    mPendingRetries.remove(next);
+
+                    callback.onFailure(statusCode);
+                }
+            }
+        };
+
+        try {
+            attempt.start(retry);
+        } catch (RuntimeException e) {
+            // E.g. destroyed while backing off.
+            callback.onFailure(NearbyTransport.ERROR);
+        }
+    }
+
+    /**
+     * Unpublishes all publications and unsubscribes all subscriptions which are active, while keeping them registered.
+     */
+    private void tearDown() {
+        mTeardowns++;
+
+        for (PUB publication : mPublications.values()) {
+            if (publication.active) {
+                publication.active = false;
+
+                unpublishAll(publication);
+            }
+        }
+
+        for (SUB subscription : mSubscriptions.values()) {
+            if (subscription.active) {
+                subscription.active = false;
+
+                cancel(subscription, false);
+            }
+        }
+
+        // Including those which are not active yet, e.g. still backing off to be resumed.
+        cancelRetries();
+    }
+
+    /**
+     * Cancels the pending retries of the operations which have been abandoned.
+     */
+    private void cancelRetries() {
+        for (Retry retry : mPendingRetries) {
+            if (!retry.guard.isValid()) {
+                retry.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns a guard which is valid until the given publication is torn down or, if it has been registered
+     * already, unpublished.
+     */
+    private Guard guard(final PUB publication, final boolean registered) {
+        final int teardowns = mTeardowns;
+
+        return new Guard() {
+            @Override
+            public boolean isValid() {
+                return mTeardowns == teardowns && (!registered || mPublications.get(publication.uuid) == publication);
+            }
+        };
+    }
+
+    /**
+     * Returns a guard which is valid until the given subscription is torn down or removed.
+     */
+    private Guard guard(final SUB subscription) {
+        final int teardowns = mTeardowns;
+
+        return new Guard() {
+            @Override
+            public boolean isValid() {
+                return mTeardowns == teardowns && mSubscriptions.get(subscription.id) == subscription;
+            }
+        };
+    }
+
+    private void publishAll(final PUB publication, Guard guard, final NearbyTransport.Callback callback) {
+        NearbyTransport.Callback join = new Join(publication.messages.length, timed(new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                // Reported once all chunks completed, so none of those which succeeded stays published.
+                unpublishAll(publication);
+
+                callback.onFailure(statusCode);
+            }
+        }, mPublishLatency));
+        for (final M message : publication.messages) {
+            final P options = publication.options;
+
+            withRetry(new Attempt() {
+                @Override
+                public void start(NearbyTransport.Callback callback) {
+                    mTransport.publish(message, options, callback);
+                }
+            }, guard, new Runnable() {
+                @Override
+                public void run() {
+                    mTransport.unpublish(message, IGNORED);
+                }
+            }, join);
+        }
+    }
+
+    private void unpublishAll(PUB publication) {
+        for (M message : publication.messages) {
+            mTransport.unpublish(message, timed(IGNORED, mUnpublishLatency));
+        }
+    }
+
+    private void subscribeAll(SUB subscription, NearbyTransport.Callback callback) {
+        Guard guard = guard(subscription);
+
+        NearbyTransport.Callback join = new Join(subscription.shards.size(), timed(callback, mSubscribeLatency));
+        for (Shard<M, S> shard : subscription.shards) {
+            subscribe(shard, guard, join);
+        }
+    }
+
+    private void subscribe(final Shard<M, S> shard, Guard guard, NearbyTransport.Callback callback) {
+        withRetry(new Attempt() {
+            @Override
+            public void start(NearbyTransport.Callback callback) {
+                // The options are read on every attempt, as the mode of the subscription may have changed.
+                mTransport.subscribe(shard, shard.getOptions(), callback);
+            }
+        }, guard, new Runnable() {
+            @Override
+            public void run() {
+                mTransport.unsubscribe(shard, IGNORED);
+            }
+        }, callback);
+    }
+
+    private void cancel(SUB subscription, boolean hasExpired) {
+        // Messages of a cancelled subscription will not be reported lost anymore.
+        subscription.onCancelled();
+
+        if (!hasExpired || subscription.shards.size() > 1) {
+            for (Shard<M, S> shard : subscription.shards) {
+                mTransport.unsubscribe(shard, IGNORED);
+            }
+        }
+    }
+
+    private boolean remove(SUB subscription) {
+        if (!mSubscriptions.remove(subscription.id, subscription)) {
+            return false;
+        }
+
+        subscription.onRemoved();
+
+        cancelRetries();
+        return true;
+    }
+
+    /**
+     * Records the time from now until the given callback completes, successfully or not.
+     */
+    private NearbyTransport.Callback timed(final NearbyTransport.Callback callback, final LatencyHistogram histogram) {
+        final long startedAt = mClock.nanoTime();
+
+        return new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                histogram.record(mClock.nanoTime() - startedAt);
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                histogram.record(mClock.nanoTime() - startedAt);
+
+                callback.onFailure(statusCode);
+            }
+        };
+    }
+}
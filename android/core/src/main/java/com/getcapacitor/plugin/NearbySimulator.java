@@ -0,0 +1,369 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * A deterministic, in-memory stand-in for Nearby, to run the core against virtual
+ * publishers and beacons on a plain JVM.
+ * <p>
+ * Time is virtual and only moves on advance(). On every step, each emitter is sampled
+ * by its script and the subscribers are told which messages have been found or lost,
+ * and, for beacons, whose signal or distance changed. Callbacks are invoked on the
+ * calling thread in the order the emitters and subscribers have been added, and all
+ * randomness is drawn from the seeded generator, so a run is reproducible.
+ * <p>
+ * Tasks scheduled on the simulator run on the first step at or after their time, before
+ * the emitters are sampled, in the order of their time and then of scheduling.
+ */
+class NearbySimulator implements NearbyTransport<SimulatedMessage, Void, Void>, NearbySession.Scheduler, Clock {
+    // See NearbyMessagesStatusCodes.
+    static final int SUCCESS = 0;
+
+    // Distance.ACCURACY_LOW, the only accuracy Nearby reports.
+    static final int ACCURACY_LOW = 1;
+
+    static class Sample {
+        final int rssi;
+        final int txPower;
+        final double meters;
+
+        Sample(int rssi, int txPower, double meters) {
+            this.rssi = rssi;
+            this.txPower = txPower;
+            this.meters = meters;
+        }
+    }
+
+    interface Script {
+        /**
+         * Returns the signal of the emitter at the given time, or null if it is out of range.
+         */
+        Sample sample(long timeMillis, Random random);
+    }
+
+    private static class Emitter {
+        final SimulatedMessage message;
+        final Script script;
+        // Whether the emitter is a BLE beacon, which reports signal and distance updates.
+        final boolean ble;
+
+        boolean removed;
+
+        Emitter(SimulatedMessage message, Script script, boolean ble) {
+            this.message = message;
+            this.script = script;
+            this.ble = ble;
+        }
+    }
+
+    private static class Subscriber {
+        final Listener<SimulatedMessage> listener;
+        // The last sample reported per visible emitter.
+        final Map<Emitter, Sample> visible = new IdentityHashMap<>();
+
+        Subscriber(Listener<SimulatedMessage> listener) {
+            this.listener = listener;
+        }
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        final long atMillis;
+        final long sequence;
+        final Runnable task;
+
+        Timer(long atMillis, long sequence, Runnable task) {
+            this.atMillis = atMillis;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            if (atMillis != other.atMillis) {
+                return atMillis < other.atMillis ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+
+    private final Random mRandom;
+
+    private long mNowMillis;
+
+    private final List<Emitter> mEmitters = new ArrayList<>();
+    private final List<Subscriber> mSubscribers = new ArrayList<>();
+    private final List<SimulatedMessage> mPublished = new ArrayList<>();
+    private final PriorityQueue<Timer> mTimers = new PriorityQueue<>();
+    private long mNextTimer;
+
+    // The status code the next operations fail with, or SUCCESS, and how many of them.
+    private int mNextFailure = SUCCESS;
+    private int mFailures;
+
+    NearbySimulator(long seed) {
+        this.mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns a script which is in range between the given times, without any signal.
+     */
+    static Script visible(final long fromMillis, final long untilMillis) {
+        return new Script() {
+            @Override
+            public Sample sample(long timeMillis, Random random) {
+                if (timeMillis < fromMillis || timeMillis >= untilMillis) {
+                    return null;
+                }
+                return new Sample(0, 0, Double.NaN);
+            }
+        };
+    }
+
+    /**
+     * Returns a script interpolating the RSSI and distance between the given keyframes, which is
+     * in range from the first until the last one. The RSSI is blurred by a Gaussian noise of the
+     * given standard deviation, in dB.
+     */
+    static Script trace(final long[] timesMillis, final int[] rssi, final double[] meters, final int txPower, final double noiseDb) {
+        if (timesMillis.length == 0 || timesMillis.length != rssi.length || timesMillis.length != meters.length) {
+            throw new IllegalArgumentException("Keyframes must be of the same, non-zero length");
+        }
+
+        return new Script() {
+            @Override
+            public Sample sample(long timeMillis, Random random) {
+                int last = timesMillis.length - 1;
+                if (timeMillis < timesMillis[0] || timeMillis > timesMillis[last]) {
+                    return null;
+                }
+
+                int i = 0;
+                while (i < last && timesMillis[i + 1] <= timeMillis) {
+                    i++;
+                }
+
+                double t = 0;
+                if (i < last && timesMillis[i + 1] > timesMillis[i]) {
+                    t = (double) (timeMillis - timesMillis[i]) / (timesMillis[i + 1] - timesMillis[i]);
+                }
+                int j = Math.min(i + 1, last);
+
+                double noise = noiseDb > 0 ? random.nextGaussian() * noiseDb : 0;
+
+                return new Sample(
+                        (int) Math.round(rssi[i] + (rssi[j] - rssi[i]) * t + noise),
+                        txPower,
+                        // Distance estimates are reported in steps of 10 cm.
+                        Math.round((meters[i] + (meters[j] - meters[i]) * t) * 10) / 10.0);
+            }
+        };
+    }
+
+    /**
+     * Adds a device publishing the given message while in range, which is only reported found and lost.
+     */
+    void addPublisher(SimulatedMessage message, Script script) {
+        mEmitters.add(new Emitter(message, script, false));
+    }
+
+    /**
+     * Adds a BLE beacon, which is also reported with signal and distance updates while in range.
+     */
+    void addBeacon(SimulatedMessage message, Script script) {
+        mEmitters.add(new Emitter(message, script, true));
+    }
+
+    /**
+     * Removes the emitters of the given message, which are reported lost on the next step.
+     */
+    void remove(SimulatedMessage message) {
+        for (Emitter emitter : mEmitters) {
+            if (emitter.message.equals(message)) {
+                emitter.removed = true;
+            }
+        }
+    }
+
+    /**
+     * Fails the next publish, unpublish, subscribe or unsubscribe with the given status code.
+     */
+    void failNext(int statusCode) {
+        failNext(statusCode, 1);
+    }
+
+    /**
+     * Fails the next count operations with the given status code.
+     */
+    void failNext(int statusCode, int count) {
+        this.mNextFailure = statusCode;
+        this.mFailures = count;
+    }
+
+    /**
+     * Returns the messages which are currently published through this transport.
+     */
+    List<SimulatedMessage> getPublished() {
+        return Collections.unmodifiableList(mPublished);
+    }
+
+    int getSubscriberCount() {
+        return mSubscribers.size();
+    }
+
+    /**
+     * Returns the number of scheduled tasks which have not run yet.
+     */
+    int getPendingTaskCount() {
+        return mTimers.size();
+    }
+
+    /**
+     * Moves the virtual time forward by the given duration, in steps of the given length.
+     */
+    void advance(long durationMillis, long stepMillis) {
+        if (stepMillis <= 0) {
+            throw new IllegalArgumentException("Step must be positive");
+        }
+
+        long until = mNowMillis + durationMillis;
+        while (mNowMillis < until) {
+            mNowMillis = Math.min(mNowMillis + stepMillis, until);
+            step();
+        }
+    }
+
+    private void step() {
+        // Tasks may schedule further tasks, which run once due.
+        while (!mTimers.isEmpty() && mTimers.peek().atMillis <= mNowMillis) {
+            mTimers.poll().task.run();
+        }
+
+        // Each emitter is sampled once per step, so all subscribers see the same signal.
+        Sample[] samples = new Sample[mEmitters.size()];
+        for (int i = 0; i < samples.length; i++) {
+            Emitter emitter = mEmitters.get(i);
+            samples[i] = emitter.removed ? null : emitter.script.sample(mNowMillis, mRandom);
+        }
+
+        // Listeners may unsubscribe from within their callbacks.
+        for (Subscriber subscriber : new ArrayList<>(mSubscribers)) {
+            for (int i = 0; i < samples.length; i++) {
+                Emitter emitter = mEmitters.get(i);
+                Sample sample = samples[i];
+                Sample previous = subscriber.visible.get(emitter);
+
+                if (sample == null) {
+                    if (previous != null) {
+                        subscriber.visible.remove(emitter);
+                        subscriber.listener.onLost(emitter.message);
+                    }
+                    continue;
+                }
+
+                subscriber.visible.put(emitter, sample);
+
+                if (previous == null) {
+                    subscriber.listener.onFound(emitter.message);
+                }
+
+                if (!emitter.ble) {
+                    continue;
+                }
+
+                if (previous == null || previous.rssi != sample.rssi) {
+                    subscriber.listener.onBleSignalChanged(emitter.message, sample.rssi, sample.txPower);
+                }
+                if (previous == null || previous.meters != sample.meters) {
+                    subscriber.listener.onDistanceChanged(emitter.message, ACCURACY_LOW, sample.meters);
+                }
+            }
+        }
+
+        // Removed emitters have been reported lost by now.
+        for (int i = mEmitters.size() - 1; i >= 0; i--) {
+            if (mEmitters.get(i).removed) {
+                mEmitters.remove(i);
+            }
+        }
+    }
+
+    @Override
+    public void publish(SimulatedMessage message, Void options, Callback callback) {
+        if (fail(callback)) {
+            return;
+        }
+        mPublished.add(message);
+        callback.onSuccess();
+    }
+
+    @Override
+    public void unpublish(SimulatedMessage message, Callback callback) {
+        if (fail(callback)) {
+            return;
+        }
+        mPublished.remove(message);
+        callback.onSuccess();
+    }
+
+    @Override
+    public void subscribe(Listener<SimulatedMessage> listener, Void options, Callback callback) {
+        if (fail(callback)) {
+            return;
+        }
+        for (Subscriber subscriber : mSubscribers) {
+            if (subscriber.listener == listener) {
+                // Subscribed already.
+                callback.onSuccess();
+                return;
+            }
+        }
+        mSubscribers.add(new Subscriber(listener));
+        callback.onSuccess();
+    }
+
+    @Override
+    public void unsubscribe(Listener<SimulatedMessage> listener, Callback callback) {
+        if (fail(callback)) {
+            return;
+        }
+        for (int i = mSubscribers.size() - 1; i >= 0; i--) {
+            if (mSubscribers.get(i).listener == listener) {
+                mSubscribers.remove(i);
+            }
+        }
+        callback.onSuccess();
+    }
+
+    private boolean fail(Callback callback) {
+        int statusCode = mNextFailure;
+        if (statusCode == SUCCESS) {
+            return false;
+        }
+        if (--mFailures <= 0) {
+            mNextFailure = SUCCESS;
+        }
+        callback.onFailure(statusCode);
+        return true;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        mTimers.add(new Timer(mNowMillis + Math.max(delayMillis, 0), mNextTimer++, task));
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return mNowMillis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return mNowMillis * 1000000L;
+    }
+}
@@ -0,0 +1,48 @@
+package com.getcapacitor.plugin;
+
+/**
+ * The radio side of Nearby Messages: publishes and subscribes messages, and reports
+ * the messages it sees to the listeners of its subscriptions.
+ * <p>
+ * On Android, this is the MessagesClient of Play services, with PublishOptions and
+ * SubscribeOptions as the options P and S; the NearbySimulator stands in for it to run
+ * the core on a plain JVM.
+ */
+interface NearbyTransport<M, P, S> {
+    // As CommonStatusCodes.ERROR: a failure without a more specific status code, e.g. an exception of the transport itself.
+    int ERROR = 13;
+    // As CommonStatusCodes.CANCELED: the operation has been abandoned, e.g. unsubscribed or paused while retrying.
+    int CANCELED = 16;
+
+    interface Listener<M> {
+        void onFound(M message);
+
+        void onLost(M message);
+
+        void onBleSignalChanged(M message, int rssi, int txPower);
+
+        void onDistanceChanged(M message, int accuracy, double meters);
+    }
+
+    interface Callback {
+        void onSuccess();
+
+        // See CommonStatusCodes and NearbyMessagesStatusCodes.
+        void onFailure(int statusCode);
+    }
+
+    /**
+     * Publishes the given message, with the given options or the default ones if null.
+     */
+    void publish(M message, P options, Callback callback);
+
+    void unpublish(M message, Callback callback);
+
+    /**
+     * Subscribes the given listener, with the given options or the default ones if null. Subscribing
+     * a listener which is subscribed already replaces its options.
+     */
+    void subscribe(Listener<M> listener, S options, Callback callback);
+
+    void unsubscribe(Listener<M> listener, Callback callback);
+}
@@ -0,0 +1,98 @@
+package com.getcapacitor.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses message contents with deflate, optionally primed with a preset dictionary
+ * shared by publishers and subscribers.
+ * <p>
+ * Compressed contents are wrapped in a PayloadFrame with the FLAG_DEFLATE flag set, so
+ * subscribers can tell them apart from plain contents.
+ */
+class PayloadCodec {
+    private final byte[] mDictionary;
+    private final int mMaxInflatedSize;
+
+    PayloadCodec(byte[] dictionary, int maxInflatedSize) {
+        this.mDictionary = dictionary;
+        this.mMaxInflatedSize = maxInflatedSize;
+    }
+
+    /**
+     * Returns the compressed frame of the given content, or the content itself if compression does not pay off.
+     */
+    byte[] compress(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            if (mDictionary != null) {
+                deflater.setDictionary(mDictionary);
+            }
+            deflater.setInput(content);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 2 + PayloadFrame.HEADER_SIZE);
+            output.write(PayloadFrame.MAGIC, 0, PayloadFrame.MAGIC.length);
+            output.write(PayloadFrame.FLAG_DEFLATE);
+
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+
+                if (output.size() >= content.length) {
+                    // Not worth it.
+                    return content;
+                }
+            }
+
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the decompressed content of the given frame.
+     *
+     * @throws DataFormatException if the frame is corrupt, or exceeds the maximum inflated size
+     */
+    byte[] decompress(PayloadFrame frame) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(frame.content, frame.offset, frame.length);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(frame.length * 4);
+
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (mDictionary == null) {
+                            throw new DataFormatException("Missing dictionary");
+                        }
+                        inflater.setDictionary(mDictionary);
+                        continue;
+                    }
+                    if (inflater.needsInput()) {
+                        throw new DataFormatException("Truncated content");
+                    }
+                }
+
+                output.write(buffer, 0, length);
+
+                if (output.size() > mMaxInflatedSize) {
+                    throw new DataFormatException("Content too large");
+                }
+            }
+
+            return output.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.getcapacitor.plugin;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary framing of message contents which have been transformed by the plugin,
+ * i.e. compressed or split into chunks.
+ * <p>
+ * A frame starts with a 4 byte magic, followed by a flags byte and, if the frame is
+ * a chunk, the transfer ID (8 bytes), the chunk index and the chunk count (2 bytes each).
+ * Contents without the magic are passed through untouched.
+ * <p>
+ * Compression is applied first, so a reassembled content may be a compressed frame itself.
+ */
+class PayloadFrame {
+    static final byte[] MAGIC = {'N', 'M', 'F', 1};
+
+    static final int FLAG_CHUNKED = 0x01;
+    static final int FLAG_DEFLATE = 0x02;
+
+    static final int HEADER_SIZE = MAGIC.length + 1;
+    static final int CHUNK_HEADER_SIZE = HEADER_SIZE + 8 + 2 + 2;
+
+    static final int MAX_CHUNKS = 0xFFFF;
+
+    final int flags;
+
+    final long transferId;
+    final int index;
+    final int count;
+
+    final byte[] content;
+    final int offset;
+    final int length;
+
+    private PayloadFrame(int flags, long transferId, int index, int count, byte[] content, int offset, int length) {
+        this.flags = flags;
+        this.transferId = transferId;
+        this.index = index;
+        this.count = count;
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    boolean isChunked() {
+        return (flags & FLAG_CHUNKED) != 0;
+    }
+
+    boolean isDeflated() {
+        return (flags & FLAG_DEFLATE) != 0;
+    }
+
+    byte[] payload() {
+        byte[] payload = new byte[length];
+        System.arraycopy(content, offset, payload, 0, length);
+        return payload;
+    }
+
+    static boolean isFrame(byte[] content) {
+        if (content == null || content.length < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (content[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isChunk(byte[] content) {
+        return isFrame(content) && (content[MAGIC.length] & FLAG_CHUNKED) != 0;
+    }
+
+    /**
+     * Returns the frame of the given content, or null if the content is not framed.
+     */
+    static PayloadFrame parse(byte[] content) {
+        if (!isFrame(content)) {
+            return null;
+        }
+
+        int flags = content[MAGIC.length] & 0xFF;
+
+        if ((flags & FLAG_CHUNKED) != 0) {
+            if (content.length < CHUNK_HEADER_SIZE) {
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(content, HEADER_SIZE, CHUNK_HEADER_SIZE - HEADER_SIZE);
+            long transferId = buffer.getLong();
+            int index = buffer.getShort() & 0xFFFF;
+            int count = buffer.getShort() & 0xFFFF;
+
+            if (count == 0 || index >= count) {
+                return null;
+            }
+
+            return new PayloadFrame(flags, transferId, index, count,
+                    content, CHUNK_HEADER_SIZE, content.length - CHUNK_HEADER_SIZE);
+        }
+
+        return new PayloadFrame(flags, 0, 0, 1,
+                content, HEADER_SIZE, content.length - HEADER_SIZE);
+    }
+
+    /**
+     * Splits the given content into chunk frames of at most maxFrameSize bytes each.
+     */
+    static byte[][] split(byte[] content, int flags, long transferId, int maxFrameSize) {
+        int chunkSize = maxFrameSize - CHUNK_HEADER_SIZE;
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size too small");
+        }
+
+        int count = Math.max((content.length + chunkSize - 1) / chunkSize, 1);
+        if (count > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Content too large");
+        }
+
+        byte[][] frames = new byte[count][];
+
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunkSize;
+            int length = Math.min(chunkSize, content.length - offset);
+
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER_SIZE + length);
+            buffer.put(MAGIC);
+            buffer.put((byte) (flags | FLAG_CHUNKED));
+            buffer.putLong(transferId);
+            buffer.putShort((short) index);
+            buffer.putShort((short) count);
+            buffer.put(content, offset, length);
+
+            frames[index] = buffer.array();
+        }
+
+        return frames;
+    }
+}
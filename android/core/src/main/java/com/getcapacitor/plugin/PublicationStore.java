@@ -0,0 +1,263 @@
+package com.getcapacitor.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The publications which outlive the process, in an append-only log.
+ * <p>
+ * Every put and remove is appended to the file as a record, prefixed with its length (4 bytes).
+ * Once the log holds more than twice as many records as there are publications, it is rewritten
+ * with the current ones only. A record torn by the process dying while writing it is ignored,
+ * and cut off before the next one is appended.
+ */
+class PublicationStore {
+    private static final int PUT = 1;
+    private static final int REMOVE = 2;
+
+    // The number of records below which the log is never compacted.
+    private static final int COMPACT_MIN_RECORDS = 32;
+
+    static class Publication {
+        final UUID uuid;
+        final String type;
+        // A single content, or its chunks if the content has been split.
+        final byte[][] contents;
+        // The strategy options as JSON, or null for the default strategy.
+        final String strategy;
+        // When the publication expires, in milliseconds since the epoch (Long.MAX_VALUE = never).
+        final long expiresAtMillis;
+
+        Publication(UUID uuid, String type, byte[][] contents, String strategy, long expiresAtMillis) {
+            this.uuid = uuid;
+            this.type = type;
+            this.contents = contents;
+            this.strategy = strategy;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final File mFile;
+
+    // The current publications, in the order they have been put, or null until the log has been read.
+    private LinkedHashMap<UUID, Publication> mPublications;
+    // The number of records in the log.
+    private int mRecords;
+    // Whether the log ends with a torn record, which must be cut off before appending.
+    private boolean mTorn;
+
+    PublicationStore(File file) {
+        this.mFile = file;
+    }
+
+    /**
+     * Returns the current publications, reading the log on the first call.
+     */
+    synchronized List<Publication> load() throws IOException {
+        return new ArrayList<>(publications().values());
+    }
+
+    synchronized void put(Publication publication) throws IOException {
+        publications().put(publication.uuid, publication);
+
+        append(encode(publication));
+    }
+
+    synchronized void remove(UUID uuid) throws IOException {
+        if (publications().remove(uuid) == null) {
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(17);
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeByte(REMOVE);
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+
+        append(buffer.toByteArray());
+    }
+
+    synchronized void clear() throws IOException {
+        publications().clear();
+        mRecords = 0;
+        mTorn = false;
+
+        if (!mFile.delete() && mFile.exists()) {
+            throw new IOException("Unable to delete " + mFile);
+        }
+    }
+
+    private LinkedHashMap<UUID, Publication> publications() throws IOException {
+        if (mPublications == null) {
+            mPublications = new LinkedHashMap<>();
+            read();
+        }
+        return mPublications;
+    }
+
+    private void append(byte[] record) throws IOException {
+        mRecords++;
+
+        if (mTorn || (mRecords > COMPACT_MIN_RECORDS && mRecords > 2 * mPublications.size())) {
+            // Also includes the record just appended, as it has been applied already.
+            compact();
+            return;
+        }
+
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(mFile, true));
+        try {
+            output.writeInt(record.length);
+            output.write(record);
+        } finally {
+            output.close();
+        }
+    }
+
+    private void compact() throws IOException {
+        File temporary = new File(mFile.getPath() + ".tmp");
+
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary));
+        try {
+            for (Publication publication : mPublications.values()) {
+                byte[] record = encode(publication);
+                output.writeInt(record.length);
+                output.write(record);
+            }
+        } finally {
+            output.close();
+        }
+
+        // Replaces the log at once, so it is never seen partially written.
+        if (!temporary.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+
+        mRecords = mPublications.size();
+        mTorn = false;
+    }
+
+    private void read() throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        byte[] bytes = new byte[(int) mFile.length()];
+        FileInputStream stream = new FileInputStream(mFile);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = stream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+        } finally {
+            stream.close();
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            while (input.available() > 0) {
+                int length = input.readInt();
+                if (length <= 0 || length > input.available()) {
+                    // Torn by the process dying while writing it.
+                    mTorn = true;
+                    break;
+                }
+
+                byte[] record = new byte[length];
+                input.readFully(record);
+
+                if (!apply(record)) {
+                    mTorn = true;
+                    break;
+                }
+                mRecords++;
+            }
+        } catch (EOFException e) {
+            mTorn = true;
+        }
+    }
+
+    /**
+     * Applies the given record to the publications, returning false if it is corrupt.
+     */
+    private boolean apply(byte[] record) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            int kind = input.readByte();
+            UUID uuid = new UUID(input.readLong(), input.readLong());
+
+            if (kind == REMOVE) {
+                mPublications.remove(uuid);
+                return true;
+            }
+            if (kind != PUT) {
+                return false;
+            }
+
+            String type = input.readUTF();
+            String strategy = input.readBoolean() ? input.readUTF() : null;
+            long expiresAtMillis = input.readLong();
+
+            int count = input.readInt();
+            if (count <= 0 || count > input.available()) {
+                return false;
+            }
+            byte[][] contents = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                int length = input.readInt();
+                if (length < 0 || length > input.available()) {
+                    return false;
+                }
+                contents[i] = new byte[length];
+                input.readFully(contents[i]);
+            }
+
+            mPublications.put(uuid, new Publication(uuid, type, contents, strategy, expiresAtMillis));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] encode(Publication publication) throws IOException {
+        int size = 64;
+        for (byte[] content : publication.contents) {
+            size += 4 + content.length;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(size);
+        DataOutputStream output = new DataOutputStream(buffer);
+
+        output.writeByte(PUT);
+        output.writeLong(publication.uuid.getMostSignificantBits());
+        output.writeLong(publication.uuid.getLeastSignificantBits());
+        output.writeUTF(publication.type);
+        output.writeBoolean(publication.strategy != null);
+        if (publication.strategy != null) {
+            output.writeUTF(publication.strategy);
+        }
+        output.writeLong(publication.expiresAtMillis);
+
+        output.writeInt(publication.contents.length);
+        for (byte[] content : publication.contents) {
+            output.writeInt(content.length);
+            output.write(content);
+        }
+
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,56 @@
+package com.getcapacitor.plugin;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides whether a failed operation is retried, and how long to back off before.
+ * <p>
+ * The delay doubles with every attempt, is capped at the maximum delay and reduced
+ * by a random share of up to the jitter, so that clients do not retry in lockstep.
+ */
+class RetryPolicy {
+    static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, new HashSet<Integer>());
+
+    final int maxAttempts;
+    final long baseDelayMillis;
+    final long maxDelayMillis;
+    // The share of the delay, within [0, 1], which is randomized.
+    final double jitter;
+
+    private final Set<Integer> mStatusCodes;
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double jitter, Set<Integer> statusCodes) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.jitter = jitter;
+        this.mStatusCodes = new HashSet<>(statusCodes);
+    }
+
+    boolean isRetryable(int statusCode) {
+        return mStatusCodes.contains(statusCode);
+    }
+
+    /**
+     * Returns whether to retry after the given number of failed attempts with the given status code.
+     */
+    boolean shouldRetry(int attempts, int statusCode) {
+        return attempts < maxAttempts && isRetryable(statusCode);
+    }
+
+    /**
+     * Returns the delay before the next attempt, after the given number of failed attempts.
+     *
+     * @param random a uniformly distributed random number within [0, 1)
+     */
+    long delayMillis(int attempts, double random) {
+        long delay = baseDelayMillis;
+        for (int i = 1; i < attempts && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+
+        return Math.round(delay * (1 - jitter * random));
+    }
+}
@@ -0,0 +1,149 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Smooths the RSSI readings of each message and decides which of them are worth reporting.
+ * <p>
+ * A reading is only reported if the smoothed value moved by at least the configured
+ * delta since it was last reported, or if it entered another proximity band.
+ */
+class SignalFilter<K> {
+    enum Mode {
+        // Exponential moving average.
+        EMA,
+        // One-dimensional Kalman filter.
+        KALMAN;
+
+        static Mode fromString(String mode) {
+            if ("kalman".equals(mode)) {
+                return KALMAN;
+            }
+            return EMA;
+        }
+    }
+
+    static class Band {
+        final String name;
+        // The smallest smoothed RSSI, in dBm, to be considered within this band.
+        final int minRssi;
+
+        Band(String name, int minRssi) {
+            this.name = name;
+            this.minRssi = minRssi;
+        }
+    }
+
+    static class Result {
+        final double smoothedRssi;
+        final String band;
+
+        Result(double smoothedRssi, String band) {
+            this.smoothedRssi = smoothedRssi;
+            this.band = band;
+        }
+    }
+
+    private static class State {
+        double estimate;
+        double errorCovariance;
+
+        double reported;
+        String band;
+    }
+
+    private final Mode mMode;
+    private final double mAlpha;
+    private final double mProcessNoise;
+    private final double mMeasurementNoise;
+    private final double mMinDelta;
+    // Sorted by descending minRssi.
+    private final List<Band> mBands;
+
+    private final ConcurrentHashMap<K, State> mStates = new ConcurrentHashMap<>();
+
+    SignalFilter(Mode mode, double alpha, double processNoise, double measurementNoise, double minDelta, List<Band> bands) {
+        this.mMode = mode;
+        this.mAlpha = alpha;
+        this.mProcessNoise = processNoise;
+        this.mMeasurementNoise = measurementNoise;
+        this.mMinDelta = minDelta;
+
+        this.mBands = new ArrayList<>(bands);
+        Collections.sort(this.mBands, new Comparator<Band>() {
+            @Override
+            public int compare(Band a, Band b) {
+                return Integer.compare(b.minRssi, a.minRssi);
+            }
+        });
+    }
+
+    /**
+     * Feeds a new RSSI reading of the given message.
+     *
+     * @return the smoothed value to report, or null if the change is not significant
+     */
+    Result update(K key, int rssi) {
+        State state = mStates.get(key);
+        if (state == null) {
+            // Initialized before it is published, so concurrent readings never see it uninitialized.
+            State newState = new State();
+            newState.estimate = rssi;
+            newState.errorCovariance = mMeasurementNoise;
+            newState.reported = rssi;
+            newState.band = bandOf(rssi);
+
+            state = mStates.putIfAbsent(key, newState);
+            if (state == null) {
+                // The first reading of a message is always reported.
+                return new Result(newState.estimate, newState.band);
+            }
+        }
+
+        synchronized (state) {
+            if (mMode == Mode.KALMAN) {
+                // Predict, assuming the signal itself stays constant.
+                double errorCovariance = state.errorCovariance + mProcessNoise;
+                // Update.
+                double gain = errorCovariance / (errorCovariance + mMeasurementNoise);
+                state.estimate += gain * (rssi - state.estimate);
+                state.errorCovariance = (1 - gain) * errorCovariance;
+            } else {
+                state.estimate += mAlpha * (rssi - state.estimate);
+            }
+
+            String band = bandOf(state.estimate);
+            boolean bandChanged = band == null ? state.band != null : !band.equals(state.band);
+
+            if (!bandChanged && Math.abs(state.estimate - state.reported) < mMinDelta) {
+                return null;
+            }
+
+            state.reported = state.estimate;
+            state.band = band;
+
+            return new Result(state.estimate, band);
+        }
+    }
+
+    void remove(K key) {
+        mStates.remove(key);
+    }
+
+    void clear() {
+        mStates.clear();
+    }
+
+    private String bandOf(double rssi) {
+        for (Band band : mBands) {
+            if (rssi >= band.minRssi) {
+                return band.name;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.getcapacitor.plugin;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * A message of the NearbySimulator, which is equal to another one with the same
+ * namespace, type and content, like the messages of Play services.
+ */
+final class SimulatedMessage {
+    final String namespace;
+    final String type;
+    final byte[] content;
+
+    SimulatedMessage(String namespace, String type, byte[] content) {
+        this.namespace = namespace;
+        this.type = type;
+        this.content = content;
+    }
+
+    /**
+     * Reads the messages of the simulator for a SubscriptionEngine.
+     */
+    static class Codec implements SubscriptionEngine.Codec<SimulatedMessage> {
+        private final PayloadCodec mPayloadCodec;
+
+        Codec(PayloadCodec payloadCodec) {
+            this.mPayloadCodec = payloadCodec;
+        }
+
+        @Override
+        public byte[] getContent(SimulatedMessage message) {
+            return message.content;
+        }
+
+        @Override
+        public String getType(SimulatedMessage message) {
+            return message.type;
+        }
+
+        @Override
+        public String getNamespace(SimulatedMessage message) {
+            return message.namespace;
+        }
+
+        @Override
+        public SimulatedMessage inflate(SimulatedMessage message) {
+            PayloadFrame frame = PayloadFrame.parse(message.content);
+            if (frame == null || !frame.isDeflated()) {
+                return message;
+            }
+
+            try {
+                return new SimulatedMessage(message.namespace, message.type, mPayloadCodec.decompress(frame));
+            } catch (DataFormatException e) {
+                return message;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SimulatedMessage)) {
+            return false;
+        }
+        SimulatedMessage other = (SimulatedMessage) o;
+        return namespace.equals(other.namespace) && type.equals(other.type) && Arrays.equals(content, other.content);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * namespace.hashCode() + type.hashCode()) + Arrays.hashCode(content);
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedMessage{namespace=" + namespace + ", type=" + type + ", content=" + content.length + " bytes}";
+    }
+}
@@ -0,0 +1,392 @@
+package com.getcapacitor.plugin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The state of a subscription, which turns the callbacks of the transport into the events
+ * reported to its sink.
+ * <p>
+ * Received messages are reassembled and decompressed, checked against the content filter,
+ * tracked in the registry and assigned a handle. Signal updates are smoothed, and updates
+ * are handed to the batcher instead of the sink if batching is enabled. Lost messages are
+ * delayed by the grace period of the debouncer, if any.
+ */
+class SubscriptionEngine<M> implements NearbyTransport.Listener<M> {
+    interface Codec<M> {
+        byte[] getContent(M message);
+
+        String getType(M message);
+
+        String getNamespace(M message);
+
+        /**
+         * Returns the decompressed message of a compressed one, or the message itself.
+         */
+        M inflate(M message);
+    }
+
+    interface Sink<M> {
+        void onFound(M message, int handle, long receivedAt);
+
+        void onLost(M message, int handle, long receivedAt);
+
+        void onBleSignalChanged(M message, int handle, int rssi, int txPower, double smoothedRssi, String band, long receivedAt);
+
+        void onDistanceChanged(M message, int handle, int accuracy, double meters, long receivedAt);
+    }
+
+    private final Codec<M> mCodec;
+    private final Sink<M> mSink;
+    private final Clock mClock;
+
+    // The number of underlying subscriptions, more than one if the filter has been split.
+    private volatile int mShardCount = 1;
+    // How many shards currently see each received message, if the filter has been split.
+    private final HashMap<M, Integer> mShardCounts = new HashMap<>();
+
+    // Smooths the RSSI readings and suppresses insignificant changes, if configured for the subscription.
+    private final SignalFilter<M> mSignalFilter;
+
+    // Delays lost messages by a grace period, if configured for the subscription.
+    private final LostDebouncer<M> mLostDebouncer;
+
+    // Rejects messages by their content before any event is built, if configured for the subscription.
+    private final ContentFilter mContentFilter;
+    // Whether the content filter accepted the messages which are currently visible.
+    private final Map<M, Boolean> mAccepted = new ConcurrentHashMap<>();
+    // The number of messages rejected by the content filter.
+    final AtomicLong mRejectedMessages = new AtomicLong();
+    private final MetricsRegistry.Counter mRejectedCounter;
+
+    // Coalesces signal and distance updates into batches, if batching is enabled.
+    private volatile EventBatcher<M> mEventBatcher;
+
+    // Compact handles of the messages found, which are used to refer to them in subsequent events.
+    final MessageHandles<M> mMessageHandles;
+
+    // The messages which are currently visible.
+    final NearbyRegistry<M> mNearbyRegistry = new NearbyRegistry<>();
+
+    // Reassembles the contents which have been split into chunk messages.
+    private final ChunkAssembler<M, M> mChunkAssembler;
+
+    // The decompressed messages of the compressed messages which are currently visible.
+    private final Map<M, M> mInflatedMessages = new ConcurrentHashMap<>();
+
+    // The number of lost messages absorbed because they were found again within the grace period.
+    final AtomicLong mAbsorbedFlaps = new AtomicLong();
+    private final MetricsRegistry.Counter mAbsorbedCounter;
+
+    SubscriptionEngine(Codec<M> codec, Sink<M> sink, Clock clock, AtomicInteger nextHandle, ChunkAssembler<M, M> chunkAssembler,
+                       SignalFilter<M> signalFilter, LostDebouncer<M> lostDebouncer, ContentFilter contentFilter, MetricsRegistry metrics) {
+        this.mCodec = codec;
+        this.mSink = sink;
+        this.mClock = clock;
+        this.mMessageHandles = new MessageHandles<>(nextHandle);
+        this.mChunkAssembler = chunkAssembler;
+        this.mSignalFilter = signalFilter;
+        this.mLostDebouncer = lostDebouncer;
+        this.mContentFilter = contentFilter;
+        this.mRejectedCounter = metrics.counter("subscribe.rejectedMessages");
+        this.mAbsorbedCounter = metrics.counter("subscribe.absorbedFlaps");
+    }
+
+    void setShardCount(int shardCount) {
+        this.mShardCount = shardCount;
+    }
+
+    /**
+     * Replaces the batcher, delivering whatever the previous one has collected.
+     */
+    void setEventBatcher(EventBatcher<M> eventBatcher) {
+        EventBatcher<M> previous = this.mEventBatcher;
+
+        this.mEventBatcher = eventBatcher;
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Returns true if the given message has been found by the first shard seeing it.
+     */
+    boolean onShardFound(M received) {
+        if (this.mShardCount == 1) {
+            return true;
+        }
+
+        synchronized (this.mShardCounts) {
+            Integer count = this.mShardCounts.get(received);
+            this.mShardCounts.put(received, count != null ? count + 1 : 1);
+            return count == null;
+        }
+    }
+
+    /**
+     * Returns true if the given message has been lost by the last shard seeing it.
+     */
+    boolean onShardLost(M received) {
+        if (this.mShardCount == 1) {
+            return true;
+        }
+
+        synchronized (this.mShardCounts) {
+            Integer count = this.mShardCounts.get(received);
+            if (count == null) {
+                return false;
+            }
+            if (count > 1) {
+                this.mShardCounts.put(received, count - 1);
+                return false;
+            }
+            this.mShardCounts.remove(received);
+            return true;
+        }
+    }
+
+    /**
+     * Forgets all messages, e.g. once the subscription has been cancelled.
+     */
+    void clear() {
+        synchronized (this.mShardCounts) {
+            this.mShardCounts.clear();
+        }
+
+        this.mMessageHandles.clear();
+        this.mNearbyRegistry.clear();
+        this.mChunkAssembler.clear();
+        this.mInflatedMessages.clear();
+        this.mAccepted.clear();
+
+        if (this.mSignalFilter != null) {
+            this.mSignalFilter.clear();
+        }
+
+        if (this.mLostDebouncer != null) {
+            this.mLostDebouncer.clear();
+        }
+    }
+
+    @Override
+    public void onBleSignalChanged(M received, int rssi, int txPower) {
+        long receivedAt = this.mClock.nanoTime();
+
+        M message = decodeVisible(received);
+        if (message == null) {
+            // A chunk of an incomplete transfer.
+            return;
+        }
+
+        if (!accept(message)) {
+            return;
+        }
+
+        int handle = this.mMessageHandles.get(message);
+        if (handle == MessageHandles.NO_HANDLE || !this.mNearbyRegistry.onBleSignal(message, rssi, txPower, this.mClock.currentTimeMillis())) {
+            // Not found, e.g. an update arriving after the message has been lost.
+            return;
+        }
+
+        double smoothedRssi;
+        String band;
+
+        if (this.mSignalFilter != null) {
+            SignalFilter.Result result = this.mSignalFilter.update(message, rssi);
+            if (result == null) {
+                // Not a significant change.
+                return;
+            }
+
+            smoothedRssi = result.smoothedRssi;
+            band = result.band;
+        } else {
+            smoothedRssi = Double.NaN;
+            band = null;
+        }
+
+        EventBatcher<M> eventBatcher = this.mEventBatcher;
+        if (eventBatcher != null) {
+            eventBatcher.onBleSignal(message, rssi, txPower, smoothedRssi, band);
+        } else {
+            this.mSink.onBleSignalChanged(message, handle, rssi, txPower, smoothedRssi, band, receivedAt);
+        }
+    }
+
+    @Override
+    public void onDistanceChanged(M received, int accuracy, double meters) {
+        long receivedAt = this.mClock.nanoTime();
+
+        M message = decodeVisible(received);
+        if (message == null) {
+            // A chunk of an incomplete transfer.
+            return;
+        }
+
+        if (!accept(message)) {
+            return;
+        }
+
+        int handle = this.mMessageHandles.get(message);
+        if (handle == MessageHandles.NO_HANDLE || !this.mNearbyRegistry.onDistance(message, accuracy, meters, this.mClock.currentTimeMillis())) {
+            // Not found, e.g. an update arriving after the message has been lost.
+            return;
+        }
+
+        EventBatcher<M> eventBatcher = this.mEventBatcher;
+        if (eventBatcher != null) {
+            eventBatcher.onDistance(message, accuracy, meters);
+        } else {
+            this.mSink.onDistanceChanged(message, handle, accuracy, meters, receivedAt);
+        }
+    }
+
+    @Override
+    public void onFound(M received) {
+        long receivedAt = this.mClock.nanoTime();
+
+        M message = decodeFound(received);
+        if (message == null) {
+            // A chunk of a transfer which is either incomplete or has been reported found already.
+            return;
+        }
+
+        if (!accept(message)) {
+            return;
+        }
+
+        this.mNearbyRegistry.onFound(message, this.mCodec.getType(message), this.mCodec.getNamespace(message),
+                this.mClock.currentTimeMillis());
+
+        if (this.mLostDebouncer != null && !this.mLostDebouncer.onFound(message)) {
+            // Found again within the grace period, so it has never been reported lost.
+            this.mAbsorbedFlaps.incrementAndGet();
+            this.mAbsorbedCounter.increment();
+            return;
+        }
+
+        this.mSink.onFound(message, this.mMessageHandles.acquire(message), receivedAt);
+    }
+
+    @Override
+    public void onLost(M received) {
+        final long receivedAt = this.mClock.nanoTime();
+
+        final M message = decodeLost(received);
+        if (message == null) {
+            // A chunk of a transfer which is either incomplete or still partially visible.
+            return;
+        }
+
+        if (this.mContentFilter != null && !Boolean.TRUE.equals(this.mAccepted.remove(message))) {
+            // Never reported found.
+            return;
+        }
+
+        if (this.mLostDebouncer != null) {
+            // Only report the message lost if it is not found again within the grace period.
+            this.mLostDebouncer.onLost(message, () -> reportLost(message, receivedAt));
+        } else {
+            reportLost(message, receivedAt);
+        }
+    }
+
+    private void reportLost(M message, long receivedAt) {
+        this.mNearbyRegistry.onLost(message);
+
+        if (this.mSignalFilter != null) {
+            this.mSignalFilter.remove(message);
+        }
+
+        EventBatcher<M> eventBatcher = this.mEventBatcher;
+        if (eventBatcher != null) {
+            // Pending signal or distance updates are stale once the message is gone.
+            eventBatcher.remove(message);
+        }
+
+        this.mSink.onLost(message, this.mMessageHandles.release(message), receivedAt);
+    }
+
+    /**
+     * Returns whether the content filter accepts the given message, evaluated once while it is visible.
+     */
+    private boolean accept(M message) {
+        if (this.mContentFilter == null) {
+            return true;
+        }
+
+        Boolean accepted = this.mAccepted.get(message);
+        if (accepted == null) {
+            accepted = this.mContentFilter.matches(this.mCodec.getContent(message));
+            if (this.mAccepted.putIfAbsent(message, accepted) == null && !accepted) {
+                this.mRejectedMessages.incrementAndGet();
+                this.mRejectedCounter.increment();
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Returns the message to report found, or null if the received message is a chunk
+     * which did not complete its transfer.
+     */
+    private M decodeFound(M received) {
+        byte[] content = this.mCodec.getContent(received);
+
+        PayloadFrame frame = PayloadFrame.parse(content);
+        if (frame == null) {
+            return received;
+        }
+
+        if (frame.isChunked()) {
+            return this.mChunkAssembler.onFound(received, frame, this.mCodec.getType(received), this.mCodec.getNamespace(received),
+                    this.mClock.currentTimeMillis());
+        }
+
+        // Decompressed once, and kept while the message is visible.
+        M inflated = this.mCodec.inflate(received);
+        this.mInflatedMessages.put(received, inflated);
+        return inflated;
+    }
+
+    /**
+     * Returns the message the received one belongs to, or null if it is a chunk of an incomplete transfer.
+     */
+    private M decodeVisible(M received) {
+        byte[] content = this.mCodec.getContent(received);
+
+        if (!PayloadFrame.isFrame(content)) {
+            return received;
+        }
+
+        if (PayloadFrame.isChunk(content)) {
+            return this.mChunkAssembler.resolve(received);
+        }
+
+        M inflated = this.mInflatedMessages.get(received);
+        return inflated != null ? inflated : this.mCodec.inflate(received);
+    }
+
+    /**
+     * Returns the message to report lost, or null if the received message is a chunk
+     * and some other chunk of its transfer is still visible.
+     */
+    private M decodeLost(M received) {
+        byte[] content = this.mCodec.getContent(received);
+
+        if (!PayloadFrame.isFrame(content)) {
+            return received;
+        }
+
+        if (PayloadFrame.isChunk(content)) {
+            return this.mChunkAssembler.onLost(received);
+        }
+
+        M inflated = this.mInflatedMessages.remove(received);
+        return inflated != null ? inflated : this.mCodec.inflate(received);
+    }
+}
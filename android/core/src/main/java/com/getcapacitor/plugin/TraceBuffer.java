@@ -0,0 +1,151 @@
+package com.getcapacitor.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed size ring buffer of structured trace records, which overwrites the oldest records.
+ * <p>
+ * All slots are allocated up front and records hold references and numbers only, so recording
+ * neither allocates nor formats anything. Records above the current level are ignored.
+ */
+class TraceBuffer {
+    static final int LEVEL_NONE = 0;
+    // Lifecycle events, e.g. found, lost and permission changes.
+    static final int LEVEL_INFO = 1;
+    // Additionally, signal and distance updates.
+    static final int LEVEL_DEBUG = 2;
+
+    private static final String[] LEVELS = {"none", "info", "debug"};
+
+    static class Record {
+        // When the record has been added, in System.nanoTime().
+        final long timeNanos;
+        final String event;
+        final String subject;
+        final String detail;
+        final int a;
+        final int b;
+        final double value;
+
+        private Record(long timeNanos, String event, String subject, String detail, int a, int b, double value) {
+            this.timeNanos = timeNanos;
+            this.event = event;
+            this.subject = subject;
+            this.detail = detail;
+            this.a = a;
+            this.b = b;
+            this.value = value;
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    private final long[] mTimes;
+    private final String[] mEvents;
+    private final String[] mSubjects;
+    private final String[] mDetails;
+    private final int[] mA;
+    private final int[] mB;
+    private final double[] mValues;
+
+    private volatile int mLevel = LEVEL_NONE;
+
+    // The total number of records added, of which the last capacity ones are kept.
+    private long mCount;
+
+    TraceBuffer(int capacity) {
+        this.mTimes = new long[capacity];
+        this.mEvents = new String[capacity];
+        this.mSubjects = new String[capacity];
+        this.mDetails = new String[capacity];
+        this.mA = new int[capacity];
+        this.mB = new int[capacity];
+        this.mValues = new double[capacity];
+    }
+
+    /**
+     * Returns the level of the given name, or -1 if there is none.
+     */
+    static int parseLevel(String name) {
+        for (int level = 0; level < LEVELS.length; level++) {
+            if (LEVELS[level].equals(name)) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    static String levelName(int level) {
+        return LEVELS[level];
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    void setLevel(int level) {
+        this.mLevel = level;
+    }
+
+    boolean isEnabled(int level) {
+        return level <= mLevel && level != LEVEL_NONE;
+    }
+
+    void record(int level, String event, String subject, String detail, int a, int b, double value) {
+        if (!isEnabled(level)) {
+            return;
+        }
+
+        synchronized (mLock) {
+            int slot = (int) (mCount % mTimes.length);
+
+            mTimes[slot] = System.nanoTime();
+            mEvents[slot] = event;
+            mSubjects[slot] = subject;
+            mDetails[slot] = detail;
+            mA[slot] = a;
+            mB[slot] = b;
+            mValues[slot] = value;
+
+            mCount++;
+        }
+    }
+
+    /**
+     * Returns the number of records which have been overwritten before they have been read.
+     */
+    long getOverwrittenCount() {
+        synchronized (mLock) {
+            return Math.max(mCount - mTimes.length, 0);
+        }
+    }
+
+    /**
+     * Returns the kept records, oldest first, and optionally clears them.
+     */
+    List<Record> snapshot(boolean clear) {
+        synchronized (mLock) {
+            int size = (int) Math.min(mCount, mTimes.length);
+            List<Record> records = new ArrayList<>(size);
+
+            for (long i = mCount - size; i < mCount; i++) {
+                int slot = (int) (i % mTimes.length);
+                records.add(new Record(mTimes[slot], mEvents[slot], mSubjects[slot], mDetails[slot],
+                        mA[slot], mB[slot], mValues[slot]));
+            }
+
+            if (clear) {
+                for (int slot = 0; slot < mTimes.length; slot++) {
+                    // Release the references held.
+                    mEvents[slot] = null;
+                    mSubjects[slot] = null;
+                    mDetails[slot] = null;
+                }
+                mCount = 0;
+            }
+
+            return records;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Switches a controller between active and quiet, on the development machine (host).
+ */
+public class AdaptiveControllerTest {
+
+    @Test
+    public void evaluate_becomesQuietOnlyAfterQuietPeriod() {
+        AdaptiveController controller = new AdaptiveController(60000, 2, 10000, 30000, 0);
+
+        assertFalse(controller.evaluate(59999));
+
+        controller.onActivity(50000);
+        assertFalse(controller.evaluate(100000));
+
+        assertTrue(controller.evaluate(110000));
+        assertEquals(AdaptiveController.QUIET, controller.getMode());
+        // Reported once.
+        assertFalse(controller.evaluate(120000));
+    }
+
+    @Test
+    public void onActivity_becomesActiveOnlyAboveThreshold() {
+        AdaptiveController controller = new AdaptiveController(60000, 2, 10000, 30000, 0);
+        assertTrue(controller.evaluate(60000));
+
+        // Two events, but too far apart.
+        assertFalse(controller.onActivity(100000));
+        assertFalse(controller.onActivity(120000));
+        assertEquals(AdaptiveController.QUIET, controller.getMode());
+
+        assertTrue(controller.onActivity(125000));
+        assertEquals(AdaptiveController.ACTIVE, controller.getMode());
+    }
+
+    @Test
+    public void onActivity_waitsForMinimumDwell() {
+        AdaptiveController controller = new AdaptiveController(60000, 1, 10000, 30000, 0);
+        assertTrue(controller.evaluate(60000));
+
+        // A burst right after going quiet does not switch back.
+        assertFalse(controller.onActivity(61000));
+        assertFalse(controller.onActivity(89999));
+
+        assertTrue(controller.onActivity(90000));
+    }
+
+    @Test
+    public void evaluate_waitsForMinimumDwell() {
+        AdaptiveController controller = new AdaptiveController(1000, 1, 10000, 30000, 0);
+        assertTrue(controller.evaluate(30000));
+        assertTrue(controller.onActivity(60000));
+
+        // Quiet again, but too soon after the previous switch.
+        assertFalse(controller.evaluate(80000));
+        assertTrue(controller.evaluate(90000));
+    }
+}
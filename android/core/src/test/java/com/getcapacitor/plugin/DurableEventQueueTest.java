@@ -0,0 +1,105 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Appends to and drains a queue file, on the development machine (host).
+ */
+public class DurableEventQueueTest {
+
+    private static File createFile() throws Exception {
+        File file = File.createTempFile("events", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static List<DurableEventQueue.Record> found(int from, int count) {
+        List<DurableEventQueue.Record> records = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            records.add(DurableEventQueue.Record.found(i, "venue", "beacon", ("beacon-" + i).getBytes()));
+        }
+        return records;
+    }
+
+    @Test
+    public void drain_returnsRecordsInOrder() throws Exception {
+        File file = createFile();
+        DurableEventQueue queue = new DurableEventQueue(file, 1024 * 1024);
+
+        queue.append(found(0, 2));
+        List<DurableEventQueue.Record> records = new ArrayList<>();
+        records.add(DurableEventQueue.Record.bleSignal(2, "venue", "beacon", "beacon-0".getBytes(), -67, -59));
+        records.add(DurableEventQueue.Record.distance(3, "venue", "beacon", "beacon-0".getBytes(), 1, 1.5));
+        queue.append(records);
+
+        // As read by another process.
+        DurableEventQueue.Drained first = new DurableEventQueue(file, 1024 * 1024).drain(3);
+        assertEquals(3, first.records.size());
+        assertEquals(1, first.remaining);
+        assertEquals(DurableEventQueue.FOUND, first.records.get(0).event);
+        assertEquals("beacon-1", new String(first.records.get(1).content));
+        assertEquals(-67, first.records.get(2).rssi);
+        assertEquals(-59, first.records.get(2).txPower);
+
+        DurableEventQueue.Drained second = queue.drain(0);
+        assertEquals(1, second.records.size());
+        assertEquals(1.5, second.records.get(0).meters, 0);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void append_dropsOldestOnceFull() throws Exception {
+        DurableEventQueue queue = new DurableEventQueue(createFile(), 4096);
+
+        for (int i = 0; i < 1000; i++) {
+            queue.append(found(i, 1));
+        }
+
+        DurableEventQueue.Drained drained = queue.drain(0);
+        assertTrue(drained.dropped > 0);
+        assertEquals(1000, drained.dropped + drained.records.size());
+        assertEquals(999, drained.records.get(drained.records.size() - 1).timeMillis);
+    }
+
+    @Test
+    public void append_cutsOffTornRecord() throws Exception {
+        File file = createFile();
+        new DurableEventQueue(file, 1024 * 1024).append(found(0, 1));
+
+        // The process died while writing the length of a record.
+        FileOutputStream stream = new FileOutputStream(file, true);
+        stream.write(new byte[]{0, 0});
+        stream.close();
+
+        DurableEventQueue queue = new DurableEventQueue(file, 1024 * 1024);
+        queue.append(found(1, 1));
+
+        DurableEventQueue.Drained drained = queue.drain(0);
+        assertEquals(2, drained.records.size());
+        assertEquals(1, drained.records.get(1).timeMillis);
+    }
+
+    @Test
+    public void append_afterFullDrain() throws Exception {
+        File file = createFile();
+        DurableEventQueue queue = new DurableEventQueue(file, 1024 * 1024);
+
+        queue.append(found(0, 1));
+        assertEquals(1, queue.drain(0).records.size());
+
+        queue.append(found(1, 1));
+        queue.append(found(2, 1));
+
+        DurableEventQueue.Drained drained = queue.drain(0);
+        assertEquals(2, drained.records.size());
+        assertEquals(0, drained.dropped);
+        assertEquals("beacon-2", new String(drained.records.get(1).content));
+    }
+}
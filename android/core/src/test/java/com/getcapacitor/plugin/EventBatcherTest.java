@@ -0,0 +1,61 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.Test;
+
+/**
+ * Coalesces updates into batches, on the development machine (host).
+ */
+public class EventBatcherTest {
+
+    @Test
+    public void flush_coalescesUpdatesPerKey() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final List<List<EventBatcher.Entry<String>>> batches = new ArrayList<>();
+        try {
+            EventBatcher<String> batcher = new EventBatcher<>(scheduler, new NearbySimulator(0), 60000, 0,
+                    (List<EventBatcher.Entry<String>> entries) -> batches.add(entries));
+
+            batcher.onBleSignal("a", -70, -59);
+            batcher.onBleSignal("a", -60, -59);
+            batcher.onDistance("a", 1, 2.5);
+            batcher.onBleSignal("b", -80, -59);
+            batcher.flush();
+
+            assertEquals(1, batches.size());
+            assertEquals(2, batches.get(0).size());
+            assertEquals(-60, batches.get(0).get(0).rssi);
+            assertEquals(2.5, batches.get(0).get(0).meters, 0);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void close_ignoresLaterUpdates() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final List<List<EventBatcher.Entry<String>>> batches = new ArrayList<>();
+        try {
+            EventBatcher<String> batcher = new EventBatcher<>(scheduler, new NearbySimulator(0), 10, 0,
+                    (List<EventBatcher.Entry<String>> entries) -> batches.add(entries));
+
+            batcher.onBleSignal("a", -70, -59);
+            batcher.close();
+            assertEquals(1, batches.size());
+
+            batcher.onBleSignal("a", -60, -59);
+            batcher.onDistance("a", 1, 2.5);
+            Thread.sleep(50);
+            batcher.flush();
+
+            assertEquals(1, batches.size());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
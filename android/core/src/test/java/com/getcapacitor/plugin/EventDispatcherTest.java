@@ -0,0 +1,180 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Delivers events through a bounded queue, on the development machine (host).
+ */
+public class EventDispatcherTest {
+
+    /**
+     * Keeps the dispatcher thread busy until the returned latch is released, so that events queue up.
+     */
+    private static CountDownLatch block(EventDispatcher dispatcher) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /**
+     * Releases the dispatcher thread and waits until it has delivered all pending events.
+     */
+    private static void drain(EventDispatcher dispatcher, CountDownLatch release) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch("done", null, () -> done.countDown());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static Runnable add(final List<String> delivered, final String event) {
+        return () -> {
+            synchronized (delivered) {
+                delivered.add(event);
+            }
+        };
+    }
+
+    @Test
+    public void dispatch_dropsOldestWhenFull() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher(3, EventDispatcher.Overflow.DROP_OLDEST);
+        List<String> delivered = new ArrayList<>();
+        try {
+            CountDownLatch release = block(dispatcher);
+
+            dispatcher.dispatch("signal", "a", add(delivered, "a"));
+            dispatcher.dispatch("signal", "b", add(delivered, "b"));
+            dispatcher.dispatch("signal", "c", add(delivered, "c"));
+            drain(dispatcher, release);
+
+            // Made room for the "done" event.
+            assertEquals(Arrays.asList("b", "c"), delivered);
+            assertEquals(1, dispatcher.getDroppedCount());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void dispatch_dropsNewestWhenFull() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher(2, EventDispatcher.Overflow.DROP_NEWEST);
+        List<String> delivered = new ArrayList<>();
+        try {
+            CountDownLatch release = block(dispatcher);
+
+            dispatcher.dispatch("signal", "a", add(delivered, "a"));
+            dispatcher.dispatch("signal", "b", add(delivered, "b"));
+            dispatcher.dispatch("signal", "c", add(delivered, "c"));
+            assertEquals(1, dispatcher.getDroppedCount());
+
+            dispatcher.configure(3, EventDispatcher.Overflow.DROP_NEWEST);
+            drain(dispatcher, release);
+
+            assertEquals(Arrays.asList("a", "b"), delivered);
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void dispatch_deliversLifecycleEventsFirst() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher(2, EventDispatcher.Overflow.DROP_NEWEST);
+        List<String> delivered = new ArrayList<>();
+        try {
+            CountDownLatch release = block(dispatcher);
+
+            dispatcher.dispatch("signal", "a", add(delivered, "signal-a"));
+            dispatcher.dispatch(add(delivered, "found-b"));
+            dispatcher.dispatch("signal", "b", add(delivered, "signal-b"));
+            dispatcher.dispatch(add(delivered, "lost-a"));
+            // Lifecycle events are never dropped, even if the telemetry lane is full.
+            dispatcher.dispatch(add(delivered, "found-c"));
+            assertEquals(0, dispatcher.getDroppedCount());
+
+            dispatcher.configure(3, EventDispatcher.Overflow.DROP_NEWEST);
+            drain(dispatcher, release);
+
+            assertEquals(Arrays.asList("found-b", "lost-a", "found-c", "signal-a", "signal-b"), delivered);
+            // The lifecycle events, including the one keeping the dispatcher busy.
+            assertEquals(4, dispatcher.getLifecycleLatency().getCount());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void dispatch_supersedesPendingEventOfSameKey() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher(8, EventDispatcher.Overflow.DROP_OLDEST);
+        List<String> delivered = new ArrayList<>();
+        try {
+            CountDownLatch release = block(dispatcher);
+
+            dispatcher.dispatch("signal", "a", add(delivered, "a1"));
+            dispatcher.dispatch("distance", "a", add(delivered, "a-distance"));
+            dispatcher.dispatch("signal", "b", add(delivered, "b1"));
+            dispatcher.dispatch("signal", "a", add(delivered, "a2"));
+            assertEquals(3, dispatcher.size());
+
+            dispatcher.discard("b");
+            drain(dispatcher, release);
+
+            // Keeps the position of the superseded event.
+            assertEquals(Arrays.asList("a2", "a-distance"), delivered);
+            assertEquals(1, dispatcher.getSupersededCount());
+            assertEquals(0, dispatcher.getDroppedCount());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void dispatch_countsFailingEventsAndKeepsDelivering() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher(8, EventDispatcher.Overflow.DROP_OLDEST);
+        List<String> delivered = new ArrayList<>();
+        try {
+            CountDownLatch release = block(dispatcher);
+
+            dispatcher.dispatch(() -> {
+                throw new IllegalStateException();
+            });
+            dispatcher.dispatch(add(delivered, "found"));
+            drain(dispatcher, release);
+
+            assertEquals(Arrays.asList("found"), delivered);
+            assertEquals(1, dispatcher.getErrorCount());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void close_discardsPendingEvents() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher(8, EventDispatcher.Overflow.DROP_OLDEST);
+        List<String> delivered = new ArrayList<>();
+
+        CountDownLatch release = block(dispatcher);
+        dispatcher.dispatch(add(delivered, "found"));
+        dispatcher.close();
+        dispatcher.dispatch(add(delivered, "lost"));
+        release.countDown();
+
+        assertEquals(0, dispatcher.size());
+        Thread.sleep(50);
+        assertTrue(delivered.isEmpty());
+    }
+}
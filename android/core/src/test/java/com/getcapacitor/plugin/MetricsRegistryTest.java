@@ -0,0 +1,90 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Counts and records latencies, on the development machine (host).
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void counter_sumsConcurrentIncrements() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(4);
+        final MetricsRegistry.Counter counter = registry.counter("found");
+        assertSame(counter, registry.counter("found"));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    counter.increment();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000, counter.get());
+        assertEquals(80000, counter.getAndReset());
+        assertEquals(0, counter.get());
+    }
+
+    @Test
+    public void getCounters_sortsByName() {
+        MetricsRegistry registry = new MetricsRegistry(1);
+        registry.counter("lost").add(2);
+        registry.counter("found").add(3);
+        registry.histogram("publish");
+
+        assertEquals("[found, lost]", registry.getCounters().keySet().toString());
+        assertEquals(3, registry.getCounters().get("found").get());
+        assertEquals("[publish]", registry.getHistograms().keySet().toString());
+    }
+
+    @Test
+    public void histogram_reportsBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+
+        for (int i = 0; i < 90; i++) {
+            // 100 microseconds, within [64, 128).
+            histogram.record(100000);
+        }
+        for (int i = 0; i < 10; i++) {
+            // 5 milliseconds, within [4096, 8192) microseconds.
+            histogram.record(5000000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5000000, histogram.getMaxNanos());
+        assertEquals((90 * 100000L + 10 * 5000000L) / 100, histogram.getMeanNanos());
+
+        assertEquals(128000, histogram.getPercentileNanos(50));
+        assertEquals(128000, histogram.getPercentileNanos(90));
+        // Capped at the maximum recorded.
+        assertEquals(5000000, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void histogram_clampsOutOfRangeLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        // Below a microsecond, and in the last bucket.
+        assertEquals(1000, histogram.getPercentileNanos(50));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+}
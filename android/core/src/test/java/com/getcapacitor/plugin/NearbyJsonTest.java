@@ -0,0 +1,90 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Base64;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Parses options and builds events, on the development machine (host).
+ */
+public class NearbyJsonTest {
+
+    private static final Base64Codec BASE64 = new Base64Codec() {
+        @Override
+        public String encode(byte[] bytes) {
+            return Base64.getEncoder().encodeToString(bytes);
+        }
+
+        @Override
+        public byte[] decode(String string) {
+            return Base64.getDecoder().decode(string);
+        }
+    };
+
+    @Test
+    public void parseContentFilter_parsesPrefixesAndFields() throws Exception {
+        JSONObject contentFilterObject = new JSONObject()
+                .put("prefixes", new JSONArray().put(BASE64.encode("ab".getBytes())))
+                .put("fields", new JSONArray()
+                        .put(new JSONObject().put("offset", 2).put("equals", BASE64.encode("cd".getBytes())))
+                        // Within "0" and "5".
+                        .put(new JSONObject().put("offset", 4).put("length", 1).put("min", 0x30).put("max", 0x35)));
+
+        ContentFilter filter = NearbyJson.parseContentFilter(contentFilterObject, BASE64);
+
+        assertTrue(filter.matches("abcd3".getBytes()));
+        // The prefix, the equals field and the range field each reject one of these.
+        assertFalse(filter.matches("xxcd3".getBytes()));
+        assertFalse(filter.matches("abce3".getBytes()));
+        assertFalse(filter.matches("abcd7".getBytes()));
+    }
+
+    @Test
+    public void parseFilterClauses_acceptsObjectOrArray() throws Exception {
+        JSONObject clause = new JSONObject().put("namespace", "venue").put("type", "beacon");
+        JSONObject filterObject = new JSONObject()
+                .put("includeNamespacedType", clause)
+                .put("includeIBeaconIds", new JSONArray().put(clause).put(clause));
+
+        assertEquals(1, NearbyJson.parseFilterClauses(filterObject, "includeNamespacedType").size());
+        assertEquals(2, NearbyJson.parseFilterClauses(filterObject, "includeIBeaconIds").size());
+        assertTrue(NearbyJson.parseFilterClauses(filterObject, "includeAudioBytes").isEmpty());
+    }
+
+    @Test
+    public void toEventObject_omitsMissingHandleAndMessage() throws Exception {
+        JSONObject messageObject = NearbyJson.toMessageObject(new JSONObject(), "beacon", "hi".getBytes(), "venue", BASE64);
+        assertEquals("aGk=", messageObject.getString("content"));
+        assertEquals("venue", messageObject.getString("namespace"));
+
+        JSONObject found = NearbyJson.toEventObject(new JSONObject(), "id", MessageHandles.NO_HANDLE, messageObject);
+        assertEquals("id", found.getString("subscriptionId"));
+        assertFalse(found.has("handle"));
+        assertSame(messageObject, found.getJSONObject("message"));
+
+        // As part of a batch, by handle only.
+        JSONObject batched = NearbyJson.toEventObject(new JSONObject(), null, 7, null);
+        assertEquals(7, batched.getInt("handle"));
+        assertEquals(1, batched.length());
+    }
+
+    @Test
+    public void toBleSignalObject_leavesOutUnfilteredAndNonFiniteValues() throws Exception {
+        JSONObject unfiltered = NearbyJson.toBleSignalObject(new JSONObject(), -70, -59, Double.NaN, "near");
+        assertEquals(-70, unfiltered.getInt("rssi"));
+        assertFalse(unfiltered.has("smoothedRssi"));
+        assertFalse(unfiltered.has("band"));
+
+        JSONObject filtered = NearbyJson.toBleSignalObject(new JSONObject(), -70, -59, -68.5, "near");
+        assertEquals(-68.5, filtered.getDouble("smoothedRssi"), 0);
+        assertEquals("near", filtered.getString("band"));
+
+        JSONObject distance = NearbyJson.toDistanceObject(new JSONObject(), 1, Double.POSITIVE_INFINITY);
+        assertEquals(1, distance.getInt("accuracy"));
+        assertFalse(distance.has("meters"));
+    }
+}
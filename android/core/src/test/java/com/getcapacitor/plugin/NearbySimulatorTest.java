@@ -0,0 +1,601 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Runs the SubscriptionEngine and the NearbySession against the NearbySimulator, on the development machine (host).
+ */
+public class NearbySimulatorTest {
+
+    private static class Result implements NearbyTransport.Callback {
+        boolean succeeded;
+        int failures;
+        int statusCode;
+
+        @Override
+        public void onSuccess() {
+            succeeded = true;
+        }
+
+        @Override
+        public void onFailure(int code) {
+            failures++;
+            statusCode = code;
+        }
+
+        boolean isComplete() {
+            return succeeded || failures > 0;
+        }
+    }
+
+    private static class EngineShard implements NearbySession.Shard<SimulatedMessage, Void> {
+        final SubscriptionEngine<SimulatedMessage> engine;
+
+        EngineShard(SubscriptionEngine<SimulatedMessage> engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public Void getOptions() {
+            return null;
+        }
+
+        @Override
+        public void onFound(SimulatedMessage message) {
+            engine.onFound(message);
+        }
+
+        @Override
+        public void onLost(SimulatedMessage message) {
+            engine.onLost(message);
+        }
+
+        @Override
+        public void onBleSignalChanged(SimulatedMessage message, int rssi, int txPower) {
+            engine.onBleSignalChanged(message, rssi, txPower);
+        }
+
+        @Override
+        public void onDistanceChanged(SimulatedMessage message, int accuracy, double meters) {
+            engine.onDistanceChanged(message, accuracy, meters);
+        }
+    }
+
+    private static class CountingSubscription extends NearbySession.Subscription<SimulatedMessage, Void> {
+        int cancelled;
+        int removed;
+
+        CountingSubscription(String id) {
+            super(id);
+        }
+
+        @Override
+        void onCancelled() {
+            cancelled++;
+        }
+
+        @Override
+        void onRemoved() {
+            removed++;
+        }
+    }
+
+    private static class Session extends NearbySession<SimulatedMessage, Void, Void,
+            NearbySession.Publication<SimulatedMessage, Void>, CountingSubscription> {
+        Session(NearbySimulator simulator, MetricsRegistry metrics) {
+            super(simulator, simulator, simulator, new Random(0), metrics);
+        }
+    }
+
+    private static NearbySession.Publication<SimulatedMessage, Void> publication(int chunks) {
+        SimulatedMessage[] messages = new SimulatedMessage[chunks];
+        for (int i = 0; i < chunks; i++) {
+            messages[i] = new SimulatedMessage("venue", "chunk", ("chunk-" + i).getBytes());
+        }
+        return new NearbySession.Publication<>(UUID.randomUUID(), messages, null);
+    }
+
+    private static CountingSubscription subscription(NearbySimulator simulator, int shards) {
+        CountingSubscription subscription = new CountingSubscription(UUID.randomUUID().toString());
+        for (int i = 0; i < shards; i++) {
+            subscription.shards.add(new EngineShard(new SubscriptionEngine<>(
+                    new SimulatedMessage.Codec(null), new RecordingSink(), simulator, new AtomicInteger(),
+                    null, null, null, null, new MetricsRegistry(1))));
+        }
+        return subscription;
+    }
+
+    private static RetryPolicy retryPolicy(int maxAttempts, int statusCode) {
+        return new RetryPolicy(maxAttempts, 1000, 30000, 0, Collections.singleton(statusCode));
+    }
+
+    private static class RecordingSink implements SubscriptionEngine.Sink<SimulatedMessage> {
+        final List<String> events = new ArrayList<>();
+        int found;
+        int lost;
+
+        @Override
+        public void onFound(SimulatedMessage message, int handle, long receivedAt) {
+            found++;
+            events.add(receivedAt + " found " + handle);
+        }
+
+        @Override
+        public void onLost(SimulatedMessage message, int handle, long receivedAt) {
+            lost++;
+            events.add(receivedAt + " lost " + handle);
+        }
+
+        @Override
+        public void onBleSignalChanged(SimulatedMessage message, int handle, int rssi, int txPower, double smoothedRssi, String band, long receivedAt) {
+            events.add(receivedAt + " rssi " + handle + " " + rssi);
+        }
+
+        @Override
+        public void onDistanceChanged(SimulatedMessage message, int handle, int accuracy, double meters, long receivedAt) {
+            events.add(receivedAt + " distance " + handle + " " + meters);
+        }
+    }
+
+    private static SubscriptionEngine<SimulatedMessage> subscribe(NearbySimulator simulator, RecordingSink sink, ContentFilter contentFilter) {
+        SubscriptionEngine<SimulatedMessage> engine = new SubscriptionEngine<>(
+                new SimulatedMessage.Codec(new PayloadCodec(null, 1024 * 1024)), sink, simulator, new AtomicInteger(),
+                new ChunkAssembler<SimulatedMessage, SimulatedMessage>(
+                        (byte[] content, String type, String namespace) -> new SimulatedMessage(namespace, type, content),
+                        30000, 16, 4 * 1024 * 1024),
+                null, null, contentFilter, new MetricsRegistry(1));
+
+        final boolean[] subscribed = new boolean[1];
+        simulator.subscribe(engine, null, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                subscribed[0] = true;
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+            }
+        });
+        assertTrue(subscribed[0]);
+
+        return engine;
+    }
+
+    private static void addVenue(NearbySimulator simulator, int beacons) {
+        for (int i = 0; i < beacons; i++) {
+            // Staggered walk-bys: approaching, passing and leaving again.
+            long start = (i % 60) * 1000L;
+            simulator.addBeacon(
+                    new SimulatedMessage("venue", i % 2 == 0 ? "even" : "odd", ("beacon-" + i).getBytes()),
+                    NearbySimulator.trace(
+                            new long[]{start, start + 10000, start + 20000},
+                            new int[]{-95, -55, -95},
+                            new double[]{20, 1, 20},
+                            -59, 3));
+        }
+    }
+
+    @Test
+    public void venue_isReproducible() throws Exception {
+        List<List<String>> runs = new ArrayList<>();
+
+        for (int run = 0; run < 2; run++) {
+            NearbySimulator simulator = new NearbySimulator(42);
+            RecordingSink sink = new RecordingSink();
+            subscribe(simulator, sink, null);
+
+            addVenue(simulator, 100);
+            simulator.advance(90000, 500);
+
+            runs.add(sink.events);
+        }
+
+        assertFalse(runs.get(0).isEmpty());
+        assertEquals(runs.get(0), runs.get(1));
+    }
+
+    @Test
+    public void venue_reportsEveryBeaconFoundAndLostOnce() throws Exception {
+        NearbySimulator simulator = new NearbySimulator(1);
+        RecordingSink sink = new RecordingSink();
+
+        List<byte[]> prefixes = new ArrayList<>();
+        prefixes.add("beacon-".getBytes());
+        SubscriptionEngine<SimulatedMessage> engine = subscribe(simulator, sink,
+                new ContentFilter(prefixes, new ArrayList<ContentFilter.Field>(), new ArrayList<byte[]>(), new ArrayList<byte[]>()));
+
+        addVenue(simulator, 5000);
+        simulator.addPublisher(new SimulatedMessage("venue", "other", "rejected".getBytes()), NearbySimulator.visible(0, 30000));
+
+        simulator.advance(45000, 250);
+        assertTrue(engine.mNearbyRegistry.size() > 0);
+
+        simulator.advance(45000, 250);
+
+        assertEquals(5000, sink.found);
+        assertEquals(5000, sink.lost);
+        assertEquals(1, engine.mRejectedMessages.get());
+        assertEquals(0, engine.mNearbyRegistry.size());
+        assertEquals(0, engine.mMessageHandles.size());
+    }
+
+    @Test
+    public void chunkedPublisher_isReportedOnce() throws Exception {
+        NearbySimulator simulator = new NearbySimulator(7);
+        RecordingSink sink = new RecordingSink();
+        SubscriptionEngine<SimulatedMessage> engine = subscribe(simulator, sink, null);
+
+        byte[] content = new byte[1000];
+        for (byte[] chunk : PayloadFrame.split(content, 0, 1, 256)) {
+            simulator.addPublisher(new SimulatedMessage("venue", "large", chunk), NearbySimulator.visible(0, 10000));
+        }
+
+        simulator.advance(20000, 1000);
+
+        assertEquals(1, sink.found);
+        assertEquals(1, sink.lost);
+        assertEquals(0, engine.mNearbyRegistry.size());
+    }
+
+    @Test
+    public void lateUpdates_afterLost_areDropped() throws Exception {
+        NearbySimulator simulator = new NearbySimulator(3);
+        RecordingSink sink = new RecordingSink();
+        SubscriptionEngine<SimulatedMessage> engine = subscribe(simulator, sink, null);
+
+        SimulatedMessage beacon = new SimulatedMessage("venue", "beacon", "beacon".getBytes());
+        engine.onFound(beacon);
+        engine.onLost(beacon);
+        int events = sink.events.size();
+
+        // Signal and distance callbacks arriving after the message has been lost.
+        engine.onBleSignalChanged(beacon, -70, -59);
+        engine.onDistanceChanged(beacon, 1, 2.5);
+
+        assertEquals(events, sink.events.size());
+        assertEquals(0, engine.mNearbyRegistry.size());
+        assertEquals(0, engine.mMessageHandles.size());
+    }
+
+    @Test
+    public void failedSubscribe_reportsStatusCode() throws Exception {
+        NearbySimulator simulator = new NearbySimulator(0);
+        simulator.failNext(2806);
+
+        final int[] statusCode = new int[1];
+        simulator.subscribe(new SubscriptionEngine<>(
+                new SimulatedMessage.Codec(null), new RecordingSink(), simulator, new AtomicInteger(),
+                null, null, null, null, new MetricsRegistry(1)), null, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onFailure(int code) {
+                statusCode[0] = code;
+            }
+        });
+
+        assertEquals(2806, statusCode[0]);
+        assertEquals(0, simulator.getSubscriberCount());
+    }
+
+    @Test
+    public void session_publish_registersOnceAllChunksArePublished() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        MetricsRegistry metrics = new MetricsRegistry(1);
+        Session session = new Session(simulator, metrics);
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(3);
+        Result result = new Result();
+        session.publish(publication, result);
+
+        assertTrue(result.succeeded);
+        assertTrue(publication.active);
+        assertSame(publication, session.getPublication(publication.uuid));
+        assertEquals(3, simulator.getPublished().size());
+        assertEquals(1, metrics.histogram("task.publish").getCount());
+
+        assertSame(publication, session.unpublish(publication.uuid));
+        assertFalse(publication.active);
+        assertNull(session.getPublication(publication.uuid));
+        assertEquals(0, simulator.getPublished().size());
+        assertEquals(3, metrics.histogram("task.unpublish").getCount());
+
+        assertNull(session.unpublish(publication.uuid));
+    }
+
+    @Test
+    public void session_publish_failsIfAnyChunkFails() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(3);
+        simulator.failNext(2806);
+        Result result = new Result();
+        session.publish(publication, result);
+
+        // Reported once all chunks completed.
+        assertFalse(result.succeeded);
+        assertEquals(1, result.failures);
+        assertEquals(2806, result.statusCode);
+        assertFalse(publication.active);
+        assertNull(session.getPublication(publication.uuid));
+        // The chunks which succeeded have been unpublished again.
+        assertTrue(simulator.getPublished().isEmpty());
+    }
+
+    @Test
+    public void session_publish_retriesRetryableStatusCode() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        MetricsRegistry metrics = new MetricsRegistry(1);
+        Session session = new Session(simulator, metrics);
+        session.setRetryPolicy(retryPolicy(3, 7));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(1);
+        simulator.failNext(7, 2);
+        Result result = new Result();
+        session.publish(publication, result);
+
+        // Backs off for 1s, and then for 2s.
+        assertFalse(result.isComplete());
+        simulator.advance(2900, 100);
+        assertFalse(result.isComplete());
+        simulator.advance(100, 100);
+
+        assertTrue(result.succeeded);
+        assertEquals(1, simulator.getPublished().size());
+        assertEquals(2, metrics.counter("retry.retries").get());
+        assertEquals(0, metrics.counter("retry.giveUps").get());
+    }
+
+    @Test
+    public void session_publish_givesUpAfterMaxAttempts() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        MetricsRegistry metrics = new MetricsRegistry(1);
+        Session session = new Session(simulator, metrics);
+        session.setRetryPolicy(retryPolicy(2, 7));
+
+        simulator.failNext(7, 2);
+        Result result = new Result();
+        session.publish(publication(1), result);
+        simulator.advance(1000, 100);
+
+        assertEquals(1, result.failures);
+        assertEquals(7, result.statusCode);
+        assertEquals(1, metrics.counter("retry.retries").get());
+        assertEquals(1, metrics.counter("retry.giveUps").get());
+
+        // Not retried at all.
+        simulator.failNext(2806);
+        result = new Result();
+        session.publish(publication(1), result);
+
+        assertEquals(2806, result.statusCode);
+        assertEquals(1, metrics.counter("retry.retries").get());
+        assertEquals(1, metrics.counter("retry.giveUps").get());
+        assertEquals(0, simulator.getPendingTaskCount());
+    }
+
+    @Test
+    public void session_subscribe_registersAndUnsubscribes() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        CountingSubscription subscription = subscription(simulator, 2);
+        Result result = new Result();
+        session.subscribe(subscription, result);
+
+        assertTrue(result.succeeded);
+        assertTrue(subscription.active);
+        assertSame(subscription, session.getSubscription(subscription.id));
+        assertEquals(2, simulator.getSubscriberCount());
+
+        assertTrue(session.unsubscribe(subscription));
+        assertEquals(1, subscription.cancelled);
+        assertEquals(1, subscription.removed);
+        assertNull(session.getSubscription(subscription.id));
+        assertEquals(0, simulator.getSubscriberCount());
+
+        assertFalse(session.unsubscribe(subscription));
+        assertEquals(1, subscription.removed);
+    }
+
+    @Test
+    public void session_subscribe_cancelsRetryOnUnsubscribe() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        MetricsRegistry metrics = new MetricsRegistry(1);
+        Session session = new Session(simulator, metrics);
+        session.setRetryPolicy(retryPolicy(3, 7));
+
+        CountingSubscription subscription = subscription(simulator, 1);
+        simulator.failNext(7);
+        Result result = new Result();
+        session.subscribe(subscription, result);
+
+        // Unsubscribed while backing off.
+        assertFalse(result.isComplete());
+        assertTrue(session.unsubscribe(subscription));
+
+        assertFalse(result.succeeded);
+        assertEquals(NearbyTransport.CANCELED, result.statusCode);
+
+        simulator.advance(5000, 100);
+
+        assertEquals(1, result.failures);
+        assertFalse(subscription.active);
+        assertNull(session.getSubscription(subscription.id));
+        assertEquals(0, simulator.getSubscriberCount());
+        assertEquals(1, metrics.counter("retry.retries").get());
+    }
+
+    @Test
+    public void session_expire_removesFailedSubscriptionOnce() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        CountingSubscription subscription = subscription(simulator, 2);
+        simulator.failNext(2806);
+        Result result = new Result();
+        session.subscribe(subscription, result);
+
+        assertEquals(2806, result.statusCode);
+        assertFalse(subscription.active);
+        // The other shard has been subscribed, and is unsubscribed on expiry.
+        assertEquals(1, simulator.getSubscriberCount());
+
+        assertTrue(session.expire(subscription));
+        assertFalse(session.expire(subscription));
+        assertEquals(1, subscription.removed);
+        assertNull(session.getSubscription(subscription.id));
+        assertEquals(0, simulator.getSubscriberCount());
+    }
+
+    @Test
+    public void session_pause_tearsDownUntilResumed() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(2);
+        CountingSubscription subscription = subscription(simulator, 1);
+        session.publish(publication, new Result());
+        session.subscribe(subscription, new Result());
+
+        session.pause(0);
+
+        // Still registered, but neither published nor subscribed.
+        assertFalse(publication.active);
+        assertFalse(subscription.active);
+        assertSame(publication, session.getPublication(publication.uuid));
+        assertSame(subscription, session.getSubscription(subscription.id));
+        assertEquals(0, simulator.getPublished().size());
+        assertEquals(0, simulator.getSubscriberCount());
+        assertEquals(0, subscription.removed);
+
+        // A paused subscription is subscribed again on resume only.
+        Result refreshed = new Result();
+        session.refresh(subscription, refreshed);
+        assertTrue(refreshed.succeeded);
+        assertEquals(0, simulator.getSubscriberCount());
+
+        Result published = new Result();
+        Result subscribed = new Result();
+        session.resume(publication, published);
+        session.resume(subscription, subscribed);
+
+        assertTrue(published.succeeded);
+        assertTrue(subscribed.succeeded);
+        assertTrue(publication.active);
+        assertTrue(subscription.active);
+        assertEquals(2, simulator.getPublished().size());
+        assertEquals(1, simulator.getSubscriberCount());
+    }
+
+    @Test
+    public void session_resume_unpublishesIfAnyChunkFails() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(3);
+        session.publish(publication, new Result());
+        session.pause(0);
+
+        simulator.failNext(2806);
+        Result result = new Result();
+        session.resume(publication, result);
+
+        assertEquals(2806, result.statusCode);
+        assertFalse(publication.active);
+        assertTrue(simulator.getPublished().isEmpty());
+    }
+
+    @Test
+    public void session_resume_cancelsIfRemovedInTheMeantime() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(1);
+        CountingSubscription subscription = subscription(simulator, 1);
+        session.publish(publication, new Result());
+        session.subscribe(subscription, new Result());
+        session.pause(0);
+
+        session.unpublish(publication.uuid);
+        session.unsubscribe(subscription);
+
+        Result published = new Result();
+        Result subscribed = new Result();
+        session.resume(publication, published);
+        session.resume(subscription, subscribed);
+
+        assertEquals(NearbyTransport.CANCELED, published.statusCode);
+        assertEquals(NearbyTransport.CANCELED, subscribed.statusCode);
+        assertFalse(publication.active);
+        assertFalse(subscription.active);
+        assertEquals(0, simulator.getPublished().size());
+        assertEquals(0, simulator.getSubscriberCount());
+    }
+
+    @Test
+    public void session_pause_lingersBeforeTearingDown() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(1);
+        CountingSubscription subscription = subscription(simulator, 1);
+        session.publish(publication, new Result());
+        session.subscribe(subscription, new Result());
+
+        // Resumed within the linger window, so nothing is torn down.
+        session.pause(5000);
+        simulator.advance(4000, 1000);
+        assertTrue(session.cancelTeardown());
+        simulator.advance(2000, 1000);
+
+        assertTrue(publication.active);
+        assertTrue(subscription.active);
+        assertEquals(1, simulator.getPublished().size());
+        assertEquals(1, simulator.getSubscriberCount());
+
+        // Not resumed in time.
+        session.pause(5000);
+        simulator.advance(5000, 1000);
+
+        assertFalse(session.cancelTeardown());
+        assertFalse(publication.active);
+        assertFalse(subscription.active);
+        assertEquals(0, simulator.getPublished().size());
+        assertEquals(0, simulator.getSubscriberCount());
+    }
+
+    @Test
+    public void session_pause_cancelsRetries() {
+        NearbySimulator simulator = new NearbySimulator(0);
+        Session session = new Session(simulator, new MetricsRegistry(1));
+        session.setRetryPolicy(retryPolicy(3, 7));
+
+        NearbySession.Publication<SimulatedMessage, Void> publication = publication(1);
+        simulator.failNext(7);
+        Result result = new Result();
+        session.publish(publication, result);
+
+        // Paused while backing off.
+        session.pause(0);
+        simulator.advance(5000, 100);
+
+        assertEquals(1, result.failures);
+        assertEquals(NearbyTransport.CANCELED, result.statusCode);
+        assertFalse(publication.active);
+        assertNull(session.getPublication(publication.uuid));
+        assertEquals(0, simulator.getPublished().size());
+        assertEquals(0, simulator.getPendingTaskCount());
+    }
+}
@@ -0,0 +1,93 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import org.junit.Test;
+
+/**
+ * Compresses and decompresses message contents, on the development machine (host).
+ */
+public class PayloadCodecTest {
+
+    private static byte[] repetitive(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) "{\"type\":\"beacon\",\"id\":42}".charAt(i % 25);
+        }
+        return content;
+    }
+
+    @Test
+    public void compress_roundTrips() throws Exception {
+        PayloadCodec codec = new PayloadCodec(null, 1 << 20);
+        byte[] content = repetitive(4096);
+
+        byte[] compressed = codec.compress(content);
+        assertTrue(compressed.length < content.length);
+
+        PayloadFrame frame = PayloadFrame.parse(compressed);
+        assertNotNull(frame);
+        assertTrue(frame.isDeflated());
+        assertArrayEquals(content, codec.decompress(frame));
+    }
+
+    @Test
+    public void compress_roundTripsWithDictionary() throws Exception {
+        byte[] dictionary = "{\"type\":\"beacon\",\"id\":".getBytes();
+        PayloadCodec codec = new PayloadCodec(dictionary, 1 << 20);
+        byte[] content = repetitive(200);
+
+        byte[] compressed = codec.compress(content);
+        assertArrayEquals(content, codec.decompress(PayloadFrame.parse(compressed)));
+
+        // Subscribers without the dictionary cannot decompress it.
+        try {
+            new PayloadCodec(null, 1 << 20).decompress(PayloadFrame.parse(compressed));
+            fail();
+        } catch (DataFormatException e) {
+            assertEquals("Missing dictionary", e.getMessage());
+        }
+    }
+
+    @Test
+    public void compress_keepsContentWhichDoesNotShrink() {
+        PayloadCodec codec = new PayloadCodec(null, 1 << 20);
+
+        byte[] random = new byte[256];
+        new Random(42).nextBytes(random);
+        assertSame(random, codec.compress(random));
+
+        // Too short to make up for the frame header.
+        byte[] tiny = "hi".getBytes();
+        assertSame(tiny, codec.compress(tiny));
+        assertFalse(PayloadFrame.isFrame(codec.compress(tiny)));
+    }
+
+    @Test
+    public void decompress_rejectsContentTooLarge() throws Exception {
+        byte[] compressed = new PayloadCodec(null, 1 << 20).compress(repetitive(4096));
+
+        try {
+            new PayloadCodec(null, 1024).decompress(PayloadFrame.parse(compressed));
+            fail();
+        } catch (DataFormatException e) {
+            assertEquals("Content too large", e.getMessage());
+        }
+    }
+
+    @Test
+    public void decompress_rejectsTruncatedContent() throws Exception {
+        byte[] compressed = new PayloadCodec(null, 1 << 20).compress(repetitive(4096));
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length - 4);
+
+        try {
+            new PayloadCodec(null, 1 << 20).decompress(PayloadFrame.parse(truncated));
+            fail();
+        } catch (DataFormatException e) {
+            // Expected.
+        }
+    }
+}
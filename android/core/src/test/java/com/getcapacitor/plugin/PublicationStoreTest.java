@@ -0,0 +1,90 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Writes and restores publications through a log file, on the development machine (host).
+ */
+public class PublicationStoreTest {
+
+    private static File createFile() throws Exception {
+        File file = File.createTempFile("publications", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static PublicationStore.Publication publication(UUID uuid, String content) {
+        return new PublicationStore.Publication(uuid, "beacon", new byte[][]{content.getBytes()}, null, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void load_restoresPutsAndRemoves() throws Exception {
+        File file = createFile();
+        PublicationStore store = new PublicationStore(file);
+
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        store.put(publication(first, "first"));
+        store.put(new PublicationStore.Publication(second, "beacon",
+                new byte[][]{"chunk-0".getBytes(), "chunk-1".getBytes()}, "{\"BLE_ONLY\":true}", 1234));
+        store.remove(first);
+
+        // As read by the next process.
+        List<PublicationStore.Publication> publications = new PublicationStore(file).load();
+        assertEquals(1, publications.size());
+        assertEquals(second, publications.get(0).uuid);
+        assertEquals(2, publications.get(0).contents.length);
+        assertEquals("chunk-1", new String(publications.get(0).contents[1]));
+        assertEquals("{\"BLE_ONLY\":true}", publications.get(0).strategy);
+        assertEquals(1234, publications.get(0).expiresAtMillis);
+    }
+
+    @Test
+    public void put_compactsTheLog() throws Exception {
+        File file = createFile();
+        PublicationStore store = new PublicationStore(file);
+
+        UUID kept = UUID.randomUUID();
+        store.put(publication(kept, "kept"));
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = UUID.randomUUID();
+            store.put(publication(uuid, "removed-" + i));
+            store.remove(uuid);
+        }
+
+        // Far less than the 201 records written.
+        assertTrue(file.length() < 20 * 64);
+
+        List<PublicationStore.Publication> publications = new PublicationStore(file).load();
+        assertEquals(1, publications.size());
+        assertEquals("kept", new String(publications.get(0).contents[0]));
+    }
+
+    @Test
+    public void put_cutsOffTornRecord() throws Exception {
+        File file = createFile();
+        UUID first = UUID.randomUUID();
+        new PublicationStore(file).put(publication(first, "first"));
+
+        // The process died while writing the length of the next record.
+        FileOutputStream stream = new FileOutputStream(file, true);
+        stream.write(new byte[]{0, 0});
+        stream.close();
+
+        PublicationStore store = new PublicationStore(file);
+        UUID second = UUID.randomUUID();
+        store.put(publication(second, "second"));
+
+        List<PublicationStore.Publication> publications = new PublicationStore(file).load();
+        assertEquals(2, publications.size());
+        assertEquals(first, publications.get(0).uuid);
+        assertEquals(second, publications.get(1).uuid);
+    }
+}
@@ -0,0 +1,66 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+
+/**
+ * Decides on retries and their backoff, on the development machine (host).
+ */
+public class RetryPolicyTest {
+
+    // As in CommonStatusCodes: NETWORK_ERROR and TIMEOUT are transient, DEVELOPER_ERROR is not.
+    private static final int NETWORK_ERROR = 7;
+    private static final int TIMEOUT = 15;
+    private static final int DEVELOPER_ERROR = 10;
+
+    private static RetryPolicy policy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double jitter) {
+        return new RetryPolicy(maxAttempts, baseDelayMillis, maxDelayMillis, jitter,
+                new HashSet<>(Arrays.asList(NETWORK_ERROR, TIMEOUT)));
+    }
+
+    @Test
+    public void delayMillis_doublesUpToMaximum() {
+        RetryPolicy policy = policy(10, 100, 1000, 0);
+
+        assertEquals(100, policy.delayMillis(1, 0));
+        assertEquals(200, policy.delayMillis(2, 0));
+        assertEquals(400, policy.delayMillis(3, 0));
+        assertEquals(800, policy.delayMillis(4, 0));
+        assertEquals(1000, policy.delayMillis(5, 0));
+        // Does not overflow.
+        assertEquals(1000, policy.delayMillis(100, 0));
+    }
+
+    @Test
+    public void delayMillis_reducesByJitter() {
+        RetryPolicy policy = policy(10, 100, 1000, 0.5);
+
+        assertEquals(400, policy.delayMillis(3, 0));
+        assertEquals(300, policy.delayMillis(3, 0.5));
+        // Never less than half the delay.
+        assertEquals(200, policy.delayMillis(3, 1));
+    }
+
+    @Test
+    public void shouldRetry_onlyRetryableStatusCodesWithinAttempts() {
+        RetryPolicy policy = policy(3, 100, 1000, 0);
+
+        assertTrue(policy.isRetryable(NETWORK_ERROR));
+        assertFalse(policy.isRetryable(DEVELOPER_ERROR));
+
+        assertTrue(policy.shouldRetry(1, TIMEOUT));
+        assertTrue(policy.shouldRetry(2, NETWORK_ERROR));
+        // The attempts are used up.
+        assertFalse(policy.shouldRetry(3, NETWORK_ERROR));
+        assertFalse(policy.shouldRetry(1, DEVELOPER_ERROR));
+    }
+
+    @Test
+    public void none_neverRetries() {
+        assertFalse(RetryPolicy.NONE.shouldRetry(1, NETWORK_ERROR));
+        assertFalse(RetryPolicy.NONE.shouldRetry(0, NETWORK_ERROR));
+    }
+}
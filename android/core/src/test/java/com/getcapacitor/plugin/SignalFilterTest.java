@@ -0,0 +1,88 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Smooths RSSI readings and filters insignificant ones, on the development machine (host).
+ */
+public class SignalFilterTest {
+
+    @Test
+    public void update_ema_reportsOnlySignificantChanges() {
+        SignalFilter<String> filter = new SignalFilter<>(SignalFilter.Mode.EMA, 0.5, 0, 4, 3,
+                Collections.<SignalFilter.Band>emptyList());
+
+        // The first reading is always reported.
+        SignalFilter.Result result = filter.update("a", -70);
+        assertNotNull(result);
+        assertEquals(-70, result.smoothedRssi, 0);
+
+        // Smoothed to -71, less than the minimum delta from the reported value.
+        assertNull(filter.update("a", -72));
+
+        result = filter.update("a", -80);
+        assertNotNull(result);
+        assertEquals(-75.5, result.smoothedRssi, 1e-9);
+
+        // Each message is smoothed on its own.
+        assertEquals(-40, filter.update("b", -40).smoothedRssi, 0);
+    }
+
+    @Test
+    public void update_kalman_convergesTowardsReadings() {
+        SignalFilter<String> filter = new SignalFilter<>(SignalFilter.Mode.KALMAN, 0, 0.01, 4, 0,
+                Collections.<SignalFilter.Band>emptyList());
+
+        filter.update("a", -60);
+
+        // About half way, as the error of the estimate equals the measurement noise.
+        SignalFilter.Result result = filter.update("a", -70);
+        assertEquals(-65, result.smoothedRssi, 0.1);
+
+        double previous = result.smoothedRssi;
+        for (int i = 0; i < 50; i++) {
+            result = filter.update("a", -70);
+            if (result != null) {
+                // The gain shrinks, but the estimate never overshoots.
+                assertTrue(result.smoothedRssi <= previous);
+                assertTrue(result.smoothedRssi >= -70);
+                previous = result.smoothedRssi;
+            }
+        }
+        assertEquals(-70, previous, 1);
+    }
+
+    @Test
+    public void update_reportsBandChangesBelowThreshold() {
+        SignalFilter<String> filter = new SignalFilter<>(SignalFilter.Mode.EMA, 1, 0, 4, 100,
+                Arrays.asList(new SignalFilter.Band("far", -90), new SignalFilter.Band("near", -60)));
+
+        assertEquals("far", filter.update("a", -61).band);
+        assertNull(filter.update("a", -65));
+
+        SignalFilter.Result result = filter.update("a", -59);
+        assertNotNull(result);
+        assertEquals("near", result.band);
+
+        // Out of every band.
+        result = filter.update("a", -95);
+        assertNotNull(result);
+        assertNull(result.band);
+    }
+
+    @Test
+    public void remove_reportsNextReadingAgain() {
+        SignalFilter<String> filter = new SignalFilter<>(SignalFilter.Mode.EMA, 0.5, 0, 4, 10,
+                Collections.<SignalFilter.Band>emptyList());
+
+        filter.update("a", -70);
+        assertNull(filter.update("a", -71));
+
+        filter.remove("a");
+        assertEquals(-71, filter.update("a", -71).smoothedRssi, 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.getcapacitor.plugin;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Records trace records into a ring buffer, on the development machine (host).
+ */
+public class TraceBufferTest {
+
+    @Test
+    public void record_ignoresRecordsAboveLevel() {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.record(TraceBuffer.LEVEL_INFO, "found", "a", null, 0, 0, 0);
+        assertTrue(buffer.snapshot(false).isEmpty());
+
+        buffer.setLevel(TraceBuffer.LEVEL_INFO);
+        buffer.record(TraceBuffer.LEVEL_INFO, "found", "a", null, 0, 0, 0);
+        buffer.record(TraceBuffer.LEVEL_DEBUG, "signal", "a", null, -70, -59, 0);
+
+        List<TraceBuffer.Record> records = buffer.snapshot(false);
+        assertEquals(1, records.size());
+        assertEquals("found", records.get(0).event);
+    }
+
+    @Test
+    public void snapshot_wrapsAroundOldestFirst() {
+        TraceBuffer buffer = new TraceBuffer(3);
+        buffer.setLevel(TraceBuffer.LEVEL_DEBUG);
+
+        for (int i = 0; i < 7; i++) {
+            buffer.record(TraceBuffer.LEVEL_DEBUG, "signal", "a", null, i, -59, i / 2.0);
+        }
+
+        assertEquals(4, buffer.getOverwrittenCount());
+
+        List<TraceBuffer.Record> records = buffer.snapshot(false);
+        assertEquals(3, records.size());
+        assertEquals(4, records.get(0).a);
+        assertEquals(5, records.get(1).a);
+        assertEquals(6, records.get(2).a);
+        assertEquals(3.0, records.get(2).value, 0);
+        assertTrue(records.get(0).timeNanos <= records.get(2).timeNanos);
+    }
+
+    @Test
+    public void snapshot_clearsRecords() {
+        TraceBuffer buffer = new TraceBuffer(2);
+        buffer.setLevel(TraceBuffer.LEVEL_INFO);
+        buffer.record(TraceBuffer.LEVEL_INFO, "found", "a", null, 0, 0, 0);
+        buffer.record(TraceBuffer.LEVEL_INFO, "lost", "a", null, 0, 0, 0);
+        buffer.record(TraceBuffer.LEVEL_INFO, "found", "b", null, 0, 0, 0);
+
+        assertEquals(2, buffer.snapshot(true).size());
+        assertTrue(buffer.snapshot(false).isEmpty());
+        assertEquals(0, buffer.getOverwrittenCount());
+
+        buffer.record(TraceBuffer.LEVEL_INFO, "lost", "b", "expired", 0, 0, 0);
+        List<TraceBuffer.Record> records = buffer.snapshot(false);
+        assertEquals(1, records.size());
+        assertEquals("expired", records.get(0).detail);
+    }
+
+    @Test
+    public void parseLevel_roundTripsNames() {
+        assertEquals(TraceBuffer.LEVEL_DEBUG, TraceBuffer.parseLevel("debug"));
+        assertEquals("info", TraceBuffer.levelName(TraceBuffer.parseLevel("info")));
+        assertEquals(-1, TraceBuffer.parseLevel("verbose"));
+    }
+}
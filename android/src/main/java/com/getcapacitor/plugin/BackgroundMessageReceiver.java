@@ -0,0 +1,96 @@
+package com.getcapacitor.plugin;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.google.android.gms.nearby.Nearby;
+import com.google.android.gms.nearby.messages.BleSignal;
+import com.google.android.gms.nearby.messages.Distance;
+import com.google.android.gms.nearby.messages.Message;
+import com.google.android.gms.nearby.messages.MessageListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Receives the messages of the background subscription, even if the app is not running,
+ * and queues them on disk until they are drained by drainBackgroundEvents().
+ */
+// https://developers.google.com/nearby/messages/android/background-subscribe
+public class BackgroundMessageReceiver extends BroadcastReceiver {
+    private static final String TAG = "BackgroundMessageReceiver";
+
+    // Writes the queue off the main thread, in the order the broadcasts have been received.
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private static DurableEventQueue sQueue;
+
+    /**
+     * Returns the queue of the background events, shared by the receiver and the plugin.
+     */
+    static synchronized DurableEventQueue getQueue(Context context) {
+        if (sQueue == null) {
+            File file = new File(context.getApplicationContext().getNoBackupFilesDir(), Constants.BACKGROUND_QUEUE_FILE);
+            sQueue = new DurableEventQueue(file, Constants.BACKGROUND_QUEUE_MAX_BYTES);
+        }
+        return sQueue;
+    }
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        final List<DurableEventQueue.Record> records = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+
+        // Invokes the listener for the messages carried by the intent.
+        Nearby.getMessagesClient(context).handleIntent(intent, new MessageListener() {
+            @Override
+            public void onFound(Message message) {
+                records.add(DurableEventQueue.Record.found(now,
+                        message.getNamespace(), message.getType(), message.getContent()));
+            }
+
+            @Override
+            public void onLost(Message message) {
+                records.add(DurableEventQueue.Record.lost(now,
+                        message.getNamespace(), message.getType(), message.getContent()));
+            }
+
+            @Override
+            public void onBleSignalChanged(Message message, BleSignal bleSignal) {
+                records.add(DurableEventQueue.Record.bleSignal(now,
+                        message.getNamespace(), message.getType(), message.getContent(),
+                        bleSignal.getRssi(), bleSignal.getTxPower()));
+            }
+
+            @Override
+            public void onDistanceChanged(Message message, Distance distance) {
+                records.add(DurableEventQueue.Record.distance(now,
+                        message.getNamespace(), message.getType(), message.getContent(),
+                        distance.getAccuracy(), distance.getMeters()));
+            }
+        });
+
+        if (records.isEmpty()) {
+            return;
+        }
+
+        // Keeps the process alive until the records have been written.
+        final PendingResult result = goAsync();
+
+        sExecutor.execute(() -> {
+            try {
+                getQueue(context).append(records);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to queue background events.", e);
+            } finally {
+                result.finish();
+            }
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package com.getcapacitor.plugin;
 
 import android.app.Activity;
+import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -17,14 +18,13 @@ import com.getcapacitor.PluginMethod;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.nearby.Nearby;
-import com.google.android.gms.nearby.messages.BleSignal;
-import com.google.android.gms.nearby.messages.Distance;
 import com.google.android.gms.nearby.messages.Message;
 import com.google.android.gms.nearby.messages.MessageFilter;
-import com.google.android.gms.nearby.messages.MessageListener;
 import com.google.android.gms.nearby.messages.MessagesClient;
 import com.google.android.gms.nearby.messages.MessagesOptions;
+import com.google.android.gms.nearby.messages.NearbyMessagesStatusCodes;
 import com.google.android.gms.nearby.messages.NearbyPermissions;
 import com.google.android.gms.nearby.messages.PublishCallback;
 import com.google.android.gms.nearby.messages.PublishOptions;
@@ -32,12 +32,34 @@ import com.google.android.gms.nearby.messages.StatusCallback;
 import com.google.android.gms.nearby.messages.Strategy;
 import com.google.android.gms.nearby.messages.SubscribeCallback;
 import com.google.android.gms.nearby.messages.SubscribeOptions;
-import com.google.android.gms.tasks.Task;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
 
 interface Constants {
     int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
@@ -48,46 +70,271 @@ interface Constants {
     String PUBLISH_MESSAGE_CONTENT = "Must provide message with content";
     String PUBLISH_MESSAGE_TYPE = "Must provide message with type";
     String PUBLISH_MESSAGE = "Must provide message";
+    String PUBLISH_MESSAGES = "Must provide messages";
     String MESSAGE_UUID_NOT_FOUND = "Message UUID not found";
+    String SUBSCRIPTION_ID_NOT_FOUND = "Subscription ID not found";
+    String INVALID_LOG_LEVEL = "Log level must be one of none, info or debug";
+
+    int BATCH_FLUSH_INTERVAL_MILLIS = 250;
+    int DISPATCH_QUEUE_SIZE = 1024;
+    // The ID of the background subscription, of which there is at most one.
+    String BACKGROUND_SUBSCRIPTION_ID = "background";
+    String BACKGROUND_QUEUE_FILE = "nearby-background-events";
+    // The size of the queue of background events, beyond which the oldest ones are dropped.
+    long BACKGROUND_QUEUE_MAX_BYTES = 1024 * 1024;
+    String PUBLICATION_STORE_FILE = "nearby-publications";
+    // The number of trace records kept, see dumpTrace().
+    int TRACE_CAPACITY = 1024;
+
+    double SIGNAL_FILTER_ALPHA = 0.3;
+    double SIGNAL_FILTER_PROCESS_NOISE = 0.008;
+    double SIGNAL_FILTER_MEASUREMENT_NOISE = 4.0;
+    double SIGNAL_FILTER_MIN_DELTA = 3.0;
+
+    // The maximum content size in number of bytes.
+    int MAX_CONTENT_SIZE_BYTES = Message.MAX_CONTENT_SIZE_BYTES;
+
+    long CHUNK_TIMEOUT_MILLIS = 30000;
+    int CHUNK_MAX_TRANSFERS = 16;
+    int CHUNK_MAX_BYTES = 4 * 1024 * 1024;
+
+    int MAX_INFLATED_SIZE_BYTES = 16 * 1024 * 1024;
+
+    // The number of clauses per MessageFilter, beyond which a subscription is split into multiple ones.
+    int MAX_FILTER_CLAUSES = 100;
+
+    long ADAPTIVE_QUIET_AFTER_MILLIS = 60000;
+    int ADAPTIVE_ACTIVE_THRESHOLD = 2;
+    long ADAPTIVE_ACTIVE_WINDOW_MILLIS = 10000;
+    long ADAPTIVE_MIN_DWELL_MILLIS = 30000;
+    // How often adaptive subscriptions are checked for having become quiet.
+    long ADAPTIVE_EVALUATE_INTERVAL_MILLIS = 5000;
+
+    int RETRY_MAX_ATTEMPTS = 5;
+    long RETRY_BASE_DELAY_MILLIS = 500;
+    long RETRY_MAX_DELAY_MILLIS = 30000;
+    double RETRY_JITTER = 0.5;
+    // The status codes which are retried by default, as they are expected to be transient.
+    int[] RETRY_STATUS_CODES = {
+            NearbyMessagesStatusCodes.APP_QUOTA_LIMIT_REACHED,
+            NearbyMessagesStatusCodes.TOO_MANY_PENDING_INTENTS,
+            CommonStatusCodes.NETWORK_ERROR,
+            CommonStatusCodes.INTERNAL_ERROR,
+            CommonStatusCodes.TIMEOUT,
+    };
 }
 
 @NativePlugin(requestCodes = {65537})
 public class GoogleNearbyMessages extends Plugin {
-    private static class MessageOptions {
-        Message message;
-        PublishOptions options;
-
-        MessageOptions(Message message, PublishOptions options) {
-            this.message = message;
-            this.options = options;
+    private static class MessageOptions extends NearbySession.Publication<Message, PublishOptions> {
+        // The strategy options as JSON (or null), and when the message expires, to persist it.
+        final String strategy;
+        final long expiresAtMillis;
+
+        MessageOptions(UUID uuid, Message[] messages, PublishOptions options, String strategy, long expiresAtMillis) {
+            super(uuid, messages, options);
+            this.strategy = strategy;
+            this.expiresAtMillis = expiresAtMillis;
         }
     }
 
+    private interface FilterClause {
+        void apply(MessageFilter.Builder builder);
+    }
+
+    // Whether Google Play services are available. Only a success is cached, as the user may resolve an error.
+    private static volatile boolean sPlayServicesAvailable;
+
+    // The Base64 encoding of the bridge, for the options and events built by the core.
+    private static final Base64Codec BASE64 = new Base64Codec() {
+        @Override
+        public String encode(byte[] bytes) {
+            return Base64.encodeToString(bytes, Base64.DEFAULT | Base64.NO_WRAP);
+        }
+
+        @Override
+        public byte[] decode(String string) {
+            return Base64.decode(string, Base64.DEFAULT);
+        }
+    };
+
     private MessagesClient mMessagesClient;
-    private MessageListener mMessageListener;
-    private Map<UUID, MessageOptions> mMessages = new ConcurrentHashMap<>();
+    // Publishes and subscribes through the client, once initialized.
+    private final MessagesClientTransport mTransport = new MessagesClientTransport();
+
+    // The client created by load() if prewarm is configured, which is adopted by initialize().
+    private volatile MessagesClient mPrewarmedClient;
+    // Whether the permission has been granted, as persisted in the preferences, or null until they have been read.
+    private volatile Boolean mPermissionGranted;
+
+    // Keeps the published messages across process deaths, if enabled by persistPublications.
+    private volatile PublicationStore mPublicationStore;
+    // Reads and writes the publication store off the calling threads, in order.
+    private final ExecutorService mStoreExecutor = Executors.newSingleThreadExecutor();
 
     private StatusCallback mStatusCallback;
 
-    private SubscribeOptions mSubscribeOptions;
+    private ScheduledExecutorService mScheduler;
+    // Whether the plugin has been destroyed, after which the scheduler is not created again.
+    private boolean mDestroyed;
+
+    // How long signal and distance updates are collected before they are emitted (0 = batching disabled).
+    private volatile int mBatchFlushIntervalMillis;
+    // Emit as soon as updates for this many distinct messages are pending (0 = unbounded).
+    private volatile int mBatchMaxSize;
+
+    // The sequence shared by the message handles of all subscriptions, so that handles are unique across them.
+    private final AtomicInteger mNextHandle = new AtomicInteger();
+    // Whether subsequent events refer to found messages by their handle only.
+    private volatile boolean mMessageHandlesOnly;
+
+    // Compresses published and decompresses received contents.
+    private volatile PayloadCodec mPayloadCodec = new PayloadCodec(null, Constants.MAX_INFLATED_SIZE_BYTES);
+
+    // Counters and latency histograms, exposed through getMetrics().
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+
+    // The published messages and the subscriptions, which are retried, paused and resumed through the transport.
+    private final NearbySession<Message, PublishOptions, SubscribeOptions, MessageOptions, Subscription> mSession = new NearbySession<>(
+            this.mTransport,
+            (Runnable task, long delayMillis) -> getScheduler().schedule(task, delayMillis, TimeUnit.MILLISECONDS),
+            Clock.SYSTEM,
+            new Random(),
+            this.mMetrics);
+
+    // How the subscriptions read the messages they receive.
+    private final SubscriptionEngine.Codec<Message> mMessageCodec = new SubscriptionEngine.Codec<Message>() {
+        @Override
+        public byte[] getContent(Message message) {
+            return message.getContent();
+        }
+
+        @Override
+        public String getType(Message message) {
+            return message.getType();
+        }
+
+        @Override
+        public String getNamespace(Message message) {
+            return message.getNamespace();
+        }
+
+        @Override
+        public Message inflate(Message message) {
+            return GoogleNearbyMessages.this.inflate(message);
+        }
+    };
+
+    // Diagnostics of the listener callbacks, recorded without formatting them.
+    private final TraceBuffer mTrace = new TraceBuffer(Constants.TRACE_CAPACITY);
+    // The callbacks received from Nearby, per type.
+    private final MetricsRegistry.Counter mReceivedFound = this.mMetrics.counter("received.onFound");
+    private final MetricsRegistry.Counter mReceivedLost = this.mMetrics.counter("received.onLost");
+    private final MetricsRegistry.Counter mReceivedBleSignal = this.mMetrics.counter("received.onBleSignalChanged");
+    private final MetricsRegistry.Counter mReceivedDistance = this.mMetrics.counter("received.onDistanceChanged");
+    // The events delivered to the listeners, per type.
+    private final Map<String, MetricsRegistry.Counter> mDelivered = new ConcurrentHashMap<>();
+    // The base64 encoded message contents emitted across the bridge, in bytes.
+    private final MetricsRegistry.Counter mBridgeContentBytes = this.mMetrics.counter("bridge.contentBytes");
+    // The number of retries, and of operations which failed after running out of attempts.
+    private final MetricsRegistry.Counter mRetries = this.mMetrics.counter("retry.retries");
+    private final MetricsRegistry.Counter mRetryGiveUps = this.mMetrics.counter("retry.giveUps");
+    // The number of adaptive subscriptions switched to their quiet strategy, and back.
+    private final MetricsRegistry.Counter mAdaptiveQuiet = this.mMetrics.counter("adaptive.quiet");
+    private final MetricsRegistry.Counter mAdaptiveActive = this.mMetrics.counter("adaptive.active");
+    // The time subscribe tasks took to complete, including retries, as recorded by the session.
+    private final LatencyHistogram mSubscribeLatency = this.mMetrics.histogram("task.subscribe");
+    // The time the publication store took to be read, and the number of publications restored from it.
+    private final LatencyHistogram mStoreLoadLatency = this.mMetrics.histogram("store.load");
+    private final MetricsRegistry.Counter mRestoredPublications = this.mMetrics.counter("store.restored");
+    // The time initialize() took, and the time from loading the plugin until the first subscribe succeeded.
+    private final LatencyHistogram mInitializeLatency = this.mMetrics.histogram("startup.initialize");
+    private final LatencyHistogram mFirstSubscribeLatency = this.mMetrics.histogram("startup.firstSubscribe");
+    private volatile long mLoadedAt = System.nanoTime();
+    private final AtomicBoolean mFirstSubscribe = new AtomicBoolean();
+
+    // The time from receiving a callback until its event is dispatched, per type.
+    private final LatencyHistogram mFoundDelay = this.mMetrics.histogram("delay.onFound");
+    private final LatencyHistogram mLostDelay = this.mMetrics.histogram("delay.onLost");
+    private final LatencyHistogram mBleSignalDelay = this.mMetrics.histogram("delay.onBleSignalChanged");
+    private final LatencyHistogram mDistanceDelay = this.mMetrics.histogram("delay.onDistanceChanged");
+    private final LatencyHistogram mBatchDelay = this.mMetrics.histogram("delay.onNearbyBatch");
+    // Whether events carry the time their callback has been received and the time they have been dispatched.
+    private volatile boolean mTimestamps;
+
+    // Builds and delivers events on a dedicated thread, off the threads reporting them.
+    private final EventDispatcher mEventDispatcher = new EventDispatcher(
+            Constants.DISPATCH_QUEUE_SIZE, EventDispatcher.Overflow.DROP_OLDEST,
+            this.mMetrics.counter("dispatch.dropped"), this.mMetrics.counter("dispatch.superseded"),
+            this.mMetrics.counter("dispatch.errors"), this.mMetrics.histogram("dispatch.presenceLatency"));
+
+    @Override
+    public void load() {
+        this.mLoadedAt = System.nanoTime();
+
+        // Moves the work of the first initialize() off its path, if configured.
+        if (Boolean.TRUE.equals(getConfigValue("prewarm"))) {
+            getScheduler().execute(this::prewarm);
+        }
+    }
+
+    /**
+     * Checks the availability of Google Play services, reads the preferences and creates the client ahead of initialize().
+     */
+    private void prewarm() {
+        try {
+            // Unlike initialize(), the user is not prompted to resolve an error.
+            if (!sPlayServicesAvailable) {
+                if (GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(getContext()) != ConnectionResult.SUCCESS) {
+                    return;
+                }
+                sPlayServicesAvailable = true;
+            }
+
+            this.mPrewarmedClient = createMessagesClient(isPermissionGranted());
+        } catch (Exception e) {
+            Log.w(getLogTag(), "Unable to prewarm.", e);
+        }
+    }
+
+    private boolean isPermissionGranted() {
+        Boolean permissionGranted = this.mPermissionGranted;
+        if (permissionGranted == null) {
+            SharedPreferences sharedPref = getActivity().getPreferences(Context.MODE_PRIVATE);
+            permissionGranted = sharedPref.getBoolean("permissionGranted", false);
+
+            this.mPermissionGranted = permissionGranted;
+        }
+        return permissionGranted;
+    }
+
+    private void setPermissionGranted(boolean permissionGranted) {
+        this.mPermissionGranted = permissionGranted;
+
+        SharedPreferences.Editor editor = getActivity().getPreferences(Context.MODE_PRIVATE).edit();
+        editor.putBoolean("permissionGranted", permissionGranted);
+        // Written to disk in the background.
+        editor.apply();
+    }
+
+    private void recordFirstSubscribe() {
+        if (this.mFirstSubscribe.compareAndSet(false, true)) {
+            this.mFirstSubscribeLatency.record(System.nanoTime() - this.mLoadedAt);
+        }
+    }
 
     @Override
     protected void handleOnActivityResult(int requestCode, int resultCode, Intent intentData) {
         if (requestCode == 65537) {
             boolean permissionGranted = resultCode == Activity.RESULT_OK;
 
-            SharedPreferences sharedPref = getActivity().getPreferences(Context.MODE_PRIVATE);
-            boolean hasPermissionGranted = sharedPref.getBoolean("permissionGranted", false);
-
-            SharedPreferences.Editor editor = sharedPref.edit();
-            editor.putBoolean("permissionGranted", permissionGranted);
-            editor.commit();
+            setPermissionGranted(permissionGranted);
 
             {
                 JSObject data = new JSObject();
                 data.put("permissionGranted", permissionGranted);
 
-                notifyListeners("onPermissionChanged", data);
+                dispatchEvent("onPermissionChanged", data);
             }
 
             PluginCall savedCall = getSavedCall();
@@ -129,25 +376,306 @@ public class GoogleNearbyMessages extends Plugin {
     protected void handleOnDestroy() {
 //        Log.i(getLogTag(), "Destroying.");
 
-        if (this.mMessagesClient != null) {
-            {
-                doUnsubscribe(false);
+        this.mSession.cancelTeardown();
 
-                this.mSubscribeOptions = null;
+        if (this.mMessagesClient != null) {
+            for (Subscription subscription : this.mSession.getSubscriptions()) {
+                this.mSession.unsubscribe(subscription);
             }
 
-            for (UUID messageUUID : this.mMessages.keySet()) {
-                doUnpublish(messageUUID);
+            for (MessageOptions messageOptions : this.mSession.getPublications()) {
+                // Persisted messages are restored by the next initialize().
+                doUnpublish(messageOptions.uuid, false);
             }
 
             this.mMessagesClient.unregisterStatusCallback(this.mStatusCallback);
 
             this.mStatusCallback = null;
             this.mMessagesClient = null;
+
+            this.mTransport.setMessagesClient(null);
+        }
+
+        synchronized (this) {
+            this.mDestroyed = true;
+
+            if (this.mScheduler != null) {
+                this.mScheduler.shutdownNow();
+                this.mScheduler = null;
+            }
+        }
+
+        // Pending writes are completed, so that the store matches the publications.
+        this.mStoreExecutor.shutdown();
+
+        this.mEventDispatcher.close();
+    }
+
+    private void configureDispatch(JSObject dispatchObject) {
+        int queueSize = Constants.DISPATCH_QUEUE_SIZE;
+        EventDispatcher.Overflow overflow = EventDispatcher.Overflow.DROP_OLDEST;
+
+        if (dispatchObject != null) {
+            // The maximum number of pending signal and distance updates.
+            queueSize = Math.max(dispatchObject.getInteger("queueSize", queueSize), 1);
+            // Either "dropOldest" (default) or "dropNewest", applied when the queue is full.
+            overflow = EventDispatcher.Overflow.fromString(dispatchObject.getString("overflow", null));
+        }
+
+        this.mEventDispatcher.configure(queueSize, overflow);
+    }
+
+    private void configureCompression(JSObject compressionObject) {
+        byte[] dictionary = null;
+
+        if (compressionObject != null) {
+            // The preset dictionary, which must be the same for publishers and subscribers.
+            String dictionaryString = compressionObject.getString("dictionary", null);
+            if (dictionaryString != null && dictionaryString.length() > 0) {
+                dictionary = Base64.decode(dictionaryString, Base64.DEFAULT);
+            }
+        }
+
+        this.mPayloadCodec = new PayloadCodec(dictionary, Constants.MAX_INFLATED_SIZE_BYTES);
+    }
+
+    private void configureRetry(JSObject retryObject) throws JSONException {
+        if (retryObject == null) {
+            this.mSession.setRetryPolicy(RetryPolicy.NONE);
+            return;
+        }
+
+        // The maximum number of attempts, including the first one.
+        int maxAttempts = retryObject.getInteger("maxAttempts", Constants.RETRY_MAX_ATTEMPTS);
+        // The delay before the first retry, which doubles with every further retry up to the maximum delay.
+        long baseDelayMillis = retryObject.optLong("baseDelayMillis", Constants.RETRY_BASE_DELAY_MILLIS);
+        long maxDelayMillis = retryObject.optLong("maxDelayMillis", Constants.RETRY_MAX_DELAY_MILLIS);
+        // The share of the delay which is randomized, within [0, 1].
+        double jitter = retryObject.optDouble("jitter", Constants.RETRY_JITTER);
+
+        Set<Integer> statusCodes = new HashSet<>();
+
+        JSONArray statusCodesArray = retryObject.optJSONArray("statusCodes");
+        if (statusCodesArray != null) {
+            for (int i = 0; i < statusCodesArray.length(); i++) {
+                statusCodes.add(statusCodesArray.getInt(i));
+            }
+        } else {
+            for (int statusCode : Constants.RETRY_STATUS_CODES) {
+                statusCodes.add(statusCode);
+            }
+        }
+
+        this.mSession.setRetryPolicy(new RetryPolicy(
+                Math.max(maxAttempts, 1),
+                Math.max(baseDelayMillis, 0),
+                Math.max(maxDelayMillis, 0),
+                Math.min(Math.max(jitter, 0), 1),
+                statusCodes
+        ));
+    }
+
+    @Override
+    protected void notifyListeners(String eventName, JSObject data) {
+        MetricsRegistry.Counter delivered = this.mDelivered.get(eventName);
+        if (delivered == null) {
+            delivered = this.mMetrics.counter("delivered." + eventName);
+            this.mDelivered.put(eventName, delivered);
+        }
+        delivered.increment();
+
+        super.notifyListeners(eventName, data);
+    }
+
+    /**
+     * Delivers a lifecycle event (e.g. found, lost or expired), which is never dropped.
+     */
+    private void dispatchEvent(final String eventName, final JSObject data) {
+        this.mEventDispatcher.dispatch(() -> notifyListeners(eventName, data));
+    }
+
+    /**
+     * Returns the scheduler, creating it on first use.
+     *
+     * @throws RejectedExecutionException once the plugin has been destroyed
+     */
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.mDestroyed) {
+            throw new RejectedExecutionException("Plugin has been destroyed");
+        }
+
+        if (this.mScheduler == null) {
+            this.mScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+        return this.mScheduler;
+    }
+
+    private void configureBatching(JSObject batchingObject) {
+        if (batchingObject != null) {
+            // How long signal and distance updates are collected before they are emitted.
+            int flushIntervalMillis = batchingObject.getInteger("flushIntervalMillis", Constants.BATCH_FLUSH_INTERVAL_MILLIS);
+            // Emit as soon as updates for this many distinct messages are pending (0 = unbounded).
+            int maxBatchSize = batchingObject.getInteger("maxBatchSize", 0);
+
+            this.mBatchFlushIntervalMillis = Math.max(flushIntervalMillis, 1);
+            this.mBatchMaxSize = Math.max(maxBatchSize, 0);
+        } else {
+            this.mBatchFlushIntervalMillis = 0;
+        }
+
+        for (Subscription subscription : this.mSession.getSubscriptions()) {
+            // Deliver whatever has been collected with the previous configuration.
+            subscription.mEngine.setEventBatcher(createEventBatcher(subscription));
+        }
+    }
+
+    /**
+     * Returns a batcher emitting the signal and distance updates of the given subscription, or null if batching is disabled.
+     */
+    private EventBatcher<Message> createEventBatcher(final Subscription subscription) {
+        int flushIntervalMillis = this.mBatchFlushIntervalMillis;
+        if (flushIntervalMillis <= 0) {
+            return null;
+        }
+
+        return new EventBatcher<>(
+                getScheduler(),
+                Clock.SYSTEM,
+                flushIntervalMillis,
+                this.mBatchMaxSize,
+                (List<EventBatcher.Entry<Message>> entries) -> {
+                    // Resolve the handles now, as the messages might be lost by the time the batch is built.
+                    final int[] handles = new int[entries.size()];
+                    for (int i = 0; i < handles.length; i++) {
+                        handles[i] = subscription.mEngine.mMessageHandles.get(entries.get(i).key);
+                    }
+
+                    this.mEventDispatcher.dispatch("onNearbyBatch", null, () -> {
+                        JSArray events = new JSArray();
+
+                        for (int i = 0; i < handles.length; i++) {
+                            EventBatcher.Entry<Message> entry = entries.get(i);
+
+                            JSObject event = toEventObject(null, entry.key, handles[i]);
+                            if (entry.hasBleSignal) {
+                                event.put("bleSignal", toBleSignalObject(entry.rssi, entry.txPower, entry.smoothedRssi, entry.band));
+                            }
+                            if (entry.hasDistance) {
+                                event.put("distance", toDistanceObject(entry.accuracy, entry.meters));
+                            }
+                            putTimestamps(event, this.mBatchDelay, entry.receivedAt);
+
+                            events.put(event);
+                        }
+
+                        JSObject data = new JSObject();
+                        data.put("subscriptionId", subscription.id);
+                        data.put("events", events);
+
+                        notifyListeners("onNearbyBatch", data);
+                    });
+                });
+    }
+
+    /**
+     * Records the delay since the callback of the given event has been received and, if enabled,
+     * adds the monotonic receivedAt and dispatchedAt timestamps in milliseconds.
+     */
+    private void putTimestamps(JSObject data, LatencyHistogram delay, long receivedAt) {
+        long dispatchedAt = System.nanoTime();
+
+        delay.record(dispatchedAt - receivedAt);
+
+        if (this.mTimestamps) {
+            data.put("receivedAt", receivedAt / 1e6);
+            data.put("dispatchedAt", dispatchedAt / 1e6);
+        }
+    }
+
+    private JSObject toEventObject(String subscriptionId, Message message, int handle) {
+        // The full message is only sent with onFound, unless requested otherwise or it has no handle.
+        JSObject messageObject = !this.mMessageHandlesOnly || handle == MessageHandles.NO_HANDLE
+                ? toMessageObject(message) : null;
+        return NearbyJson.toEventObject(new JSObject(), subscriptionId, handle, messageObject);
+    }
+
+    private JSObject toLatencyObject(LatencyHistogram histogram) {
+        JSObject latencyObject = new JSObject();
+        latencyObject.put("count", histogram.getCount());
+        // Latencies in milliseconds.
+        latencyObject.put("mean", histogram.getMeanNanos() / 1e6);
+        latencyObject.put("p50", histogram.getPercentileNanos(50) / 1e6);
+        latencyObject.put("p90", histogram.getPercentileNanos(90) / 1e6);
+        latencyObject.put("p99", histogram.getPercentileNanos(99) / 1e6);
+        latencyObject.put("max", histogram.getMaxNanos() / 1e6);
+        return latencyObject;
+    }
+
+    private JSObject toMessageObject(Message message) {
+        return toMessageObject(message.getType(), message.getContent(), message.getNamespace());
+    }
+
+    private JSObject toMessageObject(String type, byte[] content, String namespace) {
+        JSObject messageObject = NearbyJson.toMessageObject(new JSObject(), type, content, namespace, BASE64);
+        this.mBridgeContentBytes.add(messageObject.optString("content").length());
+        return messageObject;
+    }
+
+    private JSObject toBleSignalObject(int rssi, int txPower) {
+        return toBleSignalObject(rssi, txPower, Double.NaN, null);
+    }
+
+    private JSObject toBleSignalObject(int rssi, int txPower, double smoothedRssi, String band) {
+        return NearbyJson.toBleSignalObject(new JSObject(), rssi, txPower, smoothedRssi, band);
+    }
+
+    private SignalFilter<Message> parseSignalFilter(JSObject signalFilterObject) throws JSONException {
+        // Either "ema" (default) or "kalman".
+        SignalFilter.Mode mode = SignalFilter.Mode.fromString(signalFilterObject.getString("mode", null));
+
+        // The smoothing factor of the exponential moving average, within (0, 1].
+        double alpha = signalFilterObject.optDouble("alpha", Constants.SIGNAL_FILTER_ALPHA);
+        // The process and measurement noise of the Kalman filter.
+        double processNoise = signalFilterObject.optDouble("processNoise", Constants.SIGNAL_FILTER_PROCESS_NOISE);
+        double measurementNoise = signalFilterObject.optDouble("measurementNoise", Constants.SIGNAL_FILTER_MEASUREMENT_NOISE);
+        // The change of the smoothed RSSI, in dBm, required to emit another event.
+        double minDelta = signalFilterObject.optDouble("minDelta", Constants.SIGNAL_FILTER_MIN_DELTA);
+
+        List<SignalFilter.Band> bands = new ArrayList<>();
+
+        JSONArray bandsArray = signalFilterObject.optJSONArray("bands");
+        if (bandsArray != null) {
+            for (int i = 0; i < bandsArray.length(); i++) {
+                JSONObject bandObject = bandsArray.getJSONObject(i);
+
+                bands.add(new SignalFilter.Band(
+                        // The name of the proximity band, e.g. "immediate", "near" or "far".
+                        bandObject.getString("name"),
+                        // The smallest smoothed RSSI, in dBm, to be considered within this band.
+                        bandObject.getInt("minRssi")
+                ));
+            }
         }
+
+        return new SignalFilter<>(
+                mode,
+                Math.min(Math.max(alpha, Double.MIN_VALUE), 1),
+                processNoise,
+                measurementNoise,
+                Math.max(minDelta, 0),
+                bands
+        );
+    }
+
+    private JSObject toDistanceObject(int accuracy, double meters) {
+        return NearbyJson.toDistanceObject(new JSObject(), accuracy, meters);
     }
 
     private boolean isGooglePlayServicesAvailable() {
+        if (sPlayServicesAvailable) {
+            return true;
+        }
+
         GoogleApiAvailability googleApi = GoogleApiAvailability.getInstance();
 
         // Verifies that Google Play services is installed and enabled on this device,
@@ -157,7 +685,9 @@ public class GoogleNearbyMessages extends Plugin {
 
         boolean result = availability == ConnectionResult.SUCCESS;
 
-        if (!result &&
+        if (result) {
+            sPlayServicesAvailable = true;
+        } else if (
                 // Determines whether an error can be resolved via user action.
                 googleApi.isUserResolvableError(availability)
         ) {
@@ -172,8 +702,53 @@ public class GoogleNearbyMessages extends Plugin {
         return result;
     }
 
+    private MessagesClient createMessagesClient(boolean hasPermissionGranted) {
+        /**
+         * Newer GoogleApi-based API calls will automatically display either a dialog
+         * (if the client is instantiated with an Activity) or system tray notification
+         * (if the client is instantiated with a Context) that the user can tap to
+         * start the permissions resolution intent.
+         *
+         * Calls will be enqueued and retried once the permission is granted.
+         * https://developers.google.com/android/guides/permissions
+         */
+
+        if (hasPermissionGranted) {
+            return Nearby.getMessagesClient(
+                    // Resolvable connections errors will create a system notification that the user can tap in order to resolve the error.
+                    getContext(),
+
+                    // Configuration parameters for the Messages API.
+                    new MessagesOptions.Builder()
+                            // Sets which NearbyPermissions are requested for Nearby.
+                            .setPermissions(
+                                    // Determines the scope of permissions Nearby will ask for at connection time.
+                                    NearbyPermissions.DEFAULT
+                            )
+                            .build()
+            );
+        } else {
+            // Creates a new instance of MessagesClient.
+            return Nearby.getMessagesClient(
+                    // The given Activity will be used to automatically prompt for resolution of resolvable connection errors.
+                    getActivity(),
+
+                    // Configuration parameters for the Messages API.
+                    new MessagesOptions.Builder()
+                            // Sets which NearbyPermissions are requested for Nearby.
+                            .setPermissions(
+                                    // Determines the scope of permissions Nearby will ask for at connection time.
+                                    NearbyPermissions.DEFAULT
+                            )
+                            .build()
+            );
+        }
+    }
+
     @PluginMethod()
     public void initialize(PluginCall call) {
+        final long startedAt = System.nanoTime();
+
         try {
 //            Log.i(getLogTag(), "Initializing.");
 
@@ -182,52 +757,40 @@ public class GoogleNearbyMessages extends Plugin {
                 return;
             }
 
+            // Either "none" (default), "info" or "debug".
+            String logLevel = call.getString("logLevel", null);
+            if (logLevel != null) {
+                int level = TraceBuffer.parseLevel(logLevel);
+                if (level < 0) {
+                    call.reject(Constants.INVALID_LOG_LEVEL);
+                    return;
+                }
+                this.mTrace.setLevel(level);
+            }
+
+            configureBatching(call.getObject("batching", null));
+            configureDispatch(call.getObject("dispatch", null));
+
+            this.mMessageHandlesOnly = call.getBoolean("messageHandles", false);
+            this.mTimestamps = call.getBoolean("timestamps", false);
+
+            configureCompression(call.getObject("compression", null));
+            configureRetry(call.getObject("retry", null));
+
+            // Only the first call is resolved once the permission has been granted.
+            boolean isInitialized = this.mStatusCallback != null;
+
             saveCall(call);
 
-            SharedPreferences sharedPref = getActivity().getPreferences(Context.MODE_PRIVATE);
-            boolean hasPermissionGranted = sharedPref.getBoolean("permissionGranted", false);
+            boolean hasPermissionGranted = isPermissionGranted();
 
             if (this.mMessagesClient == null) {
-                /**
-                 * Newer GoogleApi-based API calls will automatically display either a dialog
-                 * (if the client is instantiated with an Activity) or system tray notification
-                 * (if the client is instantiated with a Context) that the user can tap to
-                 * start the permissions resolution intent.
-                 *
-                 * Calls will be enqueued and retried once the permission is granted.
-                 * https://developers.google.com/android/guides/permissions
-                 */
-
-                if (hasPermissionGranted) {
-                    this.mMessagesClient = Nearby.getMessagesClient(
-                            // Resolvable connections errors will create a system notification that the user can tap in order to resolve the error.
-                            getContext(),
-
-                            // Configuration parameters for the Messages API.
-                            new MessagesOptions.Builder()
-                                    // Sets which NearbyPermissions are requested for Nearby.
-                                    .setPermissions(
-                                            // Determines the scope of permissions Nearby will ask for at connection time.
-                                            NearbyPermissions.DEFAULT
-                                    )
-                                    .build()
-                    );
-                } else {
-                    // Creates a new instance of MessagesClient.
-                    this.mMessagesClient = Nearby.getMessagesClient(
-                            // The given Activity will be used to automatically prompt for resolution of resolvable connection errors.
-                            getActivity(),
-
-                            // Configuration parameters for the Messages API.
-                            new MessagesOptions.Builder()
-                                    // Sets which NearbyPermissions are requested for Nearby.
-                                    .setPermissions(
-                                            // Determines the scope of permissions Nearby will ask for at connection time.
-                                            NearbyPermissions.DEFAULT
-                                    )
-                                    .build()
-                    );
-                }
+                MessagesClient prewarmedClient = this.mPrewarmedClient;
+                this.mPrewarmedClient = null;
+
+                this.mMessagesClient = prewarmedClient != null ? prewarmedClient : createMessagesClient(hasPermissionGranted);
+
+                this.mTransport.setMessagesClient(this.mMessagesClient);
             }
 
             if (this.mStatusCallback == null) {
@@ -237,20 +800,16 @@ public class GoogleNearbyMessages extends Plugin {
                     public void onPermissionChanged(boolean permissionGranted) {
                         super.onPermissionChanged(permissionGranted);
 
-                        Log.i(getLogTag(),
-                                String.format(
-                                        "onPermissionChanged(permissionGranted=%s)",
-                                        permissionGranted));
+                        mTrace.record(TraceBuffer.LEVEL_INFO, "onPermissionChanged", null, null,
+                                permissionGranted ? 1 : 0, 0, 0);
 
-                        SharedPreferences.Editor editor = sharedPref.edit();
-                        editor.putBoolean("permissionGranted", permissionGranted);
-                        editor.commit();
+                        setPermissionGranted(permissionGranted);
 
                         {
                             JSObject data = new JSObject();
                             data.put("permissionGranted", permissionGranted);
 
-                            notifyListeners("onPermissionChanged", data);
+                            dispatchEvent("onPermissionChanged", data);
                         }
 
                         PluginCall savedCall = getSavedCall();
@@ -281,164 +840,40 @@ public class GoogleNearbyMessages extends Plugin {
                 );
             }
 
-            if (this.mMessageListener == null) {
-                // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/MessageListener
-                this.mMessageListener = new MessageListener() {
-                    // A listener for receiving subscribed messages. These callbacks will be delivered when messages are found or lost.
-
-                    /**
-                     * Called when the Bluetooth Low Energy (BLE) signal associated with a message changes.
-                     * <p>
-                     * This is currently only called for BLE beacon messages.
-                     * <p>
-                     * For example, this is called when we see the first BLE advertisement
-                     * frame associated with a message; or when we see subsequent frames with
-                     * significantly different received signal strength indicator (RSSI)
-                     * readings.
-                     * <p>
-                     * For more information, see the MessageListener Javadocs.
-                     */
-                    // https://developers.google.com/nearby/messages/android/advanced#rssi_and_distance_callbacks
-                    @Override
-                    public void onBleSignalChanged(final Message message, final BleSignal bleSignal) {
-                        Log.i(getLogTag(),
-                                String.format(
-                                        "onBleSignalChanged(message=%s, bleSignal=%s)",
-                                        message, bleSignal));
-
-                        {
-                            JSObject messageObject = new JSObject();
-                            // Returns the type that describes the content of the message.
-                            messageObject.put("type", message.getType());
-                            // Returns the raw bytes content of the message.
-                            messageObject.put("content", Base64.encodeToString(message.getContent(), Base64.DEFAULT | Base64.NO_WRAP));
-                            // Returns the non-empty string for a public namespace or empty for the private one.
-                            messageObject.put("namespace", message.getNamespace());
-
-                            JSObject bleSignalObject = new JSObject();
-                            // Returns the received signal strength indicator (RSSI) in dBm.
-                            bleSignalObject.put("rssi", bleSignal.getRssi());
-                            // Returns the transmission power level at 1 meter, in dBm.
-                            bleSignalObject.put("txPower", bleSignal.getTxPower());
-
-                            JSObject data = new JSObject();
-                            data.put("message", messageObject);
-                            data.put("bleSignal", bleSignalObject);
-
-                            notifyListeners("onBleSignalChanged", data);
-                        }
-                    }
-
-                    /**
-                     * Called when Nearby's estimate of the distance to a message changes.
-                     * <p>
-                     * This is currently only called for BLE beacon messages.
-                     * <p>
-                     * For example, this is called when we first gather enough information
-                     * to make a distance estimate; or when the message remains nearby,
-                     * but gets closer or further away.
-                     * <p>
-                     * For more information, see the MessageListener Javadocs.
-                     */
-                    // https://developers.google.com/nearby/messages/android/advanced#rssi_and_distance_callbacks
-                    @Override
-                    public void onDistanceChanged(final Message message, final Distance distance) {
-                        Log.i(getLogTag(),
-                                String.format(
-                                        "onDistanceChanged(message=%s, distance=%s)",
-                                        message, distance));
-
-                        {
-                            JSObject messageObject = new JSObject();
-                            // Returns the type that describes the content of the message.
-                            messageObject.put("type", message.getType());
-                            // Returns the raw bytes content of the message.
-                            messageObject.put("content", Base64.encodeToString(message.getContent(), Base64.DEFAULT | Base64.NO_WRAP));
-                            // Returns the non-empty string for a public namespace or empty for the private one.
-                            messageObject.put("namespace", message.getNamespace());
-
-                            JSObject distanceObject = new JSObject();
-                            // The accuracy of the distance estimate.
-                            distanceObject.put("accuracy", distance.getAccuracy());
-                            // The distance estimate, in meters.
-                            distanceObject.put("meters", distance.getMeters());
-
-                            JSObject data = new JSObject();
-                            data.put("message", messageObject);
-                            data.put("distance", distanceObject);
-
-                            notifyListeners("onDistanceChanged", data);
-                        }
-                    }
-
-                    /**
-                     * Called when messages are found.
-                     * <p>
-                     * This method is called the first time the message is seen nearby.
-                     * <p>
-                     * After a message has been lost (see onLost(Message)), it's eligible
-                     * for onFound(Message) again.
-                     */
-                    @Override
-                    public void onFound(final Message message) {
-                        Log.i(getLogTag(),
-                                String.format(
-                                        "onFound(message=%s, type=%s, content=%s)",
-                                        message, message.getType(), new String(message.getContent())));
-
-                        {
-                            JSObject messageObject = new JSObject();
-                            // Returns the type that describes the content of the message.
-                            messageObject.put("type", message.getType());
-                            // Returns the raw bytes content of the message.
-                            messageObject.put("content", Base64.encodeToString(message.getContent(), Base64.DEFAULT | Base64.NO_WRAP));
-                            // Returns the non-empty string for a public namespace or empty for the private one.
-                            messageObject.put("namespace", message.getNamespace());
-
-                            JSObject data = new JSObject();
-                            data.put("message", messageObject);
-
-                            notifyListeners("onFound", data);
-                        }
-                    }
-
-                    /**
-                     * Called when a message is no longer detectable nearby.
-                     * <p>
-                     * Note: This callback currently works best for BLE beacon messages.
-                     * For other messages, it may not be called in a timely fashion, or at all.
-                     * <p>
-                     * This method will not be called repeatedly (unless the message is
-                     * found again between lost calls).
-                     */
-                    @Override
-                    public void onLost(final Message message) {
-                        Log.i(getLogTag(),
-                                String.format(
-                                        "onLost(message=%s, type=%s, content=%s)",
-                                        message, message.getType(), new String(message.getContent())));
-
-                        {
-                            JSObject messageObject = new JSObject();
-                            // Returns the type that describes the content of the message.
-                            messageObject.put("type", message.getType());
-                            // Returns the raw bytes content of the message.
-                            messageObject.put("content", Base64.encodeToString(message.getContent(), Base64.DEFAULT | Base64.NO_WRAP));
-                            // Returns the non-empty string for a public namespace or empty for the private one.
-                            messageObject.put("namespace", message.getNamespace());
-
-                            JSObject data = new JSObject();
-                            data.put("message", messageObject);
+            if (call.getBoolean("persistPublications", false)) {
+                restorePublications();
+            }
 
-                            notifyListeners("onLost", data);
-                        }
-                    }
-                };
-            } else {
+            if (isInitialized) {
                 call.success();
             }
         } catch (Exception e) {
             call.error(e.getLocalizedMessage(), e);
+        } finally {
+            this.mInitializeLatency.record(System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * Returns the decompressed message, or the given one if it is not compressed (or corrupt).
+     */
+    private Message inflate(Message message) {
+        byte[] content = inflate(message.getContent());
+        return content != message.getContent() ? new Message(content, message.getNamespace(), message.getType()) : message;
+    }
+
+    private byte[] inflate(byte[] content) {
+        PayloadFrame frame = PayloadFrame.parse(content);
+        if (frame == null || !frame.isDeflated()) {
+            return content;
+        }
+
+        try {
+            return this.mPayloadCodec.decompress(frame);
+        } catch (DataFormatException e) {
+            Log.w(getLogTag(), "Unable to decompress message.", e);
+
+            return content;
         }
     }
 
@@ -447,22 +882,27 @@ public class GoogleNearbyMessages extends Plugin {
         try {
 //            Log.i(getLogTag(), "Resetting.");
 
+            this.mSession.cancelTeardown();
+
             if (this.mMessagesClient != null) {
-                {
-                    doUnsubscribe(false);
+                for (Subscription subscription : this.mSession.getSubscriptions()) {
+                    this.mSession.unsubscribe(subscription);
 
-                    this.mSubscribeOptions = null;
+                    JSObject data = new JSObject();
+                    data.put("subscriptionId", subscription.id);
 
-                    notifyListeners("onSubscribeExpired", null);
+                    dispatchEvent("onSubscribeExpired", data);
                 }
 
-                for (UUID messageUUID : this.mMessages.keySet()) {
-                    doUnpublish(messageUUID);
+                doUnsubscribeInBackground();
+
+                for (MessageOptions messageOptions : this.mSession.getPublications()) {
+                    doUnpublish(messageOptions.uuid);
 
                     JSObject data = new JSObject();
-                    data.put("uuid", messageUUID);
+                    data.put("uuid", messageOptions.uuid);
 
-                    notifyListeners("onPublishExpired", data);
+                    dispatchEvent("onPublishExpired", data);
                 }
 
                 this.mMessagesClient.unregisterStatusCallback(this.mStatusCallback);
@@ -488,181 +928,503 @@ public class GoogleNearbyMessages extends Plugin {
         try {
 //            Log.i(getLogTag(), "Publishing.");
 
-            Message message = null;
-            Strategy strategy = null;
-
-            JSObject messageObject = call.getObject("message", null);
-            if (messageObject != null) {
-                String content = messageObject.getString("content", null);
-                if (content == null || content.length() == 0) {
-                    call.reject(Constants.PUBLISH_MESSAGE_CONTENT);
-                    return;
-                }
-
-                String type = messageObject.getString("type", null);
-                if (type == null || type.length() == 0) {
-                    call.reject(Constants.PUBLISH_MESSAGE_TYPE);
-                    return;
-                }
+            Message message;
+            JSObject strategyObject = null;
 
-                // A message that will be shared with nearby devices.
-                message = new Message(
-                        // An arbitrary array holding the content of the message. The maximum content size is MAX_CONTENT_SIZE_BYTES.
-                        Base64.decode(content, Base64.DEFAULT),
-                        // A string that describe what the bytes of the content represent. The maximum type length is MAX_TYPE_LENGTH.
-                        type
-                );
-            } else {
-                call.reject(Constants.PUBLISH_MESSAGE);
+            try {
+                message = parseMessage(call.getObject("message", null));
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getMessage());
                 return;
             }
 
+            boolean compress = false;
+            int chunkSize = 0;
+
             JSObject optionsObject = call.getObject("options", null);
             if (optionsObject != null) {
-                JSObject strategyObject = optionsObject.getJSObject("strategy", null);
-
-                if (strategyObject != null) {
-                    if (strategyObject.getBoolean("DEFAULT", false)) {
-                        // The default strategy, which is suitable for most applications.
-                        strategy = Strategy.DEFAULT;
-                    } else if (strategyObject.getBoolean("BLE_ONLY", false)) {
-                        // Use only Bluetooth Low Energy to discover nearby devices. Recommended if you are only interested in messages attached to BLE beacons.
-                        strategy = Strategy.BLE_ONLY;
-                    } else {
-                        // Builder for Strategy.
-                        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/Strategy.Builder
-                        Strategy.Builder builder = new Strategy.Builder();
-
-                        Integer discoveryMode = strategyObject.getInteger("discoveryMode");
-                        if (discoveryMode != null) {
-                            // Sets the desired discovery mode that determines how devices will detect each other.
-                            builder.setDiscoveryMode(discoveryMode);
-                        }
-
-                        Integer distanceType = strategyObject.getInteger("distanceType");
-                        if (distanceType != null) {
-                            // Message will only be delivered to subscribing devices that are at most the specified distance from this device.
-                            builder.setDistanceType(distanceType);
-                        }
-
-                        Integer ttlSeconds = strategyObject.getInteger("ttlSeconds");
-                        if (ttlSeconds != null) {
-                            // Sets the time to live in seconds for the publish or subscribe.
-                            builder.setTtlSeconds(ttlSeconds);
-                        }
-
-                        // Builds an instance of Strategy.
-                        strategy = builder
-                                .build();
-                    }
-                }
+                strategyObject = optionsObject.getJSObject("strategy", null);
+                // Compress the content, which subscribers decompress before reporting it.
+                compress = optionsObject.getBoolean("compress", false);
+                chunkSize = parseChunkSize(optionsObject);
             }
 
             // Create UUID to identify this message.
-            UUID messageUUID = UUID.randomUUID();
-
-            // Builder for instances of PublishOptions.
-            // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/PublishOptions.Builder
-            PublishOptions.Builder options = new PublishOptions.Builder()
-                    // Sets a callback which will be notified when significant events occur that affect this publish.
-                    .setCallback(
-                            // Callback for events which affect published messages.
-                            // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/PublishCallback
-                            new PublishCallback() {
-                                /**
-                                 * The published message is expired.
-                                 *
-                                 * Called if any of the following happened:
-                                 *
-                                 *  - The specified TTL for the call elapsed.
-                                 *  - User stopped the Nearby actions for the app.
-                                 *
-                                 * Using this callback is recommended for cases when you need to update
-                                 * state (e.g. UI elements) when published messages expire.
-                                 */
-                                @Override
-                                public void onExpired() {
-                                    super.onExpired();
-
-//                                    Log.i(getLogTag(), "The published message is expired.");
-
-                                    doUnpublish(messageUUID);
-
-                                    JSObject data = new JSObject();
-                                    data.put("uuid", messageUUID);
-
-                                    notifyListeners("onPublishExpired", data);
-                                }
-                            }
-                    );
-
-            if (strategy != null) {
-                // Sets the strategy for publishing.
-                options.setStrategy(strategy);
-            }
+            final UUID messageUUID = UUID.randomUUID();
 
-            final MessageOptions messageOptions = new MessageOptions(message, options.build());
+            startPublish(messageUUID, encode(message, compress, chunkSize), strategyObject, new NearbyTransport.Callback() {
+                @Override
+                public void onSuccess() {
+//                    Log.i(getLogTag(), "Publish Success.");
 
-            doPublish(message, options.build())
-                    .addOnSuccessListener(
-                            (Void) -> {
-//                                Log.i(getLogTag(), "Publish Success.");
-
-                                this.mMessages.put(messageUUID, messageOptions);
+                    JSObject data = new JSObject();
+                    data.put("uuid", messageUUID);
 
-                                JSObject data = new JSObject();
-                                data.put("uuid", messageUUID);
+                    call.success(data);
+                }
 
-                                call.success(data);
-                            })
-                    .addOnFailureListener(
-                            (Exception e) -> {
-//                                Log.e(getLogTag(), "Publish Failure.", e);
+                @Override
+                public void onFailure(int statusCode) {
+//                    Log.e(getLogTag(), "Publish Failure.");
 
-                                call.error(e.getLocalizedMessage(), e);
-                            });
+                    call.error(MessagesClientTransport.getStatusMessage(statusCode));
+                }
+            });
         } catch (Exception e) {
             call.error(e.getLocalizedMessage(), e);
         }
     }
 
-    private Task<Void> doPublish(Message message, PublishOptions options) {
-        return
-                // Publishes a message so that it is visible to nearby devices.
-                this.mMessagesClient
-                        .publish(
-                                // A Message to publish for nearby devices to see
-                                message,
-                                // A PublishOptions object for this operation
-                                options
-                        );
-    }
-
     @PluginMethod()
-    // https://developers.google.com/nearby/messages/android/pub-sub#unpublish_a_message
-    public void unpublish(PluginCall call) {
+    public void publishBatch(PluginCall call) {
         if (this.mMessagesClient == null) {
             call.reject(Constants.NOT_INITIALIZED);
             return;
         }
 
         try {
-//            Log.i(getLogTag(), "Unpublishing.");
+//            Log.i(getLogTag(), "Publishing batch.");
 
-            String uuid = call.getString("uuid", null);
-            if (uuid == null || uuid.length() == 0) {
-                // Unpublish all messages.
-                for (UUID messageUUID : this.mMessages.keySet()) {
-                    doUnpublish(messageUUID);
-                }
-            } else {
-                // Unpublish message.
-                UUID messageUUID = UUID.fromString(uuid);
+            JSArray messagesArray = call.getArray("messages", null);
+            if (messagesArray == null || messagesArray.length() == 0) {
+                call.reject(Constants.PUBLISH_MESSAGES);
+                return;
+            }
 
-                MessageOptions messageOptions = this.mMessages.get(messageUUID);
-                if (messageOptions == null) {
-                    call.reject(Constants.MESSAGE_UUID_NOT_FOUND);
-                    return;
+            JSObject strategyObject = null;
+            boolean compress = false;
+            int chunkSize = 0;
+
+            // The options are shared by all messages, so they are parsed only once.
+            JSObject optionsObject = call.getObject("options", null);
+            if (optionsObject != null) {
+                strategyObject = optionsObject.getJSObject("strategy", null);
+                // Compress the content, which subscribers decompress before reporting it.
+                compress = optionsObject.getBoolean("compress", false);
+                chunkSize = parseChunkSize(optionsObject);
+            }
+
+            final int count = messagesArray.length();
+            final JSObject[] results = new JSObject[count];
+            final AtomicInteger remaining = new AtomicInteger(count);
+
+            // Resolves the call once every publish has either succeeded or failed.
+            final Runnable complete = () -> {
+                if (remaining.decrementAndGet() == 0) {
+                    JSArray resultsArray = new JSArray();
+                    for (JSObject result : results) {
+                        resultsArray.put(result);
+                    }
+
+                    JSObject data = new JSObject();
+                    data.put("results", resultsArray);
+
+                    call.success(data);
+                }
+            };
+
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+
+                Message[] messages;
+                try {
+                    JSONObject messageObject = messagesArray.optJSONObject(i);
+                    messages = encode(parseMessage(messageObject != null ? JSObject.fromJSONObject(messageObject) : null), compress, chunkSize);
+                } catch (IllegalArgumentException e) {
+                    results[index] = new JSObject();
+                    results[index].put("error", e.getMessage());
+
+                    complete.run();
+                    continue;
+                }
+
+                // Create UUID to identify this message.
+                final UUID messageUUID = UUID.randomUUID();
+
+                startPublish(messageUUID, messages, strategyObject, new NearbyTransport.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        results[index] = new JSObject();
+                        results[index].put("uuid", messageUUID);
+
+                        complete.run();
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode) {
+                        results[index] = new JSObject();
+                        results[index].put("error", MessagesClientTransport.getStatusMessage(statusCode));
+
+                        complete.run();
+                    }
+                });
+            }
+        } catch (Exception e) {
+            call.error(e.getLocalizedMessage(), e);
+        }
+    }
+
+    private Message parseMessage(JSObject messageObject) {
+        if (messageObject == null) {
+            throw new IllegalArgumentException(Constants.PUBLISH_MESSAGE);
+        }
+
+        String content = messageObject.getString("content", null);
+        if (content == null || content.length() == 0) {
+            throw new IllegalArgumentException(Constants.PUBLISH_MESSAGE_CONTENT);
+        }
+
+        String type = messageObject.getString("type", null);
+        if (type == null || type.length() == 0) {
+            throw new IllegalArgumentException(Constants.PUBLISH_MESSAGE_TYPE);
+        }
+
+        // A message that will be shared with nearby devices.
+        return new Message(
+                // An arbitrary array holding the content of the message. The maximum content size is MAX_CONTENT_SIZE_BYTES.
+                Base64.decode(content, Base64.DEFAULT),
+                // A string that describe what the bytes of the content represent. The maximum type length is MAX_TYPE_LENGTH.
+                type
+        );
+    }
+
+    /**
+     * Returns the maximum size of each chunk message, or 0 if the content is not to be split.
+     */
+    private int parseChunkSize(JSObject optionsObject) {
+        // Split contents larger than the chunk size into multiple messages, which subscribers reassemble.
+        if (!optionsObject.getBoolean("chunked", false)) {
+            return 0;
+        }
+
+        int chunkSize = optionsObject.getInteger("chunkSize", Constants.MAX_CONTENT_SIZE_BYTES);
+
+        return Math.min(Math.max(chunkSize, PayloadFrame.CHUNK_HEADER_SIZE + 1), Constants.MAX_CONTENT_SIZE_BYTES);
+    }
+
+    /**
+     * Compresses the given message, if requested, and splits it into chunk messages, if its content exceeds the chunk size.
+     */
+    private Message[] encode(Message message, boolean compress, int chunkSize) {
+        byte[] content = message.getContent();
+
+        if (compress) {
+            byte[] compressed = this.mPayloadCodec.compress(content);
+            if (compressed != content) {
+                content = compressed;
+                message = new Message(content, message.getType());
+            }
+        }
+
+        if (chunkSize <= 0 || content.length <= chunkSize) {
+            return new Message[]{message};
+        }
+
+        // All chunks of a content share a random transfer ID.
+        long transferId = UUID.randomUUID().getLeastSignificantBits();
+
+        byte[][] frames = PayloadFrame.split(content, 0, transferId, chunkSize);
+
+        Message[] messages = new Message[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            messages[i] = new Message(frames[i], message.getType());
+        }
+        return messages;
+    }
+
+    private Strategy parseStrategy(JSObject strategyObject) {
+        if (strategyObject == null) {
+            return null;
+        }
+
+        if (strategyObject.getBoolean("DEFAULT", false)) {
+            // The default strategy, which is suitable for most applications.
+            return Strategy.DEFAULT;
+        } else if (strategyObject.getBoolean("BLE_ONLY", false)) {
+            // Use only Bluetooth Low Energy to discover nearby devices. Recommended if you are only interested in messages attached to BLE beacons.
+            return Strategy.BLE_ONLY;
+        }
+
+        // Builder for Strategy.
+        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/Strategy.Builder
+        Strategy.Builder builder = new Strategy.Builder();
+
+        Integer discoveryMode = strategyObject.getInteger("discoveryMode");
+        if (discoveryMode != null) {
+            // Sets the desired discovery mode that determines how devices will detect each other.
+            builder.setDiscoveryMode(discoveryMode);
+        }
+
+        Integer distanceType = strategyObject.getInteger("distanceType");
+        if (distanceType != null) {
+            // Message will only be delivered to subscribing devices that are at most the specified distance from this device.
+            builder.setDistanceType(distanceType);
+        }
+
+        Integer ttlSeconds = strategyObject.getInteger("ttlSeconds");
+        if (ttlSeconds != null) {
+            // Sets the time to live in seconds for the publish or subscribe.
+            builder.setTtlSeconds(ttlSeconds);
+        }
+
+        // Builds an instance of Strategy.
+        return builder
+                .build();
+    }
+
+    /**
+     * Returns when a message published with the given strategy expires, in milliseconds since the epoch.
+     */
+    private static long getExpiresAtMillis(JSObject strategyObject, long nowMillis) {
+        int ttlSeconds = Strategy.TTL_SECONDS_DEFAULT;
+
+        if (strategyObject != null) {
+            if (strategyObject.getBoolean("BLE_ONLY", false)) {
+                // Only expires once unpublished.
+                ttlSeconds = Strategy.TTL_SECONDS_INFINITE;
+            } else if (!strategyObject.getBoolean("DEFAULT", false)) {
+                ttlSeconds = strategyObject.getInteger("ttlSeconds", Strategy.TTL_SECONDS_DEFAULT);
+            }
+        }
+
+        return ttlSeconds == Strategy.TTL_SECONDS_INFINITE ? Long.MAX_VALUE : nowMillis + ttlSeconds * 1000L;
+    }
+
+    /**
+     * Publishes the given message and registers it under the given UUID once it succeeded.
+     */
+    private void startPublish(final UUID messageUUID, Message[] messages, JSObject strategyObject, final NearbyTransport.Callback callback) {
+        final MessageOptions messageOptions = new MessageOptions(messageUUID, messages,
+                buildPublishOptions(messageUUID, parseStrategy(strategyObject)),
+                strategyObject != null ? strategyObject.toString() : null,
+                getExpiresAtMillis(strategyObject, System.currentTimeMillis()));
+
+        this.mSession.publish(messageOptions, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                persist(messageUUID, messageOptions);
+
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    private PublishOptions buildPublishOptions(final UUID messageUUID, Strategy strategy) {
+        // Builder for instances of PublishOptions.
+        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/PublishOptions.Builder
+        PublishOptions.Builder options = new PublishOptions.Builder()
+                // Sets a callback which will be notified when significant events occur that affect this publish.
+                .setCallback(
+                        // Callback for events which affect published messages.
+                        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/PublishCallback
+                        new PublishCallback() {
+                            /**
+                             * The published message is expired.
+                             *
+                             * Called if any of the following happened:
+                             *
+                             *  - The specified TTL for the call elapsed.
+                             *  - User stopped the Nearby actions for the app.
+                             *
+                             * Using this callback is recommended for cases when you need to update
+                             * state (e.g. UI elements) when published messages expire.
+                             */
+                            @Override
+                            public void onExpired() {
+                                super.onExpired();
+
+//                                Log.i(getLogTag(), "The published message is expired.");
+
+                                doUnpublish(messageUUID);
+
+                                JSObject data = new JSObject();
+                                data.put("uuid", messageUUID);
+
+                                dispatchEvent("onPublishExpired", data);
+                            }
+                        }
+                );
+
+        if (strategy != null) {
+            // Sets the strategy for publishing.
+            options.setStrategy(strategy);
+        }
+
+        return options.build();
+    }
+
+    private void persist(final UUID messageUUID, MessageOptions messageOptions) {
+        final PublicationStore store = this.mPublicationStore;
+        if (store == null) {
+            return;
+        }
+
+        byte[][] contents = new byte[messageOptions.messages.length][];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = messageOptions.messages[i].getContent();
+        }
+
+        final PublicationStore.Publication publication = new PublicationStore.Publication(messageUUID,
+                messageOptions.messages[0].getType(), contents, messageOptions.strategy, messageOptions.expiresAtMillis);
+
+        executeOnStore(() -> {
+            try {
+                store.put(publication);
+            } catch (IOException e) {
+                Log.w(getLogTag(), "Unable to persist publication.", e);
+            }
+        });
+    }
+
+    private void executeOnStore(Runnable task) {
+        try {
+            this.mStoreExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Destroyed in the meantime.
+        }
+    }
+
+    private void forget(final UUID messageUUID) {
+        final PublicationStore store = this.mPublicationStore;
+        if (store == null) {
+            return;
+        }
+
+        executeOnStore(() -> {
+            try {
+                store.remove(messageUUID);
+            } catch (IOException e) {
+                Log.w(getLogTag(), "Unable to forget publication.", e);
+            }
+        });
+    }
+
+    /**
+     * Opens the publication store, and publishes the messages persisted by a previous process again,
+     * under their UUIDs and for the rest of their TTL.
+     */
+    private void restorePublications() {
+        if (this.mPublicationStore != null) {
+            return;
+        }
+
+        final PublicationStore store = new PublicationStore(
+                new File(getContext().getNoBackupFilesDir(), Constants.PUBLICATION_STORE_FILE));
+
+        this.mPublicationStore = store;
+
+        // The store is read off the calling thread, before any write queued behind it.
+        executeOnStore(() -> {
+            final long startedAt = System.nanoTime();
+
+            List<PublicationStore.Publication> publications;
+            try {
+                publications = store.load();
+            } catch (IOException e) {
+                Log.w(getLogTag(), "Unable to restore publications.", e);
+                return;
+            } finally {
+                this.mStoreLoadLatency.record(System.nanoTime() - startedAt);
+            }
+
+            long now = System.currentTimeMillis();
+
+            for (PublicationStore.Publication publication : publications) {
+                try {
+                    restorePublication(publication, now);
+                } catch (Exception e) {
+                    Log.w(getLogTag(), "Unable to restore publication.", e);
+
+                    forget(publication.uuid);
+                }
+            }
+        });
+    }
+
+    private void restorePublication(final PublicationStore.Publication publication, long now) throws JSONException {
+        if (this.mMessagesClient == null || this.mSession.getPublication(publication.uuid) != null) {
+            return;
+        }
+
+        JSObject strategyObject = publication.strategy != null ? new JSObject(publication.strategy) : null;
+
+        if (publication.expiresAtMillis != Long.MAX_VALUE) {
+            long remainingMillis = publication.expiresAtMillis - now;
+            if (remainingMillis <= 0) {
+                // Expired while the process was gone.
+                forget(publication.uuid);
+                return;
+            }
+
+            if (strategyObject == null || strategyObject.getBoolean("DEFAULT", false)) {
+                // The default strategy, for the rest of its TTL.
+                strategyObject = new JSObject();
+            }
+            strategyObject.put("ttlSeconds", (int) Math.min((remainingMillis + 999) / 1000, Integer.MAX_VALUE));
+        }
+
+        Message[] messages = new Message[publication.contents.length];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new Message(publication.contents[i], publication.type);
+        }
+
+        final UUID messageUUID = publication.uuid;
+
+        // Keeps the strategy and expiry as persisted, rather than the remaining TTL.
+        final MessageOptions messageOptions = new MessageOptions(messageUUID, messages,
+                buildPublishOptions(messageUUID, parseStrategy(strategyObject)),
+                publication.strategy, publication.expiresAtMillis);
+
+        this.mSession.publish(messageOptions, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
+                mRestoredPublications.increment();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+//                Log.e(getLogTag(), "Publish Failure.");
+
+                forget(messageUUID);
+
+                JSObject data = new JSObject();
+                data.put("uuid", messageUUID);
+
+                dispatchEvent("onPublishExpired", data);
+            }
+        });
+    }
+
+    @PluginMethod()
+    // https://developers.google.com/nearby/messages/android/pub-sub#unpublish_a_message
+    public void unpublish(PluginCall call) {
+        if (this.mMessagesClient == null) {
+            call.reject(Constants.NOT_INITIALIZED);
+            return;
+        }
+
+        try {
+//            Log.i(getLogTag(), "Unpublishing.");
+
+            String uuid = call.getString("uuid", null);
+            if (uuid == null || uuid.length() == 0) {
+                // Unpublish all messages.
+                for (MessageOptions messageOptions : this.mSession.getPublications()) {
+                    doUnpublish(messageOptions.uuid);
+                }
+            } else {
+                // Unpublish message.
+                UUID messageUUID = UUID.fromString(uuid);
+
+                MessageOptions messageOptions = this.mSession.getPublication(messageUUID);
+                if (messageOptions == null) {
+                    call.reject(Constants.MESSAGE_UUID_NOT_FOUND);
+                    return;
                 }
 
                 doUnpublish(messageUUID);
@@ -675,22 +1437,15 @@ public class GoogleNearbyMessages extends Plugin {
     }
 
     private void doUnpublish(UUID messageUUID) {
-        MessageOptions messageOptions = this.mMessages.get(messageUUID);
-        if (messageOptions != null) {
-            doUnpublish(messageOptions.message);
-
-            this.mMessages.remove(messageUUID);
-        }
+        doUnpublish(messageUUID, true);
     }
 
-    private void doUnpublish(Message message) {
-        if (this.mMessagesClient != null) {
-            // Cancels an existing published message.
-            this.mMessagesClient
-                    .unpublish(
-                            // A Message that is currently published
-                            message
-                    );
+    /**
+     * Unpublishes the message with the given UUID, and also removes it from the publication store if forget is set.
+     */
+    private void doUnpublish(UUID messageUUID, boolean forget) {
+        if (this.mSession.unpublish(messageUUID) != null && forget) {
+            forget(messageUUID);
         }
     }
 
@@ -706,201 +1461,363 @@ public class GoogleNearbyMessages extends Plugin {
 //            Log.i(getLogTag(), "Subscribing.");
 
             Strategy strategy = null;
-            MessageFilter filter = null;
+            List<MessageFilter> filters = null;
+            SignalFilter<Message> signalFilter = null;
+            LostDebouncer<Message> lostDebouncer = null;
+            ContentFilter contentFilter = null;
+            AdaptiveController adaptiveController = null;
+            Strategy quietStrategy = null;
 
             JSObject optionsObject = call.getObject("options", null);
             if (optionsObject != null) {
-                JSObject strategyObject = optionsObject.getJSObject("strategy", null);
-
-                if (strategyObject != null) {
-                    if (strategyObject.getBoolean("DEFAULT", false)) {
-                        // The default strategy, which is suitable for most applications.
-                        strategy = Strategy.DEFAULT;
-                    } else if (strategyObject.getBoolean("BLE_ONLY", false)) {
-                        // Use only Bluetooth Low Energy to discover nearby devices. Recommended if you are only interested in messages attached to BLE beacons.
-                        strategy = Strategy.BLE_ONLY;
-                    } else {
-                        // Builder for Strategy.
-                        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/Strategy.Builder
-                        Strategy.Builder builder = new Strategy.Builder();
-
-                        Integer discoveryMode = strategyObject.getInteger("discoveryMode");
-                        if (discoveryMode != null) {
-                            // Sets the desired discovery mode that determines how devices will detect each other.
-                            builder.setDiscoveryMode(discoveryMode);
-                        }
+                if (optionsObject.getBoolean("background", false)) {
+                    subscribeInBackground(call, optionsObject);
+                    return;
+                }
 
-                        Integer distanceType = strategyObject.getInteger("distanceType");
-                        if (distanceType != null) {
-                            // Message will only be delivered to subscribing devices that are at most the specified distance from this device.
-                            builder.setDistanceType(distanceType);
-                        }
+                strategy = parseStrategy(optionsObject.getJSObject("strategy", null));
 
-                        Integer ttlSeconds = strategyObject.getInteger("ttlSeconds");
-                        if (ttlSeconds != null) {
-                            // Sets the time to live in seconds for the publish or subscribe.
-                            builder.setTtlSeconds(ttlSeconds);
-                        }
+                JSObject filterObject = optionsObject.getJSObject("filter", null);
+                if (filterObject != null) {
+                    // Split the filter into multiple subscriptions if it has more clauses than this.
+                    int maxFilterClauses = optionsObject.getInteger("maxFilterClauses", Constants.MAX_FILTER_CLAUSES);
+
+                    filters = parseFilters(filterObject, Math.max(maxFilterClauses, 1));
+                }
+
+                JSObject signalFilterObject = optionsObject.getJSObject("signalFilter", null);
+                if (signalFilterObject != null) {
+                    signalFilter = parseSignalFilter(signalFilterObject);
+                }
+
+                // Only report messages lost after they have not been seen for this many milliseconds.
+                Integer lostGraceMillis = optionsObject.getInteger("lostGraceMillis");
+                if (lostGraceMillis != null && lostGraceMillis > 0) {
+                    lostDebouncer = new LostDebouncer<>(getScheduler(), lostGraceMillis);
+                }
+
+                JSObject contentFilterObject = optionsObject.getJSObject("contentFilter", null);
+                if (contentFilterObject != null) {
+                    contentFilter = NearbyJson.parseContentFilter(contentFilterObject, BASE64);
+                }
 
-                        // Builds an instance of Strategy.
-                        strategy = builder
-                                .build();
+                JSObject adaptiveObject = optionsObject.getJSObject("adaptive", null);
+                if (adaptiveObject != null) {
+                    // The cheaper strategy while quiet, BLE only by default.
+                    quietStrategy = parseStrategy(adaptiveObject.getJSObject("quietStrategy", null));
+                    if (quietStrategy == null) {
+                        quietStrategy = Strategy.BLE_ONLY;
                     }
+
+                    adaptiveController = new AdaptiveController(
+                            adaptiveObject.getInteger("quietAfterMillis", (int) Constants.ADAPTIVE_QUIET_AFTER_MILLIS),
+                            adaptiveObject.getInteger("activeThreshold", Constants.ADAPTIVE_ACTIVE_THRESHOLD),
+                            adaptiveObject.getInteger("activeWindowMillis", (int) Constants.ADAPTIVE_ACTIVE_WINDOW_MILLIS),
+                            adaptiveObject.getInteger("minDwellMillis", (int) Constants.ADAPTIVE_MIN_DWELL_MILLIS),
+                            System.currentTimeMillis());
                 }
+            }
 
-                JSObject filterObject = optionsObject.getJSObject("filter", null);
+            // Create ID to identify this subscription.
+            final Subscription subscription = new Subscription(UUID.randomUUID().toString(), signalFilter, lostDebouncer, contentFilter);
+            subscription.mAdaptiveController = adaptiveController;
 
-                if (filterObject != null) {
-                    if (filterObject.getBoolean("INCLUDE_ALL_MY_TYPES", false)) {
-                        // A convenient filter that returns all types of messages published by this application's project.
-                        filter = MessageFilter.INCLUDE_ALL_MY_TYPES;
-                    } else {
-                        // Builder for MessageFilter.
-                        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/MessageFilter.Builder
-                        MessageFilter.Builder builder = new MessageFilter.Builder();
-
-                        if (filterObject.getBoolean("includeAllMyTypes", false)) {
-                            // Filters for all messages published by this application (and any other applications in the same Google Developers Console project), regardless of type.
-                            builder.includeAllMyTypes();
-                        }
+            if (filters == null) {
+                filters = Collections.singletonList(null);
+            }
+            for (MessageFilter filter : filters) {
+                subscription.shards.add(new Shard(subscription, buildSubscribeOptions(subscription, strategy, filter),
+                        adaptiveController != null ? buildSubscribeOptions(subscription, quietStrategy, filter) : null));
+            }
 
-                        JSObject includeAudioBytes = filterObject.getJSObject("includeAudioBytes", null);
-                        if (includeAudioBytes != null) {
-                            int numAudioBytes = includeAudioBytes.getInteger("numAudioBytes");
+            subscription.mEngine.setShardCount(subscription.shards.size());
+            subscription.mEngine.setEventBatcher(createEventBatcher(subscription));
 
-                            // Includes raw audio byte messages.
-                            builder.includeAudioBytes(
-                                    // Number of bytes for the audio bytes message (capped by MAX_SIZE).
-                                    numAudioBytes
-                            );
-                        }
+            if (adaptiveController != null) {
+                startAdaptive(subscription);
+            }
 
-                        JSObject includeEddystoneUids = filterObject.getJSObject("includeEddystoneUids", null);
-                        if (includeEddystoneUids != null) {
-                            String hexNamespace = includeEddystoneUids.getString("hexNamespace");
-                            String hexInstance = includeEddystoneUids.getString("hexInstance");
-
-                            // Includes Eddystone UIDs.
-                            builder.includeEddystoneUids(
-                                    // The 10-byte Eddystone UID namespace in hex format. For example, "a032ffed0532bca3846d".
-                                    hexNamespace,
-                                    // An optional 6-byte Eddystone UID instance in hex format. For example, "00aabbcc2233".
-                                    hexInstance
-                            );
-                        }
+            this.mSession.subscribe(subscription, new NearbyTransport.Callback() {
+                @Override
+                public void onSuccess() {
+//                    Log.i(getLogTag(), "Subscribe Success.");
 
-                        JSObject includeIBeaconIds = filterObject.getJSObject("includeIBeaconIds", null);
-                        if (includeIBeaconIds != null) {
-                            String proximityUuid = includeIBeaconIds.getString("proximityUuid");
-                            Integer major = includeIBeaconIds.getInteger("major");
-                            Integer minor = includeIBeaconIds.getInteger("minor");
-
-                            // Includes iBeacon IDs.
-                            builder.includeIBeaconIds(
-                                    // The proximity UUID.
-                                    UUID.fromString(proximityUuid),
-                                    // An optional major value.
-                                    major.shortValue(),
-                                    // An optional minor value.
-                                    minor.shortValue()
-                            );
-                        }
+                    recordFirstSubscribe();
 
-                        JSObject includeNamespacedType = filterObject.getJSObject("includeNamespacedType", null);
-                        if (includeNamespacedType != null) {
-                            String namespace = includeNamespacedType.getString("namespace");
-                            String type = includeNamespacedType.getString("type");
-
-                            // Filters for all messages in the given namespace with the given type.
-                            builder.includeNamespacedType(
-                                    // The namespace that the message belongs to. It must be non-empty and cannot contain the following invalid character: star(*).
-                                    namespace,
-                                    // The type of the message to include. It must non-null and cannot contain the following invalid character: star(*).
-                                    type
-                            );
-                        }
+                    JSObject data = new JSObject();
+                    data.put("id", subscription.id);
 
-                        // Builds an instance of MessageFilter.
-                        filter = builder
-                                .build();
-                    }
+                    call.success(data);
                 }
+
+                @Override
+                public void onFailure(int statusCode) {
+//                    Log.e(getLogTag(), "Subscribe Failure.");
+
+                    mSession.expire(subscription);
+
+                    call.error(MessagesClientTransport.getStatusMessage(statusCode));
+                }
+            });
+        } catch (Exception e) {
+            call.error(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Subscribes with a PendingIntent, so that messages are received even if the app is not running.
+     * <p>
+     * The received messages are queued on disk by the BackgroundMessageReceiver until they are
+     * drained by drainBackgroundEvents(); signal filters, content filters and lost grace periods
+     * do not apply. Subscribing again replaces the background subscription.
+     */
+    // https://developers.google.com/nearby/messages/android/background-subscribe
+    private void subscribeInBackground(final PluginCall call, JSObject optionsObject) throws JSONException {
+        Strategy strategy = parseStrategy(optionsObject.getJSObject("strategy", null));
+
+        SubscribeOptions.Builder options = new SubscribeOptions.Builder()
+                // Background subscriptions only support BLE.
+                .setStrategy(strategy != null ? strategy : Strategy.BLE_ONLY);
+
+        JSObject filterObject = optionsObject.getJSObject("filter", null);
+        if (filterObject != null) {
+            // A PendingIntent has a single subscription, so the filter is not split.
+            options.setFilter(parseFilters(filterObject, Integer.MAX_VALUE).get(0));
+        }
+
+        final SubscribeOptions subscribeOptions = options.build();
+        final PendingIntent pendingIntent = getBackgroundPendingIntent();
+        final long startedAt = System.nanoTime();
+
+        this.mSession.withRetry(
+                (NearbyTransport.Callback callback) -> this.mTransport.subscribe(pendingIntent, subscribeOptions, callback),
+                new NearbyTransport.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        mSubscribeLatency.record(System.nanoTime() - startedAt);
+
+                        recordFirstSubscribe();
+
+                        JSObject data = new JSObject();
+                        data.put("id", Constants.BACKGROUND_SUBSCRIPTION_ID);
+
+                        call.success(data);
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode) {
+                        mSubscribeLatency.record(System.nanoTime() - startedAt);
+
+                        call.error(MessagesClientTransport.getStatusMessage(statusCode));
+                    }
+                });
+    }
+
+    private PendingIntent getBackgroundPendingIntent() {
+        // The same PendingIntent is returned on every call, so it identifies the background subscription.
+        return PendingIntent.getBroadcast(
+                getContext(),
+                0,
+                new Intent(getContext(), BackgroundMessageReceiver.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private void doUnsubscribeInBackground() {
+        // Cancels the background subscription, if any.
+        this.mTransport.unsubscribe(getBackgroundPendingIntent(), new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
             }
 
-            // Builder for instances of SubscribeOptions.
-            // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/SubscribeOptions.Builder
-            SubscribeOptions.Builder options = new SubscribeOptions.Builder()
-                    // Sets a callback which will be notified when significant events occur that affect this subscription.
-                    .setCallback(
-                            // Callback for events which affect subscriptions.
-                            // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/SubscribeCallback
-                            new SubscribeCallback() {
-                                /**
-                                 * The subscription is expired.
-                                 *
-                                 * Called if any of the following happened:
-                                 *
-                                 * - The specified TTL for the call elapsed.
-                                 * - User stopped the Nearby actions for the app.
-                                 *
-                                 * Using this callback is recommended for cases when you need to update
-                                 * state (e.g. UI elements) when subscriptions expire.
-                                 */
-                                @Override
-                                public void onExpired() {
-                                    super.onExpired();
-
-//                                    Log.i(getLogTag(), "The subscription is expired.");
-
-                                    doUnsubscribe(true);
-
-                                    notifyListeners("onSubscribeExpired", null);
-                                }
-                            }
-                    );
+            @Override
+            public void onFailure(int statusCode) {
+            }
+        });
+    }
 
-            if (strategy != null) {
-                // Sets a strategy for subscribing.
-                options.setStrategy(strategy);
+    private void startAdaptive(final Subscription subscription) {
+        subscription.mAdaptiveTick = getScheduler().scheduleWithFixedDelay(() -> {
+            if (subscription.mAdaptiveController.evaluate(System.currentTimeMillis())) {
+                switchStrategy(subscription, true);
             }
+        }, Constants.ADAPTIVE_EVALUATE_INTERVAL_MILLIS, Constants.ADAPTIVE_EVALUATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Subscribes the shards of an adaptive subscription again, with the strategy of the mode it just switched to.
+     */
+    private void switchStrategy(final Subscription subscription, boolean quiet) {
+        if (quiet) {
+            this.mAdaptiveQuiet.increment();
+        } else {
+            this.mAdaptiveActive.increment();
+        }
 
-            if (filter != null) {
-                // Sets a filter to specify which messages to receive.
-                options.setFilter(filter);
+        this.mTrace.record(TraceBuffer.LEVEL_INFO, quiet ? "adaptiveQuiet" : "adaptiveActive", subscription.id, null, 0, 0, 0);
+
+        // Subscribing with the same listener replaces its options, without missing any message in between.
+        // A paused subscription is resubscribed with the strategy of its current mode on resume.
+        this.mSession.refresh(subscription, new NearbyTransport.Callback() {
+            @Override
+            public void onSuccess() {
             }
 
-            this.mSubscribeOptions = options.build();
+            @Override
+            public void onFailure(int statusCode) {
+                Log.w(getLogTag(), "Unable to switch strategy: " + MessagesClientTransport.getStatusMessage(statusCode));
+            }
+        });
+    }
 
-            doSubscribe(this.mSubscribeOptions)
-                    .addOnSuccessListener(
-                            (Void) -> {
-//                                Log.i(getLogTag(), "Subscribe Success.");
+    private SubscribeOptions buildSubscribeOptions(final Subscription subscription, Strategy strategy, MessageFilter filter) {
+        // Builder for instances of SubscribeOptions.
+        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/SubscribeOptions.Builder
+        SubscribeOptions.Builder options = new SubscribeOptions.Builder()
+                // Sets a callback which will be notified when significant events occur that affect this subscription.
+                .setCallback(
+                        // Callback for events which affect subscriptions.
+                        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/SubscribeCallback
+                        new SubscribeCallback() {
+                            /**
+                             * The subscription is expired.
+                             *
+                             * Called if any of the following happened:
+                             *
+                             * - The specified TTL for the call elapsed.
+                             * - User stopped the Nearby actions for the app.
+                             *
+                             * Using this callback is recommended for cases when you need to update
+                             * state (e.g. UI elements) when subscriptions expire.
+                             */
+                            @Override
+                            public void onExpired() {
+                                super.onExpired();
+
+//                                Log.i(getLogTag(), "The subscription is expired.");
+
+                                // Reported once, even if the subscription has been split.
+                                if (mSession.expire(subscription)) {
+                                    JSObject data = new JSObject();
+                                    data.put("subscriptionId", subscription.id);
 
-                                call.success();
-                            })
-                    .addOnFailureListener(
-                            (Exception e) -> {
-//                                Log.e(getLogTag(), "Subscribe Failure.", e);
+                                    dispatchEvent("onSubscribeExpired", data);
+                                }
+                            }
+                        }
+                );
 
-                                doUnsubscribe(true);
+        if (strategy != null) {
+            // Sets a strategy for subscribing.
+            options.setStrategy(strategy);
+        }
 
-                                call.error(e.getLocalizedMessage(), e);
-                            });
-        } catch (Exception e) {
-            call.error(e.getLocalizedMessage(), e);
+        if (filter != null) {
+            // Sets a filter to specify which messages to receive.
+            options.setFilter(filter);
         }
+
+        return options.build();
     }
 
-    private Task<Void> doSubscribe(SubscribeOptions options) {
-        return
-                // Subscribes for published messages from nearby devices.
-                this.mMessagesClient
-                        .subscribe(
-                                // A MessageListener implementation to get callbacks of received messages
-                                this.mMessageListener,
-                                // A SubscribeOptions object for this operation
-                                options
-                        );
+    /**
+     * Returns the filters of a subscription, with duplicate clauses removed and split into
+     * as few filters of at most maxClauses clauses as possible.
+     */
+    private List<MessageFilter> parseFilters(JSObject filterObject, int maxClauses) throws JSONException {
+        List<MessageFilter> filters = new ArrayList<>();
+
+        if (filterObject.getBoolean("INCLUDE_ALL_MY_TYPES", false)) {
+            // A convenient filter that returns all types of messages published by this application's project.
+            filters.add(MessageFilter.INCLUDE_ALL_MY_TYPES);
+            return filters;
+        }
+
+        // The clauses by a normalized key, so that duplicates are only included once.
+        Map<String, FilterClause> clauses = new LinkedHashMap<>();
+
+        if (filterObject.getBoolean("includeAllMyTypes", false)) {
+            // Filters for all messages published by this application (and any other applications in the same Google Developers Console project), regardless of type.
+            clauses.put("allMyTypes", (MessageFilter.Builder builder) -> builder.includeAllMyTypes());
+        }
+
+        for (JSONObject includeAudioBytes : NearbyJson.parseFilterClauses(filterObject, "includeAudioBytes")) {
+            final int numAudioBytes = includeAudioBytes.getInt("numAudioBytes");
+
+            // Includes raw audio byte messages.
+            clauses.put("audioBytes:" + numAudioBytes, (MessageFilter.Builder builder) -> builder.includeAudioBytes(
+                    // Number of bytes for the audio bytes message (capped by MAX_SIZE).
+                    numAudioBytes
+            ));
+        }
+
+        for (JSONObject includeEddystoneUids : NearbyJson.parseFilterClauses(filterObject, "includeEddystoneUids")) {
+            final String hexNamespace = includeEddystoneUids.getString("hexNamespace").toLowerCase(Locale.US);
+            final String hexInstance = !includeEddystoneUids.isNull("hexInstance")
+                    ? includeEddystoneUids.getString("hexInstance").toLowerCase(Locale.US) : null;
+
+            // Includes Eddystone UIDs.
+            clauses.put("eddystone:" + hexNamespace + ":" + hexInstance, (MessageFilter.Builder builder) -> builder.includeEddystoneUids(
+                    // The 10-byte Eddystone UID namespace in hex format. For example, "a032ffed0532bca3846d".
+                    hexNamespace,
+                    // An optional 6-byte Eddystone UID instance in hex format. For example, "00aabbcc2233".
+                    hexInstance
+            ));
+        }
+
+        for (JSONObject includeIBeaconIds : NearbyJson.parseFilterClauses(filterObject, "includeIBeaconIds")) {
+            final UUID proximityUuid = UUID.fromString(includeIBeaconIds.getString("proximityUuid"));
+            final Short major = !includeIBeaconIds.isNull("major")
+                    ? (short) includeIBeaconIds.getInt("major") : null;
+            final Short minor = !includeIBeaconIds.isNull("minor")
+                    ? (short) includeIBeaconIds.getInt("minor") : null;
+
+            // Includes iBeacon IDs.
+            clauses.put("iBeacon:" + proximityUuid + ":" + major + ":" + minor, (MessageFilter.Builder builder) -> builder.includeIBeaconIds(
+                    // The proximity UUID.
+                    proximityUuid,
+                    // An optional major value.
+                    major,
+                    // An optional minor value.
+                    minor
+            ));
+        }
+
+        for (JSONObject includeNamespacedType : NearbyJson.parseFilterClauses(filterObject, "includeNamespacedType")) {
+            final String namespace = includeNamespacedType.getString("namespace");
+            final String type = includeNamespacedType.getString("type");
+
+            // Filters for all messages in the given namespace with the given type.
+            clauses.put("namespacedType:" + namespace + "*" + type, (MessageFilter.Builder builder) -> builder.includeNamespacedType(
+                    // The namespace that the message belongs to. It must be non-empty and cannot contain the following invalid character: star(*).
+                    namespace,
+                    // The type of the message to include. It must non-null and cannot contain the following invalid character: star(*).
+                    type
+            ));
+        }
+
+        // Builder for MessageFilter.
+        // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/MessageFilter.Builder
+        MessageFilter.Builder builder = new MessageFilter.Builder();
+        int count = 0;
+
+        for (FilterClause clause : clauses.values()) {
+            clause.apply(builder);
+
+            if (++count == maxClauses) {
+                // Builds an instance of MessageFilter.
+                filters.add(builder.build());
+
+                builder = new MessageFilter.Builder();
+                count = 0;
+            }
+        }
+
+        if (count > 0 || filters.isEmpty()) {
+            // Builds an instance of MessageFilter.
+            filters.add(builder.build());
+        }
+
+        return filters;
     }
 
     @PluginMethod()
@@ -914,9 +1831,26 @@ public class GoogleNearbyMessages extends Plugin {
         try {
 //            Log.i(getLogTag(), "Unsubscribing.");
 
-            doUnsubscribe(false);
+            String id = call.getString("id", null);
+            if (id == null || id.length() == 0) {
+                // Unsubscribe all subscriptions.
+                for (Subscription subscription : this.mSession.getSubscriptions()) {
+                    this.mSession.unsubscribe(subscription);
+                }
 
-            this.mSubscribeOptions = null;
+                doUnsubscribeInBackground();
+            } else if (Constants.BACKGROUND_SUBSCRIPTION_ID.equals(id)) {
+                doUnsubscribeInBackground();
+            } else {
+                // Unsubscribe subscription.
+                Subscription subscription = this.mSession.getSubscription(id);
+                if (subscription == null) {
+                    call.reject(Constants.SUBSCRIPTION_ID_NOT_FOUND);
+                    return;
+                }
+
+                this.mSession.unsubscribe(subscription);
+            }
 
             call.success();
         } catch (Exception e) {
@@ -924,21 +1858,6 @@ public class GoogleNearbyMessages extends Plugin {
         }
     }
 
-    private void doUnsubscribe(boolean hasExpired) {
-        if (hasExpired) {
-            this.mSubscribeOptions = null;
-        } else {
-            if (this.mMessagesClient != null) {
-                // Cancels an existing subscription.
-                this.mMessagesClient
-                        .unsubscribe(
-                                // A MessageListener implementation that is currently subscribed
-                                this.mMessageListener
-                        );
-            }
-        }
-    }
-
     @PluginMethod()
     public void pause(PluginCall call) {
         if (this.mMessagesClient == null) {
@@ -949,11 +1868,10 @@ public class GoogleNearbyMessages extends Plugin {
         try {
 //            Log.i(getLogTag(), "Pausing.");
 
-            for (MessageOptions messageOptions : this.mMessages.values()) {
-                doUnpublish(messageOptions.message);
-            }
+            // Keep publishing and subscribing for this many milliseconds, so that a resume in the meantime is a no-op.
+            int lingerMillis = call.getInt("lingerMillis", 0);
 
-            doUnsubscribe(false);
+            this.mSession.pause(lingerMillis);
 
             call.success();
         } catch (Exception e) {
@@ -971,80 +1889,697 @@ public class GoogleNearbyMessages extends Plugin {
         try {
 //            Log.i(getLogTag(), "Resuming.");
 
-            for (UUID messageUUID : this.mMessages.keySet()) {
-                MessageOptions messageOptions = this.mMessages.get(messageUUID);
-                if (messageOptions == null) {
-                    call.reject(Constants.MESSAGE_UUID_NOT_FOUND);
-                    return;
-                }
+            // Within the linger window of a soft pause, nothing has been torn down yet.
+            this.mSession.cancelTeardown();
 
-                doPublish(messageOptions.message, messageOptions.options)
-                        .addOnSuccessListener(
-                                (Void) -> {
-//                                    Log.i(getLogTag(), "Publish Success.");
-                                })
-                        .addOnFailureListener(
-                                (Exception e) -> {
-//                                    Log.e(getLogTag(), "Publish Failure.", e);
+            // Snapshot what is to be resumed, so that the number of outcomes is known upfront.
+            final List<MessageOptions> publications = new ArrayList<>(this.mSession.getPublications());
+            final List<Subscription> subscriptions = new ArrayList<>(this.mSession.getSubscriptions());
 
-                                    doUnpublish(messageUUID);
+            final JSObject[] messageResults = new JSObject[publications.size()];
+            final JSObject[] subscriptionResults = new JSObject[subscriptions.size()];
+            final AtomicInteger remaining = new AtomicInteger(messageResults.length + subscriptionResults.length);
 
-                                    JSObject data = new JSObject();
-                                    data.put("uuid", messageUUID);
+            final Clock clock = this.mSession.getClock();
+            final long startedAt = clock.nanoTime();
 
-                                    notifyListeners("onPublishExpired", data);
+            // Resolves the call once every publish and subscribe has either succeeded or failed.
+            final Runnable complete = () -> {
+                if (remaining.decrementAndGet() == 0) {
+                    call.success(toResumeReport(messageResults, subscriptionResults, startedAt));
+                }
+            };
 
-                                    call.error(e.getLocalizedMessage(), e);
-                                });
+            if (remaining.get() == 0) {
+                call.success(toResumeReport(messageResults, subscriptionResults, startedAt));
+                return;
             }
 
-            if (this.mSubscribeOptions != null) {
-                doSubscribe(this.mSubscribeOptions)
-                        .addOnSuccessListener(
-                                (Void) -> {
-//                                    Log.i(getLogTag(), "Subscribe Success.");
-                                })
-                        .addOnFailureListener(
-                                (Exception e) -> {
-//                                    Log.e(getLogTag(), "Subscribe Failure.", e);
+            // All publishes and subscribes are issued at once, and complete in parallel.
+            for (int i = 0; i < messageResults.length; i++) {
+                final int index = i;
+                final MessageOptions messageOptions = publications.get(i);
+                final UUID messageUUID = messageOptions.uuid;
+
+                messageResults[index] = new JSObject();
+                messageResults[index].put("uuid", messageUUID);
+
+                if (this.mSession.getPublication(messageUUID) != messageOptions) {
+                    // Unpublished in the meantime.
+                    messageResults[index].put("resumed", false);
+                    messageResults[index].put("error", Constants.MESSAGE_UUID_NOT_FOUND);
+
+                    complete.run();
+                    continue;
+                }
+
+                if (messageOptions.active) {
+                    // Still published, e.g. resumed within the linger window.
+                    messageResults[index].put("resumed", true);
+                    messageResults[index].put("unchanged", true);
+
+                    complete.run();
+                    continue;
+                }
+
+                final long publishedAt = clock.nanoTime();
+
+                this.mSession.resume(messageOptions, new NearbyTransport.Callback() {
+                    @Override
+                    public void onSuccess() {
+//                        Log.i(getLogTag(), "Publish Success.");
+
+                        messageResults[index].put("resumed", true);
+                        messageResults[index].put("millis", (clock.nanoTime() - publishedAt) / 1e6);
+
+                        complete.run();
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode) {
+//                        Log.e(getLogTag(), "Publish Failure.");
+
+                        // Unless unpublished or paused again in the meantime.
+                        if (statusCode != NearbyTransport.CANCELED) {
+                            doUnpublish(messageUUID);
 
-                                    doUnsubscribe(true);
+                            JSObject data = new JSObject();
+                            data.put("uuid", messageUUID);
 
-                                    notifyListeners("onSubscribeExpired", null);
+                            dispatchEvent("onPublishExpired", data);
+                        }
 
-                                    call.error(e.getLocalizedMessage(), e);
-                                });
+                        messageResults[index].put("resumed", false);
+                        messageResults[index].put("millis", (clock.nanoTime() - publishedAt) / 1e6);
+                        messageResults[index].put("error", MessagesClientTransport.getStatusMessage(statusCode));
+
+                        complete.run();
+                    }
+                });
             }
 
-            call.success();
+            for (int i = 0; i < subscriptionResults.length; i++) {
+                final int index = i;
+                final Subscription subscription = subscriptions.get(i);
+
+                subscriptionResults[index] = new JSObject();
+                subscriptionResults[index].put("id", subscription.id);
+
+                if (subscription.active) {
+                    // Still subscribed, e.g. resumed within the linger window.
+                    subscriptionResults[index].put("resumed", true);
+                    subscriptionResults[index].put("unchanged", true);
+
+                    complete.run();
+                    continue;
+                }
+
+                final long subscribedAt = clock.nanoTime();
+
+                this.mSession.resume(subscription, new NearbyTransport.Callback() {
+                    @Override
+                    public void onSuccess() {
+//                        Log.i(getLogTag(), "Subscribe Success.");
+
+                        subscriptionResults[index].put("resumed", true);
+                        subscriptionResults[index].put("millis", (clock.nanoTime() - subscribedAt) / 1e6);
+
+                        complete.run();
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode) {
+//                        Log.e(getLogTag(), "Subscribe Failure.");
+
+                        // Unless unsubscribed or paused again in the meantime.
+                        if (statusCode != NearbyTransport.CANCELED && mSession.expire(subscription)) {
+                            JSObject data = new JSObject();
+                            data.put("subscriptionId", subscription.id);
+
+                            dispatchEvent("onSubscribeExpired", data);
+                        }
+
+                        subscriptionResults[index].put("resumed", false);
+                        subscriptionResults[index].put("millis", (clock.nanoTime() - subscribedAt) / 1e6);
+                        subscriptionResults[index].put("error", MessagesClientTransport.getStatusMessage(statusCode));
+
+                        complete.run();
+                    }
+                });
+            }
         } catch (Exception e) {
             call.error(e.getLocalizedMessage(), e);
         }
     }
 
+    private JSObject toResumeReport(JSObject[] messageResults, JSObject[] subscriptionResults, long startedAt) {
+        JSArray messagesArray = new JSArray();
+        for (JSObject result : messageResults) {
+            messagesArray.put(result);
+        }
+
+        JSArray subscriptionsArray = new JSArray();
+        for (JSObject result : subscriptionResults) {
+            subscriptionsArray.put(result);
+        }
+
+        JSObject data = new JSObject();
+        data.put("messages", messagesArray);
+        data.put("subscriptions", subscriptionsArray);
+        // The time until the last publish or subscribe completed, in milliseconds.
+        data.put("millis", (this.mSession.getClock().nanoTime() - startedAt) / 1e6);
+        return data;
+    }
+
     @PluginMethod()
     public void status(PluginCall call) {
         try {
 //            Log.i(getLogTag(), "Status.");
 
-            boolean isPublishing = (this.mMessages.size() > 0);
-            boolean isSubscribing = (this.mSubscribeOptions != null);
-
-            Set<UUID> uuids = this.mMessages.keySet();
+            boolean isPublishing = !this.mSession.getPublications().isEmpty();
+            boolean isSubscribing = !this.mSession.getSubscriptions().isEmpty();
 
-            Log.i(getLogTag(),
-                    String.format(
-                            "status(isPublishing=%s, isSubscribing=%s, uuids=%s)",
-                            isPublishing, isSubscribing, uuids));
+            List<UUID> uuids = new ArrayList<>();
+            for (MessageOptions messageOptions : this.mSession.getPublications()) {
+                uuids.add(messageOptions.uuid);
+            }
 
             JSObject data = new JSObject();
             data.put("isPublishing", isPublishing);
             data.put("isSubscribing", isSubscribing);
             data.put("uuids", new JSArray(uuids));
+            // The number of signal and distance updates dropped due to backpressure.
+            data.put("droppedEvents", this.mEventDispatcher.getDroppedCount());
+            // The number of signal and distance updates replaced by a newer one of the same message before delivery.
+            data.put("supersededEvents", this.mEventDispatcher.getSupersededCount());
+            // The number of events which failed with an exception while being delivered.
+            data.put("failedEvents", this.mEventDispatcher.getErrorCount());
+            // The time found, lost, expired and permission events spent waiting to be delivered.
+            data.put("presenceLatency", toLatencyObject(this.mEventDispatcher.getLifecycleLatency()));
+
+            long absorbedFlaps = 0;
+
+            JSArray subscriptions = new JSArray();
+            for (Subscription subscription : this.mSession.getSubscriptions()) {
+                JSObject subscriptionObject = new JSObject();
+                subscriptionObject.put("id", subscription.id);
+                // The number of underlying subscriptions, more than one if the filter has been split.
+                subscriptionObject.put("shards", subscription.shards.size());
+                // The number of messages which are currently visible to this subscription.
+                subscriptionObject.put("nearby", subscription.mEngine.mNearbyRegistry.size());
+                subscriptionObject.put("absorbedFlaps", subscription.mEngine.mAbsorbedFlaps.get());
+                // The number of messages rejected by the content filter.
+                subscriptionObject.put("rejectedMessages", subscription.mEngine.mRejectedMessages.get());
+                if (subscription.mAdaptiveController != null) {
+                    // Whether the subscription currently uses its quiet strategy.
+                    subscriptionObject.put("quiet", subscription.mAdaptiveController.getMode() == AdaptiveController.QUIET);
+                }
+
+                subscriptions.put(subscriptionObject);
+
+                absorbedFlaps += subscription.mEngine.mAbsorbedFlaps.get();
+            }
+
+            data.put("subscriptions", subscriptions);
+            // The number of lost messages absorbed because they were found again within the grace period.
+            data.put("absorbedFlaps", absorbedFlaps);
+            // The number of publish and subscribe retries, and of those which failed after running out of attempts.
+            data.put("retries", this.mRetries.get());
+            data.put("retryGiveUps", this.mRetryGiveUps.get());
+
+            call.success(data);
+        } catch (Exception e) {
+            call.error(e.getLocalizedMessage(), e);
+        }
+    }
+
+    @PluginMethod()
+    public void getMetrics(PluginCall call) {
+        try {
+            // Reset the counters and histograms once they have been read.
+            boolean reset = call.getBoolean("reset", false);
+
+            JSObject counters = new JSObject();
+            for (Map.Entry<String, MetricsRegistry.Counter> entry : this.mMetrics.getCounters().entrySet()) {
+                counters.put(entry.getKey(), reset ? entry.getValue().getAndReset() : entry.getValue().get());
+            }
+
+            JSObject histograms = new JSObject();
+            for (Map.Entry<String, LatencyHistogram> entry : this.mMetrics.getHistograms().entrySet()) {
+                histograms.put(entry.getKey(), toLatencyObject(entry.getValue()));
+                if (reset) {
+                    entry.getValue().reset();
+                }
+            }
+
+            int activePublications = 0;
+            for (MessageOptions messageOptions : this.mSession.getPublications()) {
+                if (messageOptions.active) {
+                    activePublications++;
+                }
+            }
+
+            int activeSubscriptions = 0;
+            int nearbyMessages = 0;
+            for (Subscription subscription : this.mSession.getSubscriptions()) {
+                if (subscription.active) {
+                    activeSubscriptions++;
+                }
+                nearbyMessages += subscription.mEngine.mNearbyRegistry.size();
+            }
+
+            JSObject gauges = new JSObject();
+            gauges.put("activePublications", activePublications);
+            gauges.put("activeSubscriptions", activeSubscriptions);
+            gauges.put("nearbyMessages", nearbyMessages);
+            // The number of events waiting to be delivered.
+            gauges.put("pendingEvents", this.mEventDispatcher.size());
+
+            JSObject data = new JSObject();
+            data.put("counters", counters);
+            data.put("histograms", histograms);
+            data.put("gauges", gauges);
+
+            call.success(data);
+        } catch (Exception e) {
+            call.error(e.getLocalizedMessage(), e);
+        }
+    }
+
+    @PluginMethod()
+    public void drainBackgroundEvents(PluginCall call) {
+        try {
+            // The maximum number of events to return, the rest is left for the next call (0 = all).
+            int max = call.getInt("max", 0);
+
+            DurableEventQueue.Drained drained = BackgroundMessageReceiver.getQueue(getContext()).drain(max);
+
+            JSArray events = new JSArray();
+            for (DurableEventQueue.Record record : drained.records) {
+                events.put(toBackgroundEventObject(record));
+            }
+
+            JSObject data = new JSObject();
+            data.put("events", events);
+            // The number of events which have been dropped because the queue was full.
+            data.put("dropped", drained.dropped);
+            // The number of events left in the queue.
+            data.put("remaining", drained.remaining);
+
+            call.success(data);
+        } catch (Exception e) {
+            call.error(e.getLocalizedMessage(), e);
+        }
+    }
+
+    private JSObject toBackgroundEventObject(DurableEventQueue.Record record) {
+        JSObject eventObject = new JSObject();
+
+        switch (record.event) {
+            case DurableEventQueue.FOUND:
+                eventObject.put("event", "onFound");
+                break;
+            case DurableEventQueue.LOST:
+                eventObject.put("event", "onLost");
+                break;
+            case DurableEventQueue.BLE_SIGNAL:
+                eventObject.put("event", "onBleSignalChanged");
+                eventObject.put("bleSignal", toBleSignalObject(record.rssi, record.txPower));
+                break;
+            case DurableEventQueue.DISTANCE:
+                eventObject.put("event", "onDistanceChanged");
+                eventObject.put("distance", toDistanceObject(record.accuracy, record.meters));
+                break;
+        }
+
+        // When the event has been received, in milliseconds since the epoch.
+        eventObject.put("timestamp", record.timeMillis);
+        eventObject.put("message", toMessageObject(record.type, inflate(record.content), record.namespace));
+        return eventObject;
+    }
+
+    @PluginMethod()
+    public void dumpTrace(PluginCall call) {
+        try {
+            // Clear the trace records once they have been read.
+            boolean clear = call.getBoolean("clear", false);
+
+            long overwritten = this.mTrace.getOverwrittenCount();
+
+            JSArray records = new JSArray();
+            for (TraceBuffer.Record record : this.mTrace.snapshot(clear)) {
+                records.put(toTraceObject(record));
+            }
+
+            JSObject data = new JSObject();
+            data.put("logLevel", TraceBuffer.levelName(this.mTrace.getLevel()));
+            // The number of records which have been overwritten by newer ones.
+            data.put("overwritten", overwritten);
+            data.put("records", records);
+
+            call.success(data);
+        } catch (Exception e) {
+            call.error(e.getLocalizedMessage(), e);
+        }
+    }
+
+    private JSObject toTraceObject(TraceBuffer.Record record) {
+        JSObject traceObject = new JSObject();
+        // The monotonic time of the record, in milliseconds.
+        traceObject.put("time", record.timeNanos / 1e6);
+        traceObject.put("event", record.event);
+
+        if (record.subject != null) {
+            traceObject.put("subscriptionId", record.subject);
+        }
+        if (record.detail != null) {
+            traceObject.put("type", record.detail);
+        }
+
+        switch (record.event) {
+            case "onFound":
+            case "onLost":
+                // The size of the received content, in bytes.
+                traceObject.put("size", record.a);
+                break;
+            case "onBleSignalChanged":
+                traceObject.put("rssi", record.a);
+                traceObject.put("txPower", record.b);
+                break;
+            case "onDistanceChanged":
+                traceObject.put("accuracy", record.a);
+                traceObject.put("meters", record.value);
+                break;
+            case "onPermissionChanged":
+                traceObject.put("permissionGranted", record.a != 0);
+                break;
+        }
+
+        return traceObject;
+    }
+
+    @PluginMethod()
+    public void getNearby(PluginCall call) {
+        try {
+            // Only include messages of the given type and/or namespace.
+            String type = call.getString("type", null);
+            String namespace = call.getString("namespace", null);
+            // Only include messages estimated to be at most this many meters away.
+            Double maxMeters = call.getDouble("maxMeters", null);
+            // Either "lastSeen" (default), "firstSeen", "distance" or "rssi".
+            NearbyRegistry.SortBy sortBy = NearbyRegistry.SortBy.fromString(call.getString("sortBy", null));
+            // The maximum number of messages to return (0 = all).
+            int limit = call.getInt("limit", 0);
+
+            // Only include messages of the given subscription.
+            String subscriptionId = call.getString("subscriptionId", null);
+
+            List<NearbyRegistry.Entry<Message>> entries = new ArrayList<>();
+            Map<NearbyRegistry.Entry<Message>, Subscription> subscriptions = new IdentityHashMap<>();
+
+            for (Subscription subscription : this.mSession.getSubscriptions()) {
+                if (subscriptionId != null && !subscriptionId.equals(subscription.id)) {
+                    continue;
+                }
+
+                for (NearbyRegistry.Entry<Message> entry : subscription.mEngine.mNearbyRegistry.query(type, namespace, maxMeters, sortBy, limit)) {
+                    entries.add(entry);
+                    subscriptions.put(entry, subscription);
+                }
+            }
+
+            // Merge the entries of all subscriptions.
+            Collections.sort(entries, NearbyRegistry.<Message>comparator(sortBy));
+            if (limit > 0 && entries.size() > limit) {
+                entries = entries.subList(0, limit);
+            }
+
+            JSArray messages = new JSArray();
+
+            for (NearbyRegistry.Entry<Message> entry : entries) {
+                Subscription subscription = subscriptions.get(entry);
+
+                JSObject messageObject = new JSObject();
+                messageObject.put("subscriptionId", subscription.id);
+
+                int handle = subscription.mEngine.mMessageHandles.get(entry.key);
+                if (handle != MessageHandles.NO_HANDLE) {
+                    messageObject.put("handle", handle);
+                }
+                messageObject.put("message", toMessageObject(entry.key));
+                messageObject.put("firstSeen", entry.firstSeen);
+                messageObject.put("lastSeen", entry.lastSeen);
+                if (entry.hasBleSignal) {
+                    messageObject.put("bleSignal", toBleSignalObject(entry.rssi, entry.txPower));
+                }
+                if (entry.hasDistance) {
+                    messageObject.put("distance", toDistanceObject(entry.accuracy, entry.meters));
+                }
+
+                messages.put(messageObject);
+            }
+
+            JSObject data = new JSObject();
+            data.put("messages", messages);
 
             call.success(data);
         } catch (Exception e) {
             call.error(e.getLocalizedMessage(), e);
         }
     }
+
+    /**
+     * A subscription with its own options, which tracks the messages it receives independently
+     * of other subscriptions. Its events are tagged with its ID.
+     */
+    private class Subscription extends NearbySession.Subscription<Message, SubscribeOptions> implements SubscriptionEngine.Sink<Message> {
+        // Tracks the messages received by all shards, and reports them as events to this subscription.
+        final SubscriptionEngine<Message> mEngine;
+
+        // Switches between the strategy and a cheaper one depending on activity, if adaptive.
+        volatile AdaptiveController mAdaptiveController;
+        volatile ScheduledFuture<?> mAdaptiveTick;
+
+        /**
+         * Records a message found or lost, or a signal or distance change, which may switch an adaptive subscription back to its strategy.
+         */
+        void onActivity() {
+            AdaptiveController adaptiveController = this.mAdaptiveController;
+            if (adaptiveController != null && adaptiveController.onActivity(System.currentTimeMillis())) {
+                try {
+                    // Off the thread of the callback.
+                    getScheduler().execute(() -> switchStrategy(this, false));
+                } catch (RejectedExecutionException e) {
+                    // Destroyed in the meantime.
+                }
+            }
+        }
+
+        Subscription(String id, SignalFilter<Message> signalFilter, LostDebouncer<Message> lostDebouncer, ContentFilter contentFilter) {
+            super(id);
+            this.mEngine = new SubscriptionEngine<>(mMessageCodec, this, Clock.SYSTEM, mNextHandle,
+                    // Reassembles the contents which have been split into chunk messages.
+                    new ChunkAssembler<Message, Message>(
+                            (byte[] content, String type, String namespace) -> inflate(new Message(content, namespace, type)),
+                            Constants.CHUNK_TIMEOUT_MILLIS, Constants.CHUNK_MAX_TRANSFERS, Constants.CHUNK_MAX_BYTES),
+                    signalFilter, lostDebouncer, contentFilter, mMetrics);
+        }
+
+        @Override
+        public void onBleSignalChanged(final Message message, final int handle, final int rssi, final int txPower,
+                                       final double smoothedRssi, final String band, final long receivedAt) {
+            // Handles are unique across subscriptions, so they key the updates per subscription and message.
+            mEventDispatcher.dispatch("onBleSignalChanged", handle, () -> {
+                JSObject data = toEventObject(message, handle);
+                data.put("bleSignal", toBleSignalObject(rssi, txPower, smoothedRssi, band));
+                putTimestamps(data, mBleSignalDelay, receivedAt);
+
+                notifyListeners("onBleSignalChanged", data);
+            });
+        }
+
+        @Override
+        public void onDistanceChanged(final Message message, final int handle, final int accuracy, final double meters,
+                                      final long receivedAt) {
+            mEventDispatcher.dispatch("onDistanceChanged", handle, () -> {
+                JSObject data = toEventObject(message, handle);
+                data.put("distance", toDistanceObject(accuracy, meters));
+                putTimestamps(data, mDistanceDelay, receivedAt);
+
+                notifyListeners("onDistanceChanged", data);
+            });
+        }
+
+        @Override
+        public void onFound(final Message message, final int handle, final long receivedAt) {
+            mEventDispatcher.dispatch(() -> {
+                JSObject data = new JSObject();
+                data.put("subscriptionId", this.id);
+                data.put("handle", handle);
+                data.put("message", toMessageObject(message));
+                putTimestamps(data, mFoundDelay, receivedAt);
+
+                notifyListeners("onFound", data);
+            });
+        }
+
+        @Override
+        public void onLost(final Message message, final int handle, final long receivedAt) {
+            // Pending signal or distance updates are stale once the message is gone.
+            mEventDispatcher.discard(handle);
+
+            mEventDispatcher.dispatch(() -> {
+                JSObject data = toEventObject(message, handle);
+                putTimestamps(data, mLostDelay, receivedAt);
+
+                notifyListeners("onLost", data);
+            });
+        }
+
+        private JSObject toEventObject(Message message, int handle) {
+            return GoogleNearbyMessages.this.toEventObject(this.id, message, handle);
+        }
+
+        @Override
+        void onCancelled() {
+            this.mEngine.clear();
+        }
+
+        @Override
+        void onRemoved() {
+            this.mEngine.setEventBatcher(null);
+
+            if (this.mAdaptiveTick != null) {
+                this.mAdaptiveTick.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * One of the underlying subscriptions of a subscription, whose callbacks are merged
+     * into the event stream of the subscription.
+     */
+    // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/MessageListener
+    private class Shard implements NearbySession.Shard<Message, SubscribeOptions> {
+        // A listener for receiving subscribed messages. These callbacks will be delivered when messages are found or lost.
+
+        final Subscription mSubscription;
+        final SubscribeOptions mOptions;
+        // The options with the cheaper strategy, if the subscription is adaptive.
+        final SubscribeOptions mQuietOptions;
+
+        Shard(Subscription subscription, SubscribeOptions options, SubscribeOptions quietOptions) {
+            this.mSubscription = subscription;
+            this.mOptions = options;
+            this.mQuietOptions = quietOptions;
+        }
+
+        /**
+         * Returns the options for the current mode of the subscription.
+         */
+        @Override
+        public SubscribeOptions getOptions() {
+            AdaptiveController adaptiveController = this.mSubscription.mAdaptiveController;
+            if (this.mQuietOptions != null && adaptiveController != null && adaptiveController.getMode() == AdaptiveController.QUIET) {
+                return this.mQuietOptions;
+            }
+            return this.mOptions;
+        }
+
+        /**
+         * Called when the Bluetooth Low Energy (BLE) signal associated with a message changes.
+         * <p>
+         * This is currently only called for BLE beacon messages.
+         * <p>
+         * For example, this is called when we see the first BLE advertisement
+         * frame associated with a message; or when we see subsequent frames with
+         * significantly different received signal strength indicator (RSSI)
+         * readings.
+         * <p>
+         * For more information, see the MessageListener Javadocs.
+         */
+        // https://developers.google.com/nearby/messages/android/advanced#rssi_and_distance_callbacks
+        @Override
+        public void onBleSignalChanged(Message received, int rssi, int txPower) {
+            mReceivedBleSignal.increment();
+
+            mTrace.record(TraceBuffer.LEVEL_DEBUG, "onBleSignalChanged", this.mSubscription.id, received.getType(),
+                    rssi, txPower, 0);
+
+            this.mSubscription.onActivity();
+
+            this.mSubscription.mEngine.onBleSignalChanged(received, rssi, txPower);
+        }
+
+        /**
+         * Called when Nearby's estimate of the distance to a message changes.
+         * <p>
+         * This is currently only called for BLE beacon messages.
+         * <p>
+         * For example, this is called when we first gather enough information
+         * to make a distance estimate; or when the message remains nearby,
+         * but gets closer or further away.
+         * <p>
+         * For more information, see the MessageListener Javadocs.
+         */
+        // https://developers.google.com/nearby/messages/android/advanced#rssi_and_distance_callbacks
+        @Override
+        public void onDistanceChanged(Message received, int accuracy, double meters) {
+            mReceivedDistance.increment();
+
+            mTrace.record(TraceBuffer.LEVEL_DEBUG, "onDistanceChanged", this.mSubscription.id, received.getType(),
+                    accuracy, 0, meters);
+
+            this.mSubscription.onActivity();
+
+            this.mSubscription.mEngine.onDistanceChanged(received, accuracy, meters);
+        }
+
+        /**
+         * Called when messages are found.
+         * <p>
+         * This method is called the first time the message is seen nearby.
+         * <p>
+         * After a message has been lost (see onLost(Message)), it's eligible
+         * for onFound(Message) again.
+         */
+        @Override
+        public void onFound(Message received) {
+            mReceivedFound.increment();
+
+            mTrace.record(TraceBuffer.LEVEL_INFO, "onFound", this.mSubscription.id, received.getType(),
+                    received.getContent().length, 0, 0);
+
+            this.mSubscription.onActivity();
+
+            // Messages matching the filters of multiple shards are only reported found once.
+            if (this.mSubscription.mEngine.onShardFound(received)) {
+                this.mSubscription.mEngine.onFound(received);
+            }
+        }
+
+        /**
+         * Called when a message is no longer detectable nearby.
+         * <p>
+         * Note: This callback currently works best for BLE beacon messages.
+         * For other messages, it may not be called in a timely fashion, or at all.
+         * <p>
+         * This method will not be called repeatedly (unless the message is
+         * found again between lost calls).
+         */
+        @Override
+        public void onLost(Message received) {
+            mReceivedLost.increment();
+
+            mTrace.record(TraceBuffer.LEVEL_INFO, "onLost", this.mSubscription.id, received.getType(),
+                    received.getContent().length, 0, 0);
+
+            this.mSubscription.onActivity();
+
+            // ...and only reported lost once no shard sees them anymore.
+            if (this.mSubscription.mEngine.onShardLost(received)) {
+                this.mSubscription.mEngine.onLost(received);
+            }
+        }
+    }
 }
@@ -0,0 +1,206 @@
+package com.getcapacitor.plugin;
+
+import android.app.PendingIntent;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.nearby.messages.BleSignal;
+import com.google.android.gms.nearby.messages.Distance;
+import com.google.android.gms.nearby.messages.Message;
+import com.google.android.gms.nearby.messages.MessageListener;
+import com.google.android.gms.nearby.messages.MessagesClient;
+import com.google.android.gms.nearby.messages.NearbyMessagesStatusCodes;
+import com.google.android.gms.nearby.messages.PublishOptions;
+import com.google.android.gms.nearby.messages.SubscribeOptions;
+import com.google.android.gms.tasks.Task;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes and subscribes through the MessagesClient of Play services, and completes the
+ * callbacks with the status code of the ApiException a task failed with.
+ * <p>
+ * Operations fail with ERROR while there is no client, i.e. before initialize() and after destroy.
+ */
+// https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/MessagesClient
+class MessagesClientTransport implements NearbyTransport<Message, PublishOptions, SubscribeOptions> {
+    private static final String TAG = "MessagesClientTransport";
+
+    /**
+     * Forwards the callbacks of Nearby to a listener of the transport.
+     */
+    private static class ListenerAdapter extends MessageListener {
+        final Listener<Message> mListener;
+
+        ListenerAdapter(Listener<Message> listener) {
+            this.mListener = listener;
+        }
+
+        @Override
+        public void onFound(Message message) {
+            this.mListener.onFound(message);
+        }
+
+        @Override
+        public void onLost(Message message) {
+            this.mListener.onLost(message);
+        }
+
+        @Override
+        public void onBleSignalChanged(Message message, BleSignal bleSignal) {
+            this.mListener.onBleSignalChanged(message, bleSignal.getRssi(), bleSignal.getTxPower());
+        }
+
+        @Override
+        public void onDistanceChanged(Message message, Distance distance) {
+            this.mListener.onDistanceChanged(message, distance.getAccuracy(), distance.getMeters());
+        }
+    }
+
+    private volatile MessagesClient mMessagesClient;
+
+    // The MessageListener each listener is subscribed with, so that it can be unsubscribed, or subscribed again with other options.
+    private final Map<Listener<Message>, MessageListener> mListeners = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the message of an operation which failed with the given status code.
+     */
+    static String getStatusMessage(int statusCode) {
+        return statusCode + ": " + NearbyMessagesStatusCodes.getStatusCodeString(statusCode);
+    }
+
+    void setMessagesClient(MessagesClient messagesClient) {
+        this.mMessagesClient = messagesClient;
+
+        if (messagesClient == null) {
+            this.mListeners.clear();
+        }
+    }
+
+    @Override
+    public void publish(Message message, PublishOptions options, Callback callback) {
+        MessagesClient messagesClient = this.mMessagesClient;
+        if (messagesClient == null) {
+            callback.onFailure(ERROR);
+            return;
+        }
+
+        complete(options != null
+                // Publishes a message so that it is visible to nearby devices.
+                ? messagesClient.publish(message, options)
+                : messagesClient.publish(message), callback);
+    }
+
+    @Override
+    public void unpublish(Message message, Callback callback) {
+        MessagesClient messagesClient = this.mMessagesClient;
+        if (messagesClient == null) {
+            callback.onFailure(ERROR);
+            return;
+        }
+
+        // Cancels an existing published message.
+        complete(messagesClient.unpublish(message), callback);
+    }
+
+    @Override
+    public void subscribe(final Listener<Message> listener, SubscribeOptions options, final Callback callback) {
+        MessagesClient messagesClient = this.mMessagesClient;
+        if (messagesClient == null) {
+            callback.onFailure(ERROR);
+            return;
+        }
+
+        MessageListener messageListener = this.mListeners.get(listener);
+        final boolean added = messageListener == null;
+        if (added) {
+            messageListener = new ListenerAdapter(listener);
+            this.mListeners.put(listener, messageListener);
+        }
+
+        final MessageListener subscribed = messageListener;
+
+        // Subscribes for published messages from nearby devices, replacing the options if the listener is subscribed already.
+        Task<Void> task = options != null
+                ? messagesClient.subscribe(subscribed, options)
+                : messagesClient.subscribe(subscribed);
+
+        complete(task, new Callback() {
+            @Override
+            public void onSuccess() {
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onFailure(int statusCode) {
+                if (added) {
+                    mListeners.remove(listener, subscribed);
+                }
+
+                callback.onFailure(statusCode);
+            }
+        });
+    }
+
+    @Override
+    public void unsubscribe(Listener<Message> listener, Callback callback) {
+        MessageListener messageListener = this.mListeners.remove(listener);
+
+        MessagesClient messagesClient = this.mMessagesClient;
+        if (messagesClient == null) {
+            callback.onFailure(ERROR);
+            return;
+        }
+
+        if (messageListener == null) {
+            // Not subscribed.
+            callback.onSuccess();
+            return;
+        }
+
+        // Cancels an existing subscription.
+        complete(messagesClient.unsubscribe(messageListener), callback);
+    }
+
+    /**
+     * Subscribes with a PendingIntent, so that messages are received even if the app is not running.
+     */
+    void subscribe(PendingIntent pendingIntent, SubscribeOptions options, Callback callback) {
+        MessagesClient messagesClient = this.mMessagesClient;
+        if (messagesClient == null) {
+            callback.onFailure(ERROR);
+            return;
+        }
+
+        // Subscribes for published messages from nearby devices in a persistent and low-power manner.
+        complete(messagesClient.subscribe(pendingIntent, options), callback);
+    }
+
+    void unsubscribe(PendingIntent pendingIntent, Callback callback) {
+        MessagesClient messagesClient = this.mMessagesClient;
+        if (messagesClient == null) {
+            callback.onFailure(ERROR);
+            return;
+        }
+
+        // Cancels the subscription of a PendingIntent.
+        complete(messagesClient.unsubscribe(pendingIntent), callback);
+    }
+
+    private static void complete(Task<Void> task, final Callback callback) {
+        task
+                .addOnSuccessListener(
+                        (Void) -> {
+                            callback.onSuccess();
+                        })
+                .addOnFailureListener(
+                        (Exception e) -> {
+                            if (!(e instanceof ApiException)) {
+                                Log.w(TAG, "Operation failed.", e);
+                            }
+
+                            callback.onFailure(e instanceof ApiException ? ((ApiException) e).getStatusCode() : ERROR);
+                        });
+    }
+}
@@ -47,6 +47,14 @@ export interface PublishCallback {
 export interface PublishOptions {
   // Sets the strategy for publishing.
   strategy?: Strategy;
+  // Compress the content with deflate, if that makes it smaller (Android).
+  // Subscribers of this plugin decompress it before reporting the message.
+  compress?: boolean;
+  // Split content larger than chunkSize into multiple chunk messages (Android).
+  // Subscribers of this plugin reassemble them and report a single message once all chunks have been found.
+  chunked?: boolean;
+  // The maximum size of each chunk message in bytes, including a 17 byte header. Defaults to MAX_CONTENT_SIZE_BYTES.
+  chunkSize?: number;
   // Sets a callback which will be notified when significant events occur that affect this publish.
   // UNUSED // callback?: PublishCallback;
 }
@@ -60,6 +68,11 @@ export interface BleSignal {
   // Returns the transmission power level at 1 meter, in dBm.
   // Returns UNKNOWN_TX_POWER if the advertiser did not report its transmission power.
   txPower: number;
+
+  // The smoothed RSSI in dBm, if a signal filter is applied (Android).
+  smoothedRssi?: number;
+  // The proximity band of the smoothed RSSI, if any (Android).
+  band?: string;
 }
 
 // Represents the distance to a Message.
@@ -122,15 +135,65 @@ export interface MessageFilter {
   // This can only be called once to set the number of audio bytes to be received.
   includeAudioBytes?: includeAudioBytes;
   // Includes Eddystone UIDs.
-  includeEddystoneUids?: includeEddystoneUids;
+  includeEddystoneUids?: includeEddystoneUids | includeEddystoneUids[];
   // Includes iBeacon IDs.
-  includeIBeaconIds?: includeIBeaconIds;
+  includeIBeaconIds?: includeIBeaconIds | includeIBeaconIds[];
   // Filters for all messages in the given namespace with the given type.
-  includeNamespacedType?: includeNamespacedType;
+  includeNamespacedType?: includeNamespacedType | includeNamespacedType[];
+  // Arrays of clauses are deduplicated, and split across multiple subscriptions if there are more than
+  // maxFilterClauses of them; events of all of them are merged into the events of the subscription (Android).
   // Includes the previously constructed filter.
   // UNUSED // includeFilter?: MessageFilter;
 }
 
+// A named proximity band, e.g. "immediate", "near" or "far".
+export interface ProximityBand {
+  name: string;
+  // The smallest smoothed RSSI, in dBm, to be considered within this band.
+  minRssi: number;
+}
+
+// A field at a fixed position within the content (Android).
+export interface ContentField {
+  // The position of the field within the content, in bytes.
+  offset: number;
+  // The base64 encoded bytes the field must equal.
+  equals?: string;
+  // Otherwise, the field is an unsigned big-endian number of this many bytes (1 to 8, defaults to 1).
+  length?: number;
+  // The inclusive bounds of the number.
+  min?: number;
+  max?: number;
+}
+
+// Rejects messages by their content, before any event is emitted for them (Android).
+export interface ContentFilter {
+  // The base64 encoded prefixes, any of which the content must start with.
+  prefixes?: string[];
+  // The fields, all of which must match.
+  fields?: ContentField[];
+  // The base64 encoded SHA-256 hashes of the only contents to accept.
+  allow?: string[];
+  // The base64 encoded SHA-256 hashes of contents to reject.
+  deny?: string[];
+}
+
+// Smooths the RSSI readings of each message and only emits onBleSignalChanged for significant changes (Android).
+export interface SignalFilter {
+  // Either an exponential moving average (default) or a one-dimensional Kalman filter.
+  mode?: 'ema' | 'kalman';
+  // The smoothing factor of the exponential moving average, within (0, 1]. Defaults to 0.3.
+  alpha?: number;
+  // The process noise of the Kalman filter. Defaults to 0.008.
+  processNoise?: number;
+  // The measurement noise of the Kalman filter. Defaults to 4.
+  measurementNoise?: number;
+  // The change of the smoothed RSSI, in dBm, required to emit another event. Defaults to 3.
+  minDelta?: number;
+  // An event is also emitted whenever the smoothed RSSI enters another band.
+  bands?: ProximityBand[];
+}
+
 /*
 // Callback for events which affect subscriptions.
 // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/SubscribeCallback
@@ -147,10 +210,178 @@ export interface SubscribeOptions {
   strategy?: Strategy;
   // Sets a filter to specify which messages to receive.
   filter: MessageFilter;
+  // Smooths the RSSI readings and suppresses insignificant changes (Android).
+  signalFilter?: SignalFilter;
+  // Only report messages lost after they have not been seen for this many milliseconds (Android).
+  // Messages found again within this grace period are neither reported lost nor found again.
+  lostGraceMillis?: number;
+  // The maximum number of filter clauses per underlying subscription. Defaults to 100 (Android).
+  maxFilterClauses?: number;
+  // Only receive messages whose content matches this filter (Android).
+  contentFilter?: ContentFilter;
+  // Switch to a cheaper strategy while nothing is found or lost, and back once activity resumes (Android).
+  adaptive?: AdaptiveOptions;
+  // Subscribe with a PendingIntent, which receives messages even if the app is not running (Android).
+  // The events are queued until they are read by drainBackgroundEvents(), and the strategy defaults to BLE only.
+  // signalFilter, lostGraceMillis, maxFilterClauses and contentFilter do not apply.
+  background?: boolean;
   // Sets a callback which will be notified when significant events occur that affect this subscription.
   // UNUSED // callback?: SubscribeCallback;
 }
 
+// Switches an adaptive subscription between its strategy and a cheaper one (Android).
+// Found, lost, BLE signal and distance events count as activity. Either switch waits for minDwellMillis since the previous one.
+export interface AdaptiveOptions {
+  // The strategy while quiet. Defaults to BLE_ONLY.
+  quietStrategy?: Strategy;
+  // Switch to the quiet strategy after no activity for this many milliseconds. Defaults to 60000.
+  quietAfterMillis?: number;
+  // Switch back once this many events occurred within activeWindowMillis while quiet. Defaults to 2.
+  activeThreshold?: number;
+  // Defaults to 10000.
+  activeWindowMillis?: number;
+  // The minimum time between two switches. Defaults to 30000.
+  minDwellMillis?: number;
+}
+
+// Coalesces onBleSignalChanged and onDistanceChanged events into onNearbyBatch events (Android).
+export interface BatchingOptions {
+  // How long signal and distance updates are collected before they are emitted, in milliseconds.
+  // Defaults to 250.
+  flushIntervalMillis?: number;
+  // Emit as soon as updates for this many distinct messages are pending.
+  maxBatchSize?: number;
+}
+
+// The latest signal and distance update of a message within a batch.
+export interface NearbyBatchEvent {
+  // The handle assigned to the message when it was found.
+  handle?: number;
+  // Omitted if messageHandles is enabled and the message has a handle.
+  message?: Message;
+  bleSignal?: BleSignal;
+  distance?: Distance;
+  // If timestamps is enabled, as for all message events (Android).
+  receivedAt?: number;
+  dispatchedAt?: number;
+}
+export type NearbyBatch = {
+  // The subscription which received the messages (Android).
+  subscriptionId?: string;
+  events: NearbyBatchEvent[];
+}
+
+// The payload of onFound and onLost events.
+export interface FoundEvent {
+  // The subscription which received the message (Android).
+  subscriptionId?: string;
+  // A compact handle assigned when the message was found, which stays valid until it is lost (Android).
+  handle?: number;
+  // Omitted from onLost and update events if messageHandles is enabled and the message has a handle.
+  message?: Message;
+  // If timestamps is enabled, the monotonic times, in milliseconds, of the native callback
+  // and of handing the event to the bridge (Android).
+  receivedAt?: number;
+  dispatchedAt?: number;
+}
+// The payload of onBleSignalChanged events.
+export interface BleSignalEvent extends FoundEvent {
+  bleSignal: BleSignal;
+}
+// The payload of onDistanceChanged events.
+export interface DistanceEvent extends FoundEvent {
+  distance: Distance;
+}
+// The payload of onPublishExpired events.
+export interface PublishExpiredEvent {
+  // The UUID returned by publish().
+  uuid: string;
+}
+// The payload of onSubscribeExpired events.
+export interface SubscribeExpiredEvent {
+  // The ID of the expired subscription (Android).
+  subscriptionId?: string;
+}
+
+// A message which is currently visible, as returned by getNearby() (Android).
+export interface NearbyMessage {
+  // The subscription which received the message.
+  subscriptionId: string;
+  // The handle assigned to the message when it was found.
+  handle?: number;
+  message: Message;
+  // When the message was first seen, in milliseconds since epoch.
+  firstSeen: number;
+  // When the message was last seen, in milliseconds since epoch.
+  lastSeen: number;
+  // The latest BLE signal, if any.
+  bleSignal?: BleSignal;
+  // The latest distance estimate, if any.
+  distance?: Distance;
+}
+export type NearbyMessages = {
+  messages: NearbyMessage[];
+}
+
+// An event received by the background subscription (Android).
+export interface BackgroundEvent {
+  event: 'onFound' | 'onLost' | 'onBleSignalChanged' | 'onDistanceChanged';
+  // When the event was received, in milliseconds since epoch.
+  timestamp: number;
+  message: Message;
+  bleSignal?: BleSignal;
+  distance?: Distance;
+}
+export type BackgroundEvents = {
+  // Oldest first.
+  events: BackgroundEvent[];
+  // The number of events dropped because the queue was full.
+  dropped: number;
+  // The number of events left in the queue.
+  remaining: number;
+}
+
+// Events are built and delivered on a dedicated thread (Android).
+// Pending signal and distance updates are coalesced per message and bounded by queueSize.
+// Found, lost, expired and permission events are never dropped and are delivered ahead of any pending update.
+export interface DispatchOptions {
+  // The maximum number of pending signal and distance updates. Defaults to 1024.
+  queueSize?: number;
+  // Which update to drop when the queue is full. Defaults to 'dropOldest'.
+  overflow?: 'dropOldest' | 'dropNewest';
+}
+
+// Retries with exponential backoff and jitter (Android).
+export interface RetryOptions {
+  // The maximum number of attempts, including the first one. Defaults to 5.
+  maxAttempts?: number;
+  // The delay before the first retry, which doubles with every further retry. Defaults to 500.
+  baseDelayMillis?: number;
+  // The maximum delay between attempts. Defaults to 30000.
+  maxDelayMillis?: number;
+  // The share of the delay which is randomized, within 0 and 1. Defaults to 0.5.
+  jitter?: number;
+  // The status codes to retry. Defaults to APP_QUOTA_LIMIT_REACHED, TOO_MANY_PENDING_INTENTS,
+  // and the network error, internal error and timeout common status codes.
+  statusCodes?: number[];
+}
+
+export interface CompressionOptions {
+  // A base64 encoded preset dictionary of content commonly found in messages.
+  // Publishers and subscribers must use the same dictionary.
+  dictionary?: string;
+}
+
+// Latencies in milliseconds.
+export interface Latency {
+  count: number;
+  mean: number;
+  p50: number;
+  p90: number;
+  p99: number;
+  max: number;
+}
+
 export type InitializeResult = {
   // Restart the app after granting permission to re-initialize with background context (Android).
   restartApp?: boolean;
@@ -158,12 +389,118 @@ export type InitializeResult = {
 export type UUID = {
   uuid: string;
 }
+// Identifies a subscription; events of its messages carry it as subscriptionId (Android).
+export type SubscriptionId = {
+  id: string;
+}
+// The outcome of a single publish within a batch, either its UUID or an error.
+export type PublishResult = {
+  uuid?: string;
+  error?: string;
+}
+// The outcome of republishing a message or resubscribing a subscription on resume (Android).
+export type ResumeResult = {
+  // Either the UUID of the message, or the ID of the subscription.
+  uuid?: string;
+  id?: string;
+  resumed: boolean;
+  // Still published or subscribed, e.g. resumed within the linger window of pause().
+  unchanged?: boolean;
+  // How long the publish or subscribe took, in milliseconds.
+  millis?: number;
+  error?: string;
+}
+export type ResumeReport = {
+  messages: ResumeResult[];
+  subscriptions: ResumeResult[];
+  // How long until the last publish or subscribe completed, in milliseconds.
+  millis: number;
+}
+export type PublishBatchResult = {
+  // In the same order as the published messages.
+  results: PublishResult[];
+}
+// The state of a single subscription (Android).
+export type SubscriptionStatus = {
+  id: string;
+  // The number of underlying subscriptions, more than one if the filter has been split.
+  shards: number;
+  // The number of messages which are currently visible to this subscription.
+  nearby: number;
+  // The number of lost messages absorbed because they were found again within the grace period.
+  absorbedFlaps: number;
+  // The number of messages rejected by the content filter.
+  rejectedMessages: number;
+  // Whether the subscription currently uses its quiet strategy, if adaptive.
+  quiet?: boolean;
+}
 export type Status = {
   isPublishing: boolean;
   isSubscribing: boolean;
   uuids: string[];
+  // The number of signal and distance updates dropped due to backpressure (Android).
+  droppedEvents?: number;
+  // The number of signal and distance updates replaced by a newer one of the same message before delivery (Android).
+  supersededEvents?: number;
+  // The number of events which failed with an exception while being delivered (Android).
+  failedEvents?: number;
+  // The time found, lost, expired and permission events spent waiting to be delivered (Android).
+  presenceLatency?: Latency;
+  // The number of lost messages absorbed because they were found again within the grace period (Android).
+  absorbedFlaps?: number;
+  // The number of publish and subscribe retries, and of those which failed after running out of attempts (Android).
+  retries?: number;
+  retryGiveUps?: number;
+  // The active subscriptions (Android).
+  subscriptions?: SubscriptionStatus[];
 }
 
+// A snapshot of the plugin metrics (Android).
+export type Metrics = {
+  // Counters by name, e.g. 'received.onFound', 'delivered.onFound', 'bridge.contentBytes', 'dispatch.dropped',
+  // 'dispatch.superseded', 'dispatch.errors', 'retry.retries', 'retry.giveUps', 'subscribe.absorbedFlaps', 'subscribe.rejectedMessages', 'store.restored',
+  // or 'adaptive.quiet' and 'adaptive.active' (the number of switches to the quiet strategy, and back).
+  counters: { [name: string]: number };
+  // Latency histograms by name, e.g. 'task.publish', 'task.subscribe', 'task.unpublish', 'dispatch.presenceLatency',
+  // 'store.load' or 'delay.onFound' (from the native callback to the dispatch of its event).
+  // 'startup.initialize' is the time initialize() took, and 'startup.firstSubscribe' the time from loading the plugin
+  // until the first subscribe succeeded.
+  histograms: { [name: string]: Latency };
+  gauges: {
+    activePublications: number;
+    activeSubscriptions: number;
+    nearbyMessages: number;
+    // The number of events waiting to be delivered.
+    pendingEvents: number;
+  };
+}
+
+// A diagnostic record of a listener callback or permission change (Android).
+export interface TraceRecord {
+  // The monotonic time of the record, in milliseconds.
+  time: number;
+  event: 'onFound' | 'onLost' | 'onBleSignalChanged' | 'onDistanceChanged' | 'onPermissionChanged';
+  subscriptionId?: string;
+  // The type of the received message.
+  type?: string;
+  // The size of the received content in bytes, for onFound and onLost.
+  size?: number;
+  rssi?: number;
+  txPower?: number;
+  accuracy?: number;
+  meters?: number;
+  permissionGranted?: boolean;
+}
+export type Trace = {
+  logLevel: LogLevel;
+  // The number of records which have been overwritten by newer ones.
+  overwritten: number;
+  // The kept records, oldest first.
+  records: TraceRecord[];
+}
+// 'info' traces found, lost and permission changes, 'debug' also signal and distance updates.
+export type LogLevel = 'none' | 'info' | 'debug';
+
 // API which allows your app to publish simple messages and subscribe to receive those messages from nearby devices.
 export interface GoogleNearbyMessagesPlugin {
   // Initializes the Nearby Messages API.
@@ -172,6 +509,23 @@ export interface GoogleNearbyMessagesPlugin {
     apiKey?: string,
     // Enable debug logging to help track down problems (iOS).
     debug?: boolean,
+    // Emit signal and distance updates in batches instead of individually (Android).
+    batching?: BatchingOptions,
+    // Refer to found messages by their handle only, once onFound delivered the full message (Android).
+    messageHandles?: boolean,
+    // Bounds the queue of events waiting to be delivered (Android).
+    dispatch?: DispatchOptions,
+    // Compression of published and received contents (Android).
+    compression?: CompressionOptions,
+    // Retries publishes and subscribes which failed with a transient status code (Android).
+    retry?: RetryOptions,
+    // Add receivedAt and dispatchedAt to message events, to measure their end-to-end latency (Android).
+    timestamps?: boolean,
+    // Which diagnostics are traced into a ring buffer, read by dumpTrace(). Defaults to 'none' (Android).
+    logLevel?: LogLevel,
+    // Keep published messages across process deaths, and publish them again under their UUIDs
+    // for the rest of their TTL once initialized (Android).
+    persistPublications?: boolean,
   }): Promise<InitializeResult>;
   // Resets the Nearby Messages API.
   // This will unsubscribe and unpublish all existing messages and emits onSubscribeExpired and onPublishExpired events.
@@ -185,6 +539,15 @@ export interface GoogleNearbyMessagesPlugin {
     options?: PublishOptions,
   }): Promise<UUID>;
 
+  // Publishes multiple messages concurrently with the same options, in a single call (Android).
+  // Resolves once all of them either succeeded or failed.
+  publishBatch(options: {
+    // The Messages to publish for nearby devices to see
+    messages: Message[],
+    // A PublishOptions object for all messages
+    options?: PublishOptions,
+  }): Promise<PublishBatchResult>;
+
   // Cancels an existing published message.
   unpublish(options: {
     // A Message that is currently published
@@ -193,36 +556,82 @@ export interface GoogleNearbyMessagesPlugin {
   }): Promise<void>;
 
   // Subscribes for published messages from nearby devices, using the default options in DEFAULT.
+  // Multiple subscriptions may be active at the same time, each with its own options (Android).
   subscribe(options: {
     // A SubscribeOptions object for this operation
     options?: SubscribeOptions,
-  }): Promise<void>;
+  }): Promise<SubscriptionId>;
 
   // Cancels an existing subscription.
   unsubscribe(options: {
+    // The subscription to cancel, or all subscriptions if omitted (Android).
+    id?: string,
   }): Promise<void>;
 
-  pause(): Promise<void>;
-  resume(): Promise<void>;
+  pause(options?: {
+    // Keep publishing and subscribing for this many milliseconds before tearing down, so that
+    // a resume within this window is a no-op (Android).
+    lingerMillis?: number,
+  }): Promise<void>;
+  // Republishes the messages and resubscribes the subscriptions which have been torn down by pause()
+  // in parallel, and resolves once all of them completed (Android).
+  // The report is only filled in on Android; resume() is not implemented on the web.
+  resume(): Promise<ResumeReport>;
 
   status(): Promise<Status>;
 
+  // Returns a snapshot of the counters and latency histograms of the plugin (Android).
+  getMetrics(options?: {
+    // Reset the counters and histograms once they have been read.
+    reset?: boolean,
+  }): Promise<Metrics>;
+
+  // Returns the trace records, as enabled by logLevel (Android).
+  dumpTrace(options?: {
+    // Clear the records once they have been read.
+    clear?: boolean,
+  }): Promise<Trace>;
+
+  // Returns and removes the events queued by the background subscription (Android).
+  drainBackgroundEvents(options?: {
+    // The maximum number of events to return, the rest is left for the next call.
+    max?: number,
+  }): Promise<BackgroundEvents>;
+
+  // Returns the messages which are currently visible, without replaying found and lost events (Android).
+  getNearby(options: {
+    // Only include messages of this type.
+    type?: string,
+    // Only include messages of this namespace.
+    namespace?: string,
+    // Only include messages estimated to be at most this many meters away.
+    maxMeters?: number,
+    // Only include messages of this subscription.
+    subscriptionId?: string,
+    // The order of the returned messages, defaults to 'lastSeen' (most recent first).
+    sortBy?: 'lastSeen' | 'firstSeen' | 'distance' | 'rssi',
+    // The maximum number of messages to return.
+    limit?: number,
+  }): Promise<NearbyMessages>;
+
   // Called when permission is granted or revoked for this app to use Nearby.
   addListener(eventName: 'onPermissionChanged', listenerFunc: (permissionGranted: boolean) => void): PluginListenerHandle;
 
   // Called when the Bluetooth Low Energy (BLE) signal associated with a message changes.
-  addListener(eventName: 'onBleSignalChanged', listenerFunc: (message: Message, bleSignal: BleSignal) => void): PluginListenerHandle;
+  addListener(eventName: 'onBleSignalChanged', listenerFunc: (event: BleSignalEvent) => void): PluginListenerHandle;
   // Called when Nearby's estimate of the distance to a message changes.
-  addListener(eventName: 'onDistanceChanged', listenerFunc: (message: Message, distance: Distance) => void): PluginListenerHandle;
+  addListener(eventName: 'onDistanceChanged', listenerFunc: (event: DistanceEvent) => void): PluginListenerHandle;
+  // Called with the latest signal and distance updates per message, if batching is enabled (Android).
+  addListener(eventName: 'onNearbyBatch', listenerFunc: (batch: NearbyBatch) => void): PluginListenerHandle;
   // Called when messages are found.
-  addListener(eventName: 'onFound', listenerFunc: (message: Message) => void): PluginListenerHandle;
+  addListener(eventName: 'onFound', listenerFunc: (event: FoundEvent) => void): PluginListenerHandle;
   // Called when a message is no longer detectable nearby.
-  addListener(eventName: 'onLost', listenerFunc: (message: Message) => void): PluginListenerHandle;
+  addListener(eventName: 'onLost', listenerFunc: (event: FoundEvent) => void): PluginListenerHandle;
 
   // The published message is expired.
-  addListener(eventName: 'onPublishExpired', listenerFunc: (uuid: UUID) => void): PluginListenerHandle;
+  addListener(eventName: 'onPublishExpired', listenerFunc: (event: PublishExpiredEvent) => void): PluginListenerHandle;
   // The subscription is expired.
-  addListener(eventName: 'onSubscribeExpired', listenerFunc: (uuid: UUID) => void): PluginListenerHandle;
+  addListener(eventName: 'onSubscribeExpired', listenerFunc: (event: SubscribeExpiredEvent) => void): PluginListenerHandle;
 }
 
 // https://developers.google.com/android/reference/com/google/android/gms/nearby/messages/Message#constant-summary
@@ -4,9 +4,21 @@ import { GoogleNearbyMessagesPlugin } from './definitions';
 import {
   Message,
   PublishOptions,
+  PublishBatchResult,
   SubscribeOptions,
+  BatchingOptions,
+  DispatchOptions,
+  CompressionOptions,
+  RetryOptions,
   InitializeResult,
+  Metrics,
+  Trace,
+  LogLevel,
+  NearbyMessages,
+  BackgroundEvents,
   UUID,
+  SubscriptionId,
+  ResumeReport,
   Status,
 } from './definitions';
 
@@ -23,6 +35,23 @@ export class GoogleNearbyMessagesWeb extends WebPlugin implements GoogleNearbyMe
     apiKey?: string,
     // Enable debug logging to help track down problems (iOS).
     debug?: boolean,
+    // Emit signal and distance updates in batches instead of individually (Android).
+    batching?: BatchingOptions,
+    // Refer to found messages by their handle only, once onFound delivered the full message (Android).
+    messageHandles?: boolean,
+    // Bounds the queue of events waiting to be delivered (Android).
+    dispatch?: DispatchOptions,
+    // Compression of published and received contents (Android).
+    compression?: CompressionOptions,
+    // Retries publishes and subscribes which failed with a transient status code (Android).
+    retry?: RetryOptions,
+    // Add receivedAt and dispatchedAt to message events, to measure their end-to-end latency (Android).
+    timestamps?: boolean,
+    // Which diagnostics are traced into a ring buffer, read by dumpTrace(). Defaults to 'none' (Android).
+    logLevel?: LogLevel,
+    // Keep published messages across process deaths, and publish them again under their UUIDs
+    // for the rest of their TTL once initialized (Android).
+    persistPublications?: boolean,
   }): Promise<InitializeResult> {
     console.log("initialize", options);
     throw new Error("Method not implemented.");
@@ -43,6 +72,17 @@ export class GoogleNearbyMessagesWeb extends WebPlugin implements GoogleNearbyMe
     throw new Error("Method not implemented.");
   }
 
+  // Publishes multiple messages concurrently with the same options, in a single call (Android).
+  async publishBatch(options: {
+    // The Messages to publish for nearby devices to see
+    messages: Message[],
+    // A PublishOptions object for all messages
+    options?: PublishOptions,
+  }): Promise<PublishBatchResult> {
+    console.log("publishBatch", options);
+    throw new Error("Method not implemented.");
+  }
+
   // Cancels an existing published message.
   async unpublish(options: {
     // A Message that is currently published
@@ -57,23 +97,29 @@ export class GoogleNearbyMessagesWeb extends WebPlugin implements GoogleNearbyMe
   async subscribe(options: {
     // A SubscribeOptions object for this operation
     options?: SubscribeOptions,
-  }): Promise<void> {
+  }): Promise<SubscriptionId> {
     console.log("subscribe", options);
     throw new Error("Method not implemented.");
   }
 
   // Cancels an existing subscription.
   async unsubscribe(options: {
+    // The subscription to cancel, or all subscriptions if omitted (Android).
+    id?: string,
   }): Promise<void> {
     console.log("unsubscribe", options);
     throw new Error("Method not implemented.");
   }
 
-  async pause(): Promise<void> {
-    console.log("pause");
+  async pause(options?: {
+    // Keep publishing and subscribing for this many milliseconds before tearing down, so that
+    // a resume within this window is a no-op (Android).
+    lingerMillis?: number,
+  }): Promise<void> {
+    console.log("pause", options);
     throw new Error("Method not implemented.");
   }
-  async resume(): Promise<void> {
+  async resume(): Promise<ResumeReport> {
     console.log("resume");
     throw new Error("Method not implemented.");
   }
@@ -82,6 +128,50 @@ export class GoogleNearbyMessagesWeb extends WebPlugin implements GoogleNearbyMe
     console.log("status");
     throw new Error("Method not implemented.");
   }
+
+  async getMetrics(options?: {
+    // Reset the counters and histograms once they have been read.
+    reset?: boolean,
+  }): Promise<Metrics> {
+    console.log("getMetrics", options);
+    throw new Error("Method not implemented.");
+  }
+
+  async dumpTrace(options?: {
+    // Clear the records once they have been read.
+    clear?: boolean,
+  }): Promise<Trace> {
+    console.log("dumpTrace", options);
+    throw new Error("Method not implemented.");
+  }
+
+  // Returns and removes the events queued by the background subscription (Android).
+  async drainBackgroundEvents(options?: {
+    // The maximum number of events to return, the rest is left for the next call.
+    max?: number,
+  }): Promise<BackgroundEvents> {
+    console.log("drainBackgroundEvents", options);
+    throw new Error("Method not implemented.");
+  }
+
+  // Returns the messages which are currently visible, without replaying found and lost events (Android).
+  async getNearby(options: {
+    // Only include messages of this type.
+    type?: string,
+    // Only include messages of this namespace.
+    namespace?: string,
+    // Only include messages estimated to be at most this many meters away.
+    maxMeters?: number,
+    // Only include messages of this subscription.
+    subscriptionId?: string,
+    // The order of the returned messages, defaults to 'lastSeen' (most recent first).
+    sortBy?: 'lastSeen' | 'firstSeen' | 'distance' | 'rssi',
+    // The maximum number of messages to return.
+    limit?: number,
+  }): Promise<NearbyMessages> {
+    console.log("getNearby", options);
+    throw new Error("Method not implemented.");
+  }
 }
 
 const GoogleNearbyMessages = new GoogleNearbyMessagesWeb();